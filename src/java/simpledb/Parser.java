@@ -6,10 +6,13 @@ import jline.ConsoleReader;
 import jline.SimpleCompletor;
 import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.common.Metrics;
 import simpledb.common.Type;
 import simpledb.execution.*;
 import simpledb.optimizer.LogicalPlan;
 import simpledb.optimizer.TableStats;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
 import simpledb.storage.IntField;
 import simpledb.storage.StringField;
 import simpledb.storage.Tuple;
@@ -453,10 +456,14 @@ public class Parser {
                     throw new ParsingException(
                             "Can't start new transactions until current transaction has been committed or rolledback.");
                 curtrans = new Transaction();
-                curtrans.start();
+                if (s.isReadOnly()) {
+                    curtrans.startSnapshot();
+                } else {
+                    curtrans.start();
+                }
                 inUserTrans = true;
-                System.out.println("Started a new transaction tid = "
-                        + curtrans.getId().getId());
+                System.out.println("Started a new " + (s.isReadOnly() ? "read-only " : "")
+                        + "transaction tid = " + curtrans.getId().getId());
                 break;
             default:
                 throw new ParsingException("Unsupported operation");
@@ -497,6 +504,19 @@ public class Parser {
         processNextStatementImpl(is, /*expectNoErrors=*/false);
     }
 
+    /**
+     * Run every statement read from is, one after another; a statement ends
+     * at ';', as at the prompt. A statement that fails is aborted as in
+     * processNextStatement, and the ones after it still run.
+     */
+    public void processStatements(InputStream is) throws IOException {
+        String text = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+        for (String cmd : text.split(";")) {
+            if (!cmd.trim().isEmpty())
+                processNextStatement(cmd.trim() + ";");
+        }
+    }
+
     public void processNextStatementForTest(String s) {
         processNextStatementImpl(new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8)), /*expectNoErrors=*/true);
     }
@@ -581,10 +601,37 @@ public class Parser {
         }
     }
 
+    /**
+     * Compact a heap table, see HeapFile#vacuum, and compute its statistics
+     * again so that plans see its new size.
+     */
+    public void vacuumTable(String name) {
+        DbFile file;
+        try {
+            file = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(name));
+        } catch (NoSuchElementException e) {
+            System.out.println("Unknown table " + name);
+            return;
+        }
+        if (!(file instanceof HeapFile)) {
+            System.out.println("Table " + name + " is not a heap file");
+            return;
+        }
+        HeapFile heapFile = (HeapFile) file;
+        try {
+            int before = heapFile.numPages();
+            heapFile.vacuum();
+            TableStats.computeStatistics(name);
+            System.out.println("Vacuumed " + name + ": " + before + " pages, now " + heapFile.numPages());
+        } catch (IOException | DbException e) {
+            e.printStackTrace();
+        }
+    }
+
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = {"select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into"};
+            "insert", "delete", "values", "into", "vacuum"};
 
     public static void main(String[] argv) throws IOException {
 
@@ -645,7 +692,7 @@ public class Parser {
                 }
 
                 long startTime = System.currentTimeMillis();
-                processNextStatement(new FileInputStream(queryFile));
+                processStatements(new FileInputStream(queryFile));
                 long time = System.currentTimeMillis() - startTime;
                 System.out.printf("----------------\n%.2f seconds\n\n",
                         ((double) time / 1000.0));
@@ -684,6 +731,18 @@ public class Parser {
                         quit = true;
                         break;
                     }
+                    if (cmd.equalsIgnoreCase("stats;")) {
+                        System.out.print(Metrics.report());
+                        line = line.substring(split + 1);
+                        buffer = new StringBuilder();
+                        continue;
+                    }
+                    if (cmd.toLowerCase().startsWith("vacuum ")) {
+                        vacuumTable(cmd.substring(7, cmd.length() - 1).trim());
+                        line = line.substring(split + 1);
+                        buffer = new StringBuilder();
+                        continue;
+                    }
 
                     long startTime = System.currentTimeMillis();
                     processNextStatement(new ByteArrayInputStream(
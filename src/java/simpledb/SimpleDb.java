@@ -1,13 +1,17 @@
 package simpledb;
 
+import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.common.Metrics;
 import simpledb.common.Type;
 import simpledb.common.Utility;
+import simpledb.optimizer.TableStats;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 
 public class SimpleDb {
@@ -53,7 +57,8 @@ public class SimpleDb {
                     }
 
                     HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
-                            BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
+                            BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator,
+                            Runtime.getRuntime().availableProcessors());
 
                 } catch (IOException e) {
                     throw new RuntimeException(e);
@@ -96,6 +101,24 @@ public class SimpleDb {
                     e.printStackTrace();
                 }
 
+                break;
+            case "stats":
+                // run the statements of each query file, then show the counters
+                if (args.length < 2) {
+                    System.err.println("Usage: stats catalogFile [queryFile ...]");
+                    return;
+                }
+                Database.getCatalog().loadSchema(args[1]);
+                TableStats.computeStatistics();
+                Parser statsParser = new Parser();
+                for (int i = 2; i < args.length; i++) {
+                    try (FileInputStream queries = new FileInputStream(args[i])) {
+                        statsParser.processStatements(queries);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                System.out.print(Metrics.report());
                 break;
             default:
                 System.err.println("Unknown command: " + args[0]);
@@ -2,6 +2,8 @@ package simpledb.common;
 
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
+import simpledb.storage.PaxHeapFile;
+import simpledb.storage.SlottedHeapFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
@@ -18,6 +20,9 @@ import java.util.concurrent.ConcurrentHashMap;
  * For now, this is a stub catalog that must be populated with tables by a
  * user program before it can be used -- eventually, this should be converted
  * to a catalog that reads a catalog table from disk.
+ * <p>
+ * The catalog owns the open files of its tables: a DbFile is closed when its
+ * table is replaced by another file or the catalog is cleared.
  *
  * @Threadsafe
  */
@@ -69,8 +74,19 @@ public class Catalog {
     public void addTable(DbFile file, String name, String pkeyField) {
         // TODO: some code goes here
         Table table = new Table(file, name, pkeyField);
-        integerTableMap.put(file.getId(), table);
+        Table replaced = integerTableMap.put(file.getId(), table);
         stringTableMap.put(name, table);
+        if (replaced != null && replaced.dbFile != file) {
+            close(replaced.dbFile);
+        }
+    }
+
+    private static void close(DbFile file) {
+        try {
+            file.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     public void addTable(DbFile file, String name) {
@@ -162,15 +178,26 @@ public class Catalog {
     }
 
     /**
-     * Delete all tables from the catalog
+     * Delete all tables from the catalog, closing their files
      */
     public void clear() {
         // TODO: some code goes here
+        for (Table table : integerTableMap.values()) {
+            close(table.dbFile);
+        }
         integerTableMap.clear();
     }
 
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * <p>
+     * Each line describes a table as <code>name (field type [pk], ...)</code>,
+     * optionally followed by <code>mmap</code> to read the table through
+     * memory mappings of its file or <code>compressed</code> to store its
+     * pages deflated (see HeapFile), and by <code>slotted</code> to store it
+     * in variable-length records (see SlottedHeapFile) or <code>pax</code>
+     * to store the values of each field together on a page (see
+     * PaxHeapFile).
      *
      * @param catalogFile
      */
@@ -185,6 +212,36 @@ public class Catalog {
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                HeapFile.Storage storage = HeapFile.Storage.PLAIN;
+                boolean slotted = false;
+                boolean pax = false;
+                for (String option : options.split("\\s+")) {
+                    HeapFile.Storage chosen = null;
+                    if (option.equalsIgnoreCase("mmap")) {
+                        chosen = HeapFile.Storage.MAPPED;
+                    } else if (option.equalsIgnoreCase("compressed")) {
+                        chosen = HeapFile.Storage.COMPRESSED;
+                    } else if (option.equalsIgnoreCase("slotted")) {
+                        slotted = true;
+                    } else if (option.equalsIgnoreCase("pax")) {
+                        pax = true;
+                    } else if (!option.isEmpty()) {
+                        System.out.println("Unknown table option " + option);
+                        System.exit(0);
+                    }
+                    if (chosen != null) {
+                        if (storage != HeapFile.Storage.PLAIN && storage != chosen) {
+                            System.out.println("Conflicting table options " + options);
+                            System.exit(0);
+                        }
+                        storage = chosen;
+                    }
+                }
+                if (slotted && pax) {
+                    System.out.println("Conflicting table options " + options);
+                    System.exit(0);
+                }
                 String[] els = fields.split(",");
                 List<String> names = new ArrayList<>();
                 List<Type> types = new ArrayList<>();
@@ -212,7 +269,15 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t);
+                File tabFile = new File(baseFolder + "/" + name + ".dat");
+                HeapFile tabHf;
+                if (slotted) {
+                    tabHf = new SlottedHeapFile(tabFile, t, storage);
+                } else if (pax) {
+                    tabHf = new PaxHeapFile(tabFile, t, storage);
+                } else {
+                    tabHf = new HeapFile(tabFile, t, storage);
+                }
                 addTable(tabHf, name, primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
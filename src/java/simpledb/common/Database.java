@@ -36,6 +36,7 @@ public class Database {
             System.exit(1);
         }
         _logfile = tmp;
+        Metrics.register();
         // startControllerThread();
     }
 
@@ -79,7 +80,9 @@ public class Database {
 
     // reset the database, used for unit tests only.
     public static void reset() {
-        _instance.set(new Database());
+        Database old = _instance.getAndSet(new Database());
+        // release the file handles; tables added again reopen them.
+        old._catalog.clear();
     }
 
 }
@@ -0,0 +1,181 @@
+package simpledb.common;
+
+import simpledb.storage.BufferPool;
+import simpledb.storage.LockManager;
+import simpledb.storage.ReadAhead;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics collects the counters of the storage layer in one place: buffer
+ * pool hits, misses, evictions and dirty page writes, lock waits, lock
+ * escalations and the aborts of deadlock victims, and the bytes the DbFiles
+ * read and write.
+ * <p>
+ * The buffer pool and lock counters live in the BufferPool and LockManager of
+ * the current Database and are read from there, so they restart when the
+ * pool is replaced. File I/O is not tied to a pool and is counted here. The
+ * counters are LongAdders, cheap to bump from many threads.
+ * <p>
+ * The same values are published through JMX under {@link #OBJECT_NAME} and
+ * printed by the <code>stats</code> command.
+ *
+ * @Threadsafe
+ */
+public class Metrics implements MetricsMBean {
+
+    public static final String OBJECT_NAME = "simpledb:type=Metrics";
+
+    private static final LongAdder bytesRead = new LongAdder();
+    private static final LongAdder bytesWritten = new LongAdder();
+
+    /**
+     * Count bytes read from a DbFile.
+     */
+    public static void recordRead(long bytes) {
+        bytesRead.add(bytes);
+    }
+
+    /**
+     * Count bytes written to a DbFile.
+     */
+    public static void recordWrite(long bytes) {
+        bytesWritten.add(bytes);
+    }
+
+    /**
+     * Publish the metrics through the platform MBean server, once per JVM.
+     * Failing to do so is not fatal; the metrics just are not visible over
+     * JMX.
+     */
+    public static synchronized void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new Metrics(), name);
+            }
+        } catch (JMException | SecurityException e) {
+            Debug.log("metrics not registered with JMX: %s", e);
+        }
+    }
+
+    private static BufferPool pool() {
+        return Database.getBufferPool();
+    }
+
+    private static LockManager locks() {
+        return pool().getLockManager();
+    }
+
+    private static ReadAhead readAhead() {
+        return pool().getReadAhead();
+    }
+
+    public long getPageHits() {
+        return pool().getHitCount();
+    }
+
+    public long getPageMisses() {
+        return pool().getMissCount();
+    }
+
+    public double getHitRatio() {
+        long hits = getPageHits();
+        long total = hits + getPageMisses();
+        return total == 0 ? 0 : hits / (double) total;
+    }
+
+    public long getEvictions() {
+        return pool().getEvictionCount();
+    }
+
+    public long getDirtyPageWrites() {
+        return pool().getDirtyWriteCount();
+    }
+
+    public long getLockWaits() {
+        return locks().getLockWaitCount();
+    }
+
+    public long getLockWaitMillis() {
+        return locks().getLockWaitTimeMillis();
+    }
+
+    public long[] getLockWaitHistogram() {
+        return locks().getLockWaitHistogram();
+    }
+
+    public long getLockAborts() {
+        return locks().getDeadlockCount();
+    }
+
+    public long getLockEscalations() {
+        return locks().getEscalationCount();
+    }
+
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    public long getReadAheadHits() {
+        return readAhead().getHitCount();
+    }
+
+    public long getReadAheadWasted() {
+        return readAhead().getWastedCount();
+    }
+
+    /**
+     * @return the current values by name, in a fixed order.
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("page hits", getPageHits());
+        values.put("page misses", getPageMisses());
+        values.put("hit ratio", String.format("%.3f", getHitRatio()));
+        values.put("evictions", getEvictions());
+        values.put("dirty page writes", getDirtyPageWrites());
+        values.put("lock waits", getLockWaits());
+        values.put("lock wait ms", getLockWaitMillis());
+        long[] histogram = getLockWaitHistogram();
+        long lower = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            String bucket = i < LockManager.WAIT_BUCKET_MILLIS.length
+                    ? "lock waits " + lower + "-" + LockManager.WAIT_BUCKET_MILLIS[i] + " ms"
+                    : "lock waits >= " + lower + " ms";
+            values.put(bucket, histogram[i]);
+            if (i < LockManager.WAIT_BUCKET_MILLIS.length) {
+                lower = LockManager.WAIT_BUCKET_MILLIS[i];
+            }
+        }
+        values.put("lock aborts", getLockAborts());
+        values.put("lock escalations", getLockEscalations());
+        values.put("bytes read", getBytesRead());
+        values.put("bytes written", getBytesWritten());
+        values.put("read-ahead hits", getReadAheadHits());
+        values.put("read-ahead wasted", getReadAheadWasted());
+        return values;
+    }
+
+    /**
+     * @return the metrics as one "name: value" line each.
+     */
+    public static String report() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Object> e : new Metrics().snapshot().entrySet()) {
+            sb.append(String.format("%-22s %s%n", e.getKey() + ":", e.getValue()));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,34 @@
+package simpledb.common;
+
+/**
+ * JMX view of {@link Metrics}.
+ */
+public interface MetricsMBean {
+    long getPageHits();
+
+    long getPageMisses();
+
+    double getHitRatio();
+
+    long getEvictions();
+
+    long getDirtyPageWrites();
+
+    long getLockWaits();
+
+    long getLockWaitMillis();
+
+    long[] getLockWaitHistogram();
+
+    long getLockAborts();
+
+    long getLockEscalations();
+
+    long getBytesRead();
+
+    long getBytesWritten();
+
+    long getReadAheadHits();
+
+    long getReadAheadWasted();
+}
@@ -7,6 +7,7 @@ import simpledb.storage.StringField;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 
 /**
@@ -30,6 +31,11 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            return new IntField(buf.getInt(offset));
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -48,6 +54,19 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) throws ParseException {
+            int strLen = buf.getInt(offset);
+            if (strLen < 0 || strLen > STRING_LEN) {
+                throw new ParseException("couldn't parse", offset);
+            }
+            byte[] bs = new byte[strLen];
+            for (int i = 0; i < strLen; i++) {
+                bs[i] = buf.get(offset + 4 + i);
+            }
+            return new StringField(new String(bs), STRING_LEN);
+        }
     };
 
     public static final int STRING_LEN = 128;
@@ -66,4 +85,15 @@ public enum Type implements Serializable {
      */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+    /**
+     * Decode a field in place, without moving the position of the buffer.
+     *
+     * @param buf    The buffer holding the serialized field
+     * @param offset The index of the first byte of the field in buf
+     * @return a Field object of the same type as this object.
+     * @throws ParseException if the bytes at offset are not a field of this
+     *                        type.
+     */
+    public abstract Field parse(ByteBuffer buf, int offset) throws ParseException;
+
 }
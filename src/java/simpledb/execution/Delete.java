@@ -92,7 +92,7 @@ public class Delete extends Operator {
                 try {
                     Database.getBufferPool().deleteTuple(this.tid, tuple);
                     this.count ++;
-                }catch (Exception e) {
+                }catch (IOException e) {
                     e.printStackTrace();
                 }
             }
@@ -11,15 +11,22 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Inserts tuples read from the child operator into the tableId specified in the
- * constructor
+ * constructor. Tuples are handed to the BufferPool in batches of BATCH_SIZE.
  */
 public class Insert extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * The number of tuples inserted with one BufferPool.insertTuples call.
+     */
+    public static final int BATCH_SIZE = 4096;
+
     private OpIterator child;
 
     private final TupleDesc td;
@@ -87,20 +94,19 @@ public class Insert extends Operator {
      * @return A 1-field tuple containing the number of inserted records, or
      *         null if called more than once.
      * @see Database#getBufferPool
-     * @see BufferPool#insertTuple
+     * @see BufferPool#insertTuples
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // TODO: some code goes here
         if(!this.isInsert) {
+            List<Tuple> batch = new ArrayList<>(BATCH_SIZE);
             while(child.hasNext()) {
-                Tuple tuple = child.next();
-                try {
-                    Database.getBufferPool().insertTuple(this.tid, this.tableId, tuple);
-                    this.count ++;
-                }catch (IOException e) {
-                    e.printStackTrace();
+                batch.add(child.next());
+                if (batch.size() == BATCH_SIZE) {
+                    insertBatch(batch);
                 }
             }
+            insertBatch(batch);
 
             Tuple t = new Tuple(this.td);
             t.setField(0, new IntField(this.count));
@@ -112,6 +118,19 @@ public class Insert extends Operator {
         return null;
     }
 
+    private void insertBatch(List<Tuple> batch) throws TransactionAbortedException, DbException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            Database.getBufferPool().insertTuples(this.tid, this.tableId, batch);
+            this.count += batch.size();
+        }catch (IOException e) {
+            e.printStackTrace();
+        }
+        batch.clear();
+    }
+
     @Override
     public OpIterator[] getChildren() {
         // TODO: some code goes here
@@ -10,6 +10,8 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import javax.xml.crypto.Data;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
@@ -27,6 +29,12 @@ public class SeqScan implements OpIterator {
 
     private String tableAlias;
 
+    // the fields the plan above reads, or null for all of them.
+    private final int[] columns;
+
+    // predicates the operators above apply to every tuple of the scan.
+    private final List<Predicate> predicates = new ArrayList<>();
+
     private DbFileIterator it;
 
     /**
@@ -44,9 +52,23 @@ public class SeqScan implements OpIterator {
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
         // TODO: some code goes here
+        this(tid, tableid, tableAlias, null);
+    }
+
+    /**
+     * Creates a sequential scan that only needs some fields of each tuple.
+     * The tuples it returns have the TupleDesc of the table, but only the
+     * given fields are sure to be set; the file may leave the others null
+     * instead of reading them.
+     *
+     * @param columns the indexes of the fields needed, or null for all.
+     * @see #SeqScan(TransactionId, int, String)
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns) {
         this.tid = tid;
         this.tableId = tableid;
         this.tableAlias = tableAlias;
+        this.columns = columns == null ? null : columns.clone();
     }
 
     /**
@@ -58,6 +80,32 @@ public class SeqScan implements OpIterator {
         return Database.getCatalog().getTableName(this.tableId);
     }
 
+    /**
+     * @return the indexes of the fields this scan reads, or null if it reads
+     *         all of them.
+     */
+    public int[] getColumns() {
+        return columns == null ? null : columns.clone();
+    }
+
+    /**
+     * Tell the scan that the operators above only keep the tuples that pass
+     * a predicate on its fields, so that the file can pass over pages none
+     * of whose tuples do. Tuples that fail it may still be returned. The
+     * query planner adds the predicates of the filters it puts over the
+     * scan; they hold until reset.
+     */
+    public void addPredicate(Predicate p) {
+        predicates.add(p);
+    }
+
+    /**
+     * @return the predicates given to addPredicate.
+     */
+    public List<Predicate> getPredicates() {
+        return new ArrayList<>(predicates);
+    }
+
     /**
      * @return Return the alias of the table this operator scans.
      */
@@ -76,11 +124,13 @@ public class SeqScan implements OpIterator {
      *                   tableAlias or fieldName are null. It shouldn't crash if they
      *                   are, but the resulting name can be null.fieldName,
      *                   tableAlias.null, or null.null).
+     *                   Predicates added before are dropped.
      */
     public void reset(int tableid, String tableAlias) {
         // TODO: some code goes here
         this.tableId = tableid;
         this.tableAlias = tableAlias;
+        predicates.clear();
     }
 
     public SeqScan(TransactionId tid, int tableId) {
@@ -89,7 +139,7 @@ public class SeqScan implements OpIterator {
 
     public void open() throws DbException, TransactionAbortedException {
         // TODO: some code goes here
-        it = Database.getCatalog().getDatabaseFile(this.tableId).iterator(this.tid);
+        it = Database.getCatalog().getDatabaseFile(this.tableId).iterator(this.tid, this.columns, this.predicates);
         it.open();
     }
 
@@ -3,6 +3,7 @@ package simpledb.index;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
+import simpledb.common.Metrics;
 import simpledb.common.Permissions;
 import simpledb.execution.IndexPredicate;
 import simpledb.execution.Predicate.Op;
@@ -11,6 +12,7 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -33,6 +35,9 @@ public class BTreeFile implements DbFile {
     private final int tableid;
     private final int keyField;
 
+    // pages are read and written through one channel for the life of the file.
+    private final FileHandle handle;
+
     /**
      * Constructs a B+ tree file backed by the specified file.
      *
@@ -46,6 +51,7 @@ public class BTreeFile implements DbFile {
         this.tableid = f.getAbsoluteFile().hashCode();
         this.keyField = key;
         this.td = td;
+        this.handle = new FileHandle(f, BTreeRootPtrPage.getPageSize());
     }
 
     /**
@@ -87,35 +93,18 @@ public class BTreeFile implements DbFile {
     public Page readPage(PageId pid) {
         BTreePageId id = (BTreePageId) pid;
 
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
+        try {
             if (id.pgcateg() == BTreePageId.ROOT_PTR) {
                 byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
-                int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-                if (retval == -1) {
-                    throw new IllegalArgumentException("Read past end of table");
-                }
-                if (retval < BTreeRootPtrPage.getPageSize()) {
-                    throw new IllegalArgumentException("Unable to read "
-                            + BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
-                }
+                handle.read(ByteBuffer.wrap(pageBuf), 0);
                 Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
+                Metrics.recordRead(pageBuf.length);
                 return new BTreeRootPtrPage(id, pageBuf);
             } else {
                 byte[] pageBuf = new byte[BufferPool.getPageSize()];
-                if (bis.skip(BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) !=
-                        BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException(
-                            "Unable to seek to correct place in BTreeFile");
-                }
-                int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-                if (retval == -1) {
-                    throw new IllegalArgumentException("Read past end of table");
-                }
-                if (retval < BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException("Unable to read "
-                            + BufferPool.getPageSize() + " bytes from BTreeFile");
-                }
+                handle.read(ByteBuffer.wrap(pageBuf), pageOffset(id.getPageNumber()));
                 Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
+                Metrics.recordRead(pageBuf.length);
                 if (id.pgcateg() == BTreePageId.INTERNAL) {
                     return new BTreeInternalPage(id, pageBuf, keyField);
                 } else if (id.pgcateg() == BTreePageId.LEAF) {
@@ -124,11 +113,11 @@ public class BTreeFile implements DbFile {
                     return new BTreeHeaderPage(id, pageBuf);
                 }
             }
+        } catch (EOFException e) {
+            throw new IllegalArgumentException("Read past end of table", e);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        // Close the file on success or error
-        // Ignore failures closing the file
     }
 
     /**
@@ -141,23 +130,32 @@ public class BTreeFile implements DbFile {
         BTreePageId id = (BTreePageId) page.getId();
 
         byte[] data = page.getPageData();
-        RandomAccessFile rf = new RandomAccessFile(f, "rw");
+        Metrics.recordWrite(data.length);
         if (id.pgcateg() == BTreePageId.ROOT_PTR) {
-            rf.write(data);
-            rf.close();
+            handle.write(ByteBuffer.wrap(data), 0);
         } else {
-            rf.seek(BTreeRootPtrPage.getPageSize() + (long) (page.getId().getPageNumber() - 1) * BufferPool.getPageSize());
-            rf.write(data);
-            rf.close();
+            handle.write(ByteBuffer.wrap(data), pageOffset(page.getId().getPageNumber()));
         }
     }
 
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+        handle.close();
+    }
+
+    /**
+     * @return the position of a page other than the root pointer in the file.
+     */
+    private static long pageOffset(int pageNo) {
+        return BTreeRootPtrPage.getPageSize() + (long) (pageNo - 1) * BufferPool.getPageSize();
+    }
+
     /**
      * Returns the number of pages in this BTreeFile.
      */
     public int numPages() {
         // we only ever write full pages
-        return (int) ((f.length() - BTreeRootPtrPage.getPageSize()) / BufferPool.getPageSize());
+        return (int) ((handle.size() - BTreeRootPtrPage.getPageSize()) / BufferPool.getPageSize());
     }
 
     /**
@@ -802,15 +800,13 @@ public class BTreeFile implements DbFile {
      */
     BTreeRootPtrPage getRootPtrPage(TransactionId tid, Map<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
         synchronized (this) {
-            if (f.length() == 0) {
+            if (handle.size() == 0) {
                 // create the root pointer page and the root page
-                BufferedOutputStream bw = new BufferedOutputStream(
-                        new FileOutputStream(f, true));
                 byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
                 byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-                bw.write(emptyRootPtrData);
-                bw.write(emptyLeafData);
-                bw.close();
+                handle.append(ByteBuffer.wrap(emptyRootPtrData));
+                handle.append(ByteBuffer.wrap(emptyLeafData));
+                Metrics.recordWrite(emptyRootPtrData.length + emptyLeafData.length);
             }
         }
 
@@ -864,11 +860,9 @@ public class BTreeFile implements DbFile {
         if (headerId == null) {
             synchronized (this) {
                 // create the new page
-                BufferedOutputStream bw = new BufferedOutputStream(
-                        new FileOutputStream(f, true));
                 byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-                bw.write(emptyData);
-                bw.close();
+                handle.append(ByteBuffer.wrap(emptyData));
+                Metrics.recordWrite(emptyData.length);
                 emptyPageNo = numPages();
             }
         }
@@ -898,10 +892,9 @@ public class BTreeFile implements DbFile {
         BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 
         // write empty page to disk
-        RandomAccessFile rf = new RandomAccessFile(f, "rw");
-        rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
-        rf.write(BTreePage.createEmptyPageData());
-        rf.close();
+        byte[] emptyData = BTreePage.createEmptyPageData();
+        handle.write(ByteBuffer.wrap(emptyData), pageOffset(emptyPageNo));
+        Metrics.recordWrite(emptyData.length);
 
         // make sure the page is not in the buffer pool	or in the local cache
         Database.getBufferPool().removePage(newPageId);
@@ -1052,7 +1045,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
         BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
                 tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
         BTreePageId root = rootPtr.getRootId();
-        curp = f.findLeafPage(tid, root, null);
+        curp = pin(tid, f.findLeafPage(tid, root, null).getId());
         it = curp.iterator();
     }
 
@@ -1069,11 +1062,11 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
         while (it == null && curp != null) {
             BTreePageId nextp = curp.getRightSiblingId();
+            unpin(tid, curp);
             if (nextp == null) {
                 curp = null;
             } else {
-                curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-                        nextp, Permissions.READ_ONLY);
+                curp = pin(tid, nextp);
                 it = curp.iterator();
                 if (!it.hasNext())
                     it = null;
@@ -1099,8 +1092,23 @@ class BTreeFileIterator extends AbstractDbFileIterator {
     public void close() {
         super.close();
         it = null;
+        unpin(tid, curp);
         curp = null;
     }
+
+    /**
+     * Get a leaf page and pin it while it is iterated over.
+     */
+    static BTreeLeafPage pin(TransactionId tid, BTreePageId pid)
+            throws TransactionAbortedException, DbException {
+        return (BTreeLeafPage) Database.getBufferPool().pinPage(tid, pid, Permissions.READ_ONLY, false);
+    }
+
+    static void unpin(TransactionId tid, BTreeLeafPage page) {
+        if (page != null) {
+            Database.getBufferPool().unpinPage(tid, page.getId());
+        }
+    }
 }
 
 /**
@@ -1143,6 +1151,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
         } else {
             curp = f.findLeafPage(tid, root, null);
         }
+        curp = BTreeFileIterator.pin(tid, curp.getId());
         it = curp.iterator();
     }
 
@@ -1178,8 +1187,8 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
             if (nextp == null) {
                 return null;
             } else {
-                curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-                        nextp, Permissions.READ_ONLY);
+                BTreeFileIterator.unpin(tid, curp);
+                curp = BTreeFileIterator.pin(tid, nextp);
                 it = curp.iterator();
             }
         }
@@ -1201,5 +1210,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
     public void close() {
         super.close();
         it = null;
+        BTreeFileIterator.unpin(tid, curp);
+        curp = null;
     }
 }
@@ -36,27 +36,8 @@ public class BTreeFileEncoder {
      */
     public static BTreeFile convert(List<List<Integer>> tuples, File hFile,
                                     File bFile, int keyField, int numFields) throws IOException {
-        File tempInput = File.createTempFile("tempTable", ".txt");
-        tempInput.deleteOnExit();
-        BufferedWriter bw = new BufferedWriter(new FileWriter(tempInput));
-        for (List<Integer> tuple : tuples) {
-            int writtenFields = 0;
-            for (Integer field : tuple) {
-                writtenFields++;
-                if (writtenFields > numFields) {
-                    bw.close();
-                    throw new RuntimeException("Tuple has more than " + numFields + " fields: (" +
-                            Utility.listToString(tuple) + ")");
-                }
-                bw.write(String.valueOf(field));
-                if (writtenFields < numFields) {
-                    bw.write(',');
-                }
-            }
-            bw.write('\n');
-        }
-        bw.close();
-        return convert(tempInput, hFile, bFile, keyField, numFields);
+        HeapFileEncoder.convert(tuples, hFile, BufferPool.getPageSize(), numFields);
+        return insertAll(hFile, bFile, keyField, numFields);
     }
 
     /**
@@ -74,6 +55,13 @@ public class BTreeFileEncoder {
             throws IOException {
         // convert the inFile to HeapFile first.
         HeapFileEncoder.convert(inFile, hFile, BufferPool.getPageSize(), numFields);
+        return insertAll(hFile, bFile, keyField, numFields);
+    }
+
+    /**
+     * Insert the tuples of a heap file into a new BTreeFile one at a time.
+     */
+    private static BTreeFile insertAll(File hFile, File bFile, int keyField, int numFields) throws IOException {
         HeapFile heapf = Utility.openHeapFile(numFields, hFile);
 
         // add the heap file to B+ tree file
@@ -160,28 +148,8 @@ public class BTreeFileEncoder {
                                     File bFile, int npagebytes,
                                     int numFields, Type[] typeAr, char fieldSeparator, int keyField)
             throws IOException, DbException, TransactionAbortedException {
-        File tempInput = File.createTempFile("tempTable", ".txt");
-        tempInput.deleteOnExit();
-        BufferedWriter bw = new BufferedWriter(new FileWriter(tempInput));
-        for (List<Integer> tuple : tuples) {
-            int writtenFields = 0;
-            for (Integer field : tuple) {
-                writtenFields++;
-                if (writtenFields > numFields) {
-                    bw.close();
-                    throw new RuntimeException("Tuple has more than " + numFields + " fields: (" +
-                            Utility.listToString(tuple) + ")");
-                }
-                bw.write(String.valueOf(field));
-                if (writtenFields < numFields) {
-                    bw.write(',');
-                }
-            }
-            bw.write('\n');
-        }
-        bw.close();
-        return convert(tempInput, hFile, bFile, npagebytes,
-                numFields, typeAr, fieldSeparator, keyField);
+        HeapFileEncoder.convert(tuples, hFile, BufferPool.getPageSize(), numFields);
+        return bulkLoad(hFile, bFile, npagebytes, numFields, typeAr, keyField);
     }
 
     /**
@@ -205,6 +173,16 @@ public class BTreeFileEncoder {
             throws IOException, DbException, TransactionAbortedException {
         // convert the inFile to HeapFile first.
         HeapFileEncoder.convert(inFile, hFile, BufferPool.getPageSize(), numFields);
+        return bulkLoad(hFile, bFile, npagebytes, numFields, typeAr, keyField);
+    }
+
+    /**
+     * Sort the tuples of a heap file and write them out as the pages of a
+     * new BTreeFile.
+     */
+    private static BTreeFile bulkLoad(File hFile, File bFile, int npagebytes,
+                                      int numFields, Type[] typeAr, int keyField)
+            throws IOException, DbException, TransactionAbortedException {
         HeapFile heapf = Utility.openHeapFile(numFields, hFile);
 
         // read all the tuples from the heap file and sort them on the keyField
@@ -317,17 +317,22 @@ public class LogicalPlan {
         Map<String, String> equivMap = new HashMap<>();
         Map<String, Double> filterSelectivities = new HashMap<>();
         Map<String, TableStats> statsMap = new HashMap<>();
+        Set<String> referenced = referencedFields();
+        Map<String, SeqScan> scans = new HashMap<>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
             try {
-                ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+                ss = new SeqScan(t, file.getId(), table.alias,
+                        neededColumns(table.alias, file.getTupleDesc(), referenced));
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
 
             subplanMap.put(table.alias, ss);
+            scans.put(table.alias, ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
@@ -361,6 +366,9 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
             subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            // the filter reads the scan's tuples as they are, so the scan
+            // may pass over pages where none of them passes.
+            scans.get(lf.tableAlias).addPredicate(p);
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
@@ -503,6 +511,53 @@ public class LogicalPlan {
         return new Project(outFields, outTypes, node);
     }
 
+    /**
+     * @return the qualified names of the fields the plan reads: those in
+     *         filters, joins, the select list, the aggregate and the ORDER BY.
+     */
+    private Set<String> referencedFields() {
+        Set<String> names = new HashSet<>();
+        for (LogicalFilterNode lf : filters) {
+            names.add(lf.fieldQuantifiedName);
+        }
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            names.add(lj.f2QuantifiedName);
+        }
+        for (LogicalSelectListNode si : selectList) {
+            names.add(si.fname);
+        }
+        if (hasAgg) {
+            names.add(aggField);
+            names.add(groupByField);
+        }
+        if (hasOrderBy) {
+            names.add(oByField);
+        }
+        return names;
+    }
+
+    /**
+     * @return the indexes of the fields of the table scanned as
+     *         <code>alias</code> that are in <code>referenced</code>, or null
+     *         if the plan reads all of them.
+     */
+    private static int[] neededColumns(String alias, TupleDesc td, Set<String> referenced) {
+        if (referenced.contains("null.*") || referenced.contains(alias + ".*")) {
+            return null;
+        }
+        List<Integer> columns = new ArrayList<>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (referenced.contains(alias + "." + td.getFieldName(i))) {
+                columns.add(i);
+            }
+        }
+        if (columns.size() == td.numFields()) {
+            return null;
+        }
+        return columns.stream().mapToInt(Integer::intValue).toArray();
+    }
+
     public static void main(String[] argv) {
         // construct a 3-column table schema
         Type[] types = new Type[]{Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE};
@@ -80,6 +80,14 @@ public class TableStats {
         System.out.println("Done.");
     }
 
+    /**
+     * Compute the statistics of one table again, as after it was vacuumed.
+     */
+    public static void computeStatistics(String tablename) {
+        int tableid = Database.getCatalog().getTableId(tablename);
+        setTableStats(tablename, new TableStats(tableid, IOCOSTPERPAGE));
+    }
+
     /**
      * Number of bins for the histogram. Feel free to increase this value over
      * 100, though our tests assume that you have at least 100 bins in your
@@ -7,11 +7,11 @@ import simpledb.common.Permissions;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
-import javax.xml.crypto.Data;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -21,8 +21,21 @@ import java.util.concurrent.ConcurrentMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * Read-only transactions may instead run on a snapshot (see beginSnapshot):
+ * they take no locks and read the committed versions kept by a VersionStore.
+ * <p>
+ * Callers that keep using a page after getPage returns, such as file
+ * iterators, pin it with pinPage and release it with unpinPage. A pinned
+ * page is not evicted, so the Page and the tuple iterators over it stay the
+ * ones in the pool. Pins a transaction still holds are released when it
+ * completes.
+ * <p>
+ * Pages of heap files read into the pool keep their bytes in direct buffers
+ * taken from a FramePool, which get reused for other pages once the pages
+ * leave the pool.
  *
- * @Threadsafe, all fields are final
+ * @Threadsafe
  */
 public class BufferPool {
     /**
@@ -34,10 +47,33 @@ public class BufferPool {
 
     private final int numPages;
 
-    private final ConcurrentHashMap<PageId, LinkNode> pageStore;
+    private final PageTable pageStore;
 
     private final LockManager manager;
 
+    // pages each running transaction may have dirtied: those it fetched with
+    // READ_WRITE or handed back through updateBufferPool.
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> writeSets;
+
+    // the pins each running transaction holds, per page.
+    private final ConcurrentHashMap<TransactionId, ConcurrentHashMap<PageId, Integer>> pins;
+
+    // STEAL/NO-FORCE when set, NO-STEAL/FORCE otherwise. See setStealMode.
+    private volatile boolean steal;
+
+    // guarded by this, only running while steal is set.
+    private PageCleaner cleaner;
+
+    private final ReadAhead readAhead;
+
+    private final VersionStore versions;
+
+    private final FramePool frames;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder dirtyWrites = new LongAdder();
 
     /**
      * Default number of pages passed to the constructor. This is used by
@@ -46,274 +82,351 @@ public class BufferPool {
      */
     public static final int DEFAULT_PAGES = 50;
 
-
-    // lab3 page evict.
-    public static  class LinkNode {
-        PageId pageId;
-        Page page;
-        LinkNode prev;
-        LinkNode next;
-        public LinkNode(PageId pageId, Page page) {
-            this.page = page;
-            this.pageId = pageId;
-        }
-    }
-
-    // define head and tail as two head,but they are not store data.
-    LinkNode head;
-    LinkNode tail;
+    /**
+     * How long the page cleaner sleeps between passes over the pool.
+     */
+    public static final long CLEANER_INTERVAL_MILLIS = 100;
 
 
-    public void addToHead(LinkNode node) {
-        node.prev = head;
-        node.next = head.next;
-        node.next.prev = node;
-        head.next = node;
+    /**
+     * Creates a BufferPool that caches up to numPages pages. The replacement
+     * policy is named by the simpledb.replacement system property, "clock"
+     * unless it is set (see ReplacementPolicy.create).
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     */
+    public BufferPool(int numPages) {
+        this(numPages, ReplacementPolicy.create(System.getProperty("simpledb.replacement", "clock"), numPages));
     }
 
-    public void remove(LinkNode node) {
-        node.prev.next = node.next;
-        node.next.prev = node.prev;
+    /**
+     * Creates a BufferPool that caches up to numPages pages and evicts them
+     * as the given policy decides.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy   the replacement policy, sized for numPages frames.
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy) {
+        // TODO: some code goes here
+        this.numPages = numPages;
+        pageStore = new PageTable(numPages, policy);
+        manager = new LockManager();
+        writeSets = new ConcurrentHashMap<>();
+        pins = new ConcurrentHashMap<>();
+        readAhead = new ReadAhead(this);
+        versions = new VersionStore();
+        frames = new FramePool(numPages);
     }
 
-    public void moveToHead(LinkNode node) {
-        remove(node);
-        addToHead(node);
+    public int getNumPages() {
+        return numPages;
     }
 
-
-    // evict one page from bufferPool
-    public LinkNode removeTail() {
-        LinkNode node = tail.prev;
-        remove(node);
-        return node;
+    /**
+     * @return the read-ahead of this pool, for scans to schedule pages and
+     * for its window and statistics.
+     */
+    public ReadAhead getReadAhead() {
+        return readAhead;
     }
 
+    /**
+     * Switch between NO-STEAL/FORCE (the default) and STEAL/NO-FORCE.
+     * <p>
+     * With STEAL, eviction may write out pages dirtied by running
+     * transactions, and commit only logs the pages a transaction dirtied
+     * instead of forcing them to disk. The UPDATE record of a dirty page is
+     * always written and the log forced before the page itself goes to disk,
+     * so that rollback and recovery can undo it. A background cleaner writes
+     * out cold dirty pages so that eviction normally finds a clean victim.
+     *
+     * @param steal true for STEAL/NO-FORCE, false for NO-STEAL/FORCE.
+     */
+    public synchronized void setStealMode(boolean steal) {
+        this.steal = steal;
+        if (steal && cleaner == null) {
+            cleaner = new PageCleaner();
+            cleaner.start();
+        } else if (!steal && cleaner != null) {
+            cleaner.shutdown();
+            cleaner = null;
+        }
+    }
 
-    // lab4 TransactionId
-    public class PageLock {
-        public static final int SHARE = 0;
-        public static final int EXCLUSIVE = 1;
+    public boolean isStealMode() {
+        return steal;
+    }
 
-        private int lockType;
+    public static int getPageSize() {
+        return pageSize;
+    }
 
-        private TransactionId tid;
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    public static void setPageSize(int pageSize) {
+        BufferPool.pageSize = pageSize;
+    }
 
-        public PageLock(int type, TransactionId tid) {
-            this.lockType = type;
-            this.tid = tid;
-        }
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    public static void resetPageSize() {
+        BufferPool.pageSize = DEFAULT_PAGE_SIZE;
+    }
 
-        public int getLockType() {
-            return lockType;
-        }
+    /**
+     * Retrieve the specified page with the associated permissions.
+     * Will acquire a lock and may block if that lock is held by another
+     * transaction.
+     * <p>
+     * The retrieved page should be looked up in the buffer pool.  If it
+     * is present, it should be returned.  If it is not present, it should
+     * be added to the buffer pool and returned.  If there is insufficient
+     * space in the buffer pool, a page should be evicted and the new page
+     * should be added in its place.
+     *
+     * @param tid  the ID of the transaction requesting the page
+     * @param pid  the ID of the requested page
+     * @param perm the requested permissions on the page
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, false);
+    }
 
-        public TransactionId getTid() {
-            return tid;
+    /**
+     * Retrieve the specified page like getPage(tid, pid, perm), with a hint
+     * for the replacement policy.
+     *
+     * @param useOnce true if the caller will not come back for the page, as
+     *                in a scan of a table too large to stay in the pool. Such
+     *                an access does not count as reuse of the page.
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, boolean useOnce)
+            throws TransactionAbortedException, DbException {
+        if (versions.isSnapshot(tid)) {
+            if (perm == Permissions.READ_WRITE) {
+                throw new DbException(String.format("transaction %d is read-only", tid.getId()));
+            }
+            return versions.read(tid, fetchPage(pid, useOnce));
         }
-
-        public void setLockType(int lockType) {
-            this.lockType = lockType;
+        int getType = (perm == Permissions.READ_ONLY ? PageLock.SHARE : PageLock.EXCLUSIVE);
+        // blocks until the lock is granted, or throws if this transaction is
+        // picked as the victim of a deadlock.
+        manager.lock(pid, tid, getType);
+        if (perm == Permissions.READ_WRITE) {
+            addToWriteSet(tid, pid);
         }
 
-        public void setTid(TransactionId tid) {
-            this.tid = tid;
-        }
+        // successful get a lock.
+        // TODO: some code goes here
+        return fetchPage(pid, useOnce);
     }
 
-
-    public class LockManager {
-        private final ConcurrentHashMap<PageId, ConcurrentHashMap<TransactionId, PageLock>> locks;
-
-        public LockManager() {
-            this.locks = new ConcurrentHashMap<>();
+    /**
+     * Look a page up in the pool, reading it in if it is not resident.
+     */
+    private Page fetchPage(PageId pid, boolean useOnce) throws DbException {
+        Page page = pageStore.get(pid, useOnce);
+        if (page != null) {
+            hits.increment();
+            readAhead.pageHit(pid);
+            return page;
         }
-
-        public synchronized boolean acquireLock(PageId pid, TransactionId tid, int needLockType) {
-            // get the locks on the page.
-            if(!locks.containsKey(pid)){
-                PageLock pageLock = new PageLock(needLockType,tid);
-                ConcurrentHashMap<TransactionId, PageLock> map = new ConcurrentHashMap<>();
-                map.put(tid, pageLock);
-                locks.put(pid, map);
-                return true;
-            }
-
-            ConcurrentHashMap<TransactionId, PageLock> pageMap = locks.get(pid);
-            if(pageMap.containsKey(tid)) {
-                PageLock pageLock = pageMap.get(tid);
-                // already have a share lock.
-                if(pageLock.getLockType() == PageLock.SHARE) {
-                    if(needLockType == PageLock.SHARE) {
-                        return true;
-                    }else if(needLockType == PageLock.EXCLUSIVE){
-                        // if transaction t is the only transaction holding a shared lock on an object o,t may upgrade its lock on o to an exclusive lock.
-                        if(pageMap.size() == 1) {
-                            pageLock.setLockType(PageLock.EXCLUSIVE);
-                            pageMap.put(tid, pageLock);
-                            locks.put(pid, pageMap);
-                            return true;
-                        }else if(pageMap.size() > 1){
-                            return false;
-                        }
-                    }
-                    return false;
-                }
-
-                return pageLock.getLockType() == PageLock.EXCLUSIVE;
-            }else{
-                // the page have other transaction lock.
-
-
-                // the page's size > 1 confirm there is a shore lock.
-                if(pageMap.size()>1){
-                    if(needLockType == PageLock.SHARE) {
-                        PageLock pageLock = new PageLock(needLockType, tid);
-                        pageMap.put(tid, pageLock);
-                        locks.put(pid, pageMap);
-                        return true;
-                    }else if(needLockType == PageLock.EXCLUSIVE){
-                        return false;
-                    }
-                }else if(pageMap.size()==1){
-                    // the page's size == 1 confirm the lock is a share lock or exclusive lock.
-                    PageLock pageLock = null;
-                    for(PageLock item : pageMap.values()) {
-                        pageLock = item;
-                    }
-
-                    // hold a share lock.
-                    if(pageLock.getLockType() == PageLock.SHARE){
-                        if(needLockType == PageLock.SHARE){
-                            PageLock newPageLock = new PageLock(PageLock.SHARE, tid);
-                            pageMap.put(tid, newPageLock);
-                            locks.put(pid, pageMap);
-                            return true;
-                        }else if(needLockType == PageLock.EXCLUSIVE){
-                            return false;
-                        }
-                    }else if(pageLock.getLockType() == PageLock.EXCLUSIVE){
-                        // hold a exclusive lock.
-                        return false;
-                    }
+        misses.increment();
+        readAhead.pageMiss(pid);
+
+        // read the page from disk outside the pool's monitor, then install it
+        // unless another thread got there first.
+        DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        Page loaded = dbFile.readPage(pid);
+        synchronized (this) {
+            page = pageStore.get(pid, useOnce);
+            if (page == null) {
+                if (pageStore.isFull()) {
+                    evictPage();
                 }
+                pageStore.put(loaded, useOnce);
+                page = loaded;
+            } else {
+                // nobody saw the copy read here.
+                giveBackFrame(loaded);
             }
-            return false;
         }
+        return page;
+    }
 
-        public synchronized void releaseLock(TransactionId tid, PageId pid) {
-            System.out.println("tid: " + tid.getId() + " release pid: " + pid.getPageNumber());
-            if(isHoldLock(tid, pid)){
-                ConcurrentHashMap<TransactionId, PageLock> map = locks.get(pid);
-                map.remove(tid);
-                if(map.size()==0){
-                    locks.remove(pid);
+    /**
+     * Retrieve a page like getPage and pin it: the page stays in the pool
+     * until unpinPage is called for it as many times as it was pinned, or
+     * the transaction completes. Eviction skips pinned pages; if every page
+     * in the pool is pinned, fetching another page fails with a DbException.
+     * <p>
+     * Pages of a snapshot are private copies that are never evicted, and
+     * are not pinned.
+     *
+     * @return the page, as resident in the pool.
+     */
+    public Page pinPage(TransactionId tid, PageId pid, Permissions perm, boolean useOnce)
+            throws TransactionAbortedException, DbException {
+        Page page = getPage(tid, pid, perm, useOnce);
+        if (versions.isSnapshot(tid)) {
+            return page;
+        }
+        if (!pageStore.pin(pid)) {
+            // evicted since the lookup; evictions run under the monitor, so
+            // the page stays resident while it is read back and pinned.
+            synchronized (this) {
+                getPage(tid, pid, perm, useOnce);
+                if (!pageStore.pin(pid)) {
+                    throw new DbException("could not pin page " + pid);
                 }
             }
         }
+        pins.computeIfAbsent(tid, k -> new ConcurrentHashMap<>()).merge(pid, 1, Integer::sum);
+        // the pinned frame may hold a copy read after the lookup.
+        return pageStore.peek(pid);
+    }
 
-        public synchronized boolean isHoldLock(TransactionId tid, PageId pageId) {
-            if(!locks.containsKey(pageId)) {
-                return false;
-            }else{
-                ConcurrentHashMap<TransactionId, PageLock> map = locks.get(pageId);
-                return map.containsKey(tid);
-            }
+    /**
+     * Release a pin taken by pinPage. Pins the transaction does not hold are
+     * ignored.
+     */
+    public void unpinPage(TransactionId tid, PageId pid) {
+        Map<PageId, Integer> held = pins.get(tid);
+        if (held == null || !held.containsKey(pid)) {
+            return;
         }
+        held.computeIfPresent(pid, (k, n) -> n == 1 ? null : n - 1);
+        pageStore.unpin(pid);
+    }
+
+    /**
+     * @return the number of pins on a page, by all transactions.
+     */
+    public int getPinCount(PageId pid) {
+        return pageStore.pinCount(pid);
+    }
 
-        public synchronized void completeTransaction(TransactionId tid) {
-            for(PageId pid : locks.keySet()) {
-                releaseLock(tid, pid);
+    private void unpinAll(TransactionId tid) {
+        Map<PageId, Integer> held = pins.remove(tid);
+        if (held == null) {
+            return;
+        }
+        for (Map.Entry<PageId, Integer> e : held.entrySet()) {
+            for (int i = 0; i < e.getValue(); i++) {
+                pageStore.unpin(e.getKey());
             }
         }
     }
 
+    /**
+     * Run a read-only transaction on a snapshot of the database as of the
+     * last commit. Until it completes, the transaction's getPage calls take
+     * no locks and return immutable copies of pages as they were committed
+     * when the snapshot began; asking for READ_WRITE fails with a
+     * DbException.
+     */
+    public void beginSnapshot(TransactionId tid) {
+        versions.begin(tid);
+    }
 
+    public VersionStore getVersionStore() {
+        return versions;
+    }
 
+    boolean isResident(PageId pid) {
+        return pageStore.contains(pid);
+    }
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Load a page for the read-ahead. The page is read under a shared lock
+     * taken without waiting, and only installed into a free frame or in
+     * place of a clean page, so prefetching never blocks a transaction for
+     * long and never writes.
      *
-     * @param numPages maximum number of pages in this buffer pool.
+     * @param prefetchTid the transaction the read-ahead locks pages under.
+     * @return true if the page was installed.
      */
-    public BufferPool(int numPages) {
-        // TODO: some code goes here
-        this.numPages = numPages;
-        pageStore = new ConcurrentHashMap<>();
-        head = new LinkNode(new HeapPageId(-1,-1), null);
-        tail = new LinkNode(new HeapPageId(-1,-1), null);
+    boolean prefetchPage(PageId pid, TransactionId prefetchTid) {
+        if (pageStore.contains(pid) || !manager.acquireLock(pid, prefetchTid, PageLock.SHARE)) {
+            return false;
+        }
+        try {
+            Page loaded = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+            synchronized (this) {
+                if (pageStore.contains(pid)) {
+                    giveBackFrame(loaded);
+                    return false;
+                }
+                if (pageStore.isFull()) {
+                    PageId victim = pageStore.chooseVictim(page -> page.isDirty() == null);
+                    Page evicted = victim == null ? null : pageStore.evict(victim);
+                    if (evicted == null) {
+                        giveBackFrame(loaded);
+                        return false;
+                    }
+                    releaseFrame(evicted, false);
+                    evictions.increment();
+                    readAhead.pageEvicted(victim);
+                }
+                readAhead.pageLoaded(pid);
+                pageStore.put(loaded, true);
+                return true;
+            }
+        } finally {
+            manager.releaseLock(prefetchTid, pid);
+        }
+    }
 
-        head.next = tail;
-        tail.prev = head;
+    private void addToWriteSet(TransactionId tid, PageId pid) {
+        writeSets.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(pid);
+    }
 
-        manager = new LockManager();
+    private Set<PageId> getWriteSet(TransactionId tid) {
+        Set<PageId> writeSet = writeSets.get(tid);
+        return writeSet == null ? Collections.emptySet() : writeSet;
     }
 
-    public static int getPageSize() {
-        return pageSize;
+    /**
+     * @return the number of getPage calls served from the pool.
+     */
+    public long getHitCount() {
+        return hits.sum();
     }
 
-    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
-    public static void setPageSize(int pageSize) {
-        BufferPool.pageSize = pageSize;
+    /**
+     * @return the number of getPage calls that had to read the page.
+     */
+    public long getMissCount() {
+        return misses.sum();
     }
 
-    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
-    public static void resetPageSize() {
-        BufferPool.pageSize = DEFAULT_PAGE_SIZE;
+    /**
+     * @return the number of pages evicted to make room for others.
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
     }
 
     /**
-     * Retrieve the specified page with the associated permissions.
-     * Will acquire a lock and may block if that lock is held by another
-     * transaction.
-     * <p>
-     * The retrieved page should be looked up in the buffer pool.  If it
-     * is present, it should be returned.  If it is not present, it should
-     * be added to the buffer pool and returned.  If there is insufficient
-     * space in the buffer pool, a page should be evicted and the new page
-     * should be added in its place.
-     *
-     * @param tid  the ID of the transaction requesting the page
-     * @param pid  the ID of the requested page
-     * @param perm the requested permissions on the page
+     * @return the number of direct buffers allocated for pages; it stops
+     * growing once the pool is full and frames are reused.
      */
-    public Page getPage(TransactionId tid, PageId pid, Permissions perm)
-            throws TransactionAbortedException, DbException {
-        int getType = (perm == Permissions.READ_ONLY ? PageLock.SHARE : PageLock.EXCLUSIVE);
-        long start = System.currentTimeMillis();
-        boolean isLockAcquired = false;
-        long timeout = new Random().nextInt(2000) + 1000;
-        System.out.println("tid: " + tid.getId() + " timeout: " + timeout  + " thread: " + Thread.currentThread().getName() + " pid: " + pid.getPageNumber());
-        while(!isLockAcquired) {
-            isLockAcquired = manager.acquireLock(pid, tid, getType);
-            long now = System.currentTimeMillis();
-            if(!isLockAcquired && now - start > timeout) {
-                System.out.println("tid: " + tid.getId() + " timeout");
-                throw new TransactionAbortedException();
-            }
-        }
+    public long getFrameAllocationCount() {
+        return frames.getAllocationCount();
+    }
 
-        System.out.println("tid: " + tid.getId() + " success get a lock"  + " thread: " + Thread.currentThread().getName());
-        // successful get a lock.
-        // TODO: some code goes here
-        if(!pageStore.containsKey(pid)) {
-            // read the page from disk.
-            DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-            Page page = dbFile.readPage(pid);
-            // the bufferPool is full,we should evict a page from bufferPool,which use a LFU algorithm.
-            if(pageStore.size() >= numPages) {
-                evictPage();
-            }
-            LinkNode node = new LinkNode(pid, page);
-            // put the page into the pool and add the new node to head of linkList.
-            pageStore.put(pid, node);
-            addToHead(node);
-        }
+    /**
+     * @return the number of dirty pages written to disk, at commit, eviction
+     * or by the page cleaner.
+     */
+    public long getDirtyWriteCount() {
+        return dirtyWrites.sum();
+    }
 
-        // if the pool already have this page,only to move this node to head of linkList.
-        moveToHead(pageStore.get(pid));
-        return pageStore.get(pid).page;
+    /**
+     * @return the lock manager, which also keeps deadlock and lock wait counters.
+     */
+    public LockManager getLockManager() {
+        return manager;
     }
 
     /**
@@ -353,7 +466,8 @@ public class BufferPool {
 
     /**
      * Commit or abort a given transaction; release all locks associated to
-     * the transaction.
+     * the transaction. In STEAL mode a commit also appends and forces the
+     * transaction's COMMIT record before the locks are released.
      *
      * @param tid    the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
@@ -361,34 +475,102 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid, boolean commit) {
         // TODO: some code goes here
         // not necessary for lab1|lab2
+        unpinAll(tid);
+        if (versions.end(tid)) {
+            // a snapshot holds no locks and changes nothing.
+            return;
+        }
         if(commit) {
             // if successful,we should execute flush pages.
             try {
-                flushPages(tid);
+                commitPages(tid);
+                if (steal) {
+                    // once the locks go, others can read the pages and the
+                    // cleaner can write them: the commit must be durable first.
+                    Database.getLogFile().logCommit(tid);
+                }
             }catch (IOException e) {
                 e.printStackTrace();
             }
         }else {
            // restore all the page before
             restorePages(tid);
-            System.out.println(tid.getId() + " fail");
+            releaseSpace(tid);
+            abortPages(tid);
         }
         // after that,we should release all the lock in this tid.
         manager.completeTransaction(tid);
     }
 
+    /**
+     * Make a transaction's changes the committed state of its pages. The
+     * versions they replace are kept for snapshots before the new ones can
+     * reach the disk: with FORCE the pages are written afterwards, with
+     * NO-FORCE they are logged before their before images are reset.
+     */
+    private synchronized void commitPages(TransactionId tid) throws IOException {
+        try {
+            if (steal) {
+                logPages(tid);
+            }
+            versions.commit(tid, getWriteSet(tid), pageStore);
+            if (!steal) {
+                flushPages(tid);
+            }
+        } finally {
+            writeSets.remove(tid);
+        }
+    }
+
+    private synchronized void abortPages(TransactionId tid) {
+        versions.abort(getWriteSet(tid));
+        writeSets.remove(tid);
+    }
+
     public synchronized void restorePages(TransactionId tid) {
-        for(LinkNode node : pageStore.values()) {
-            Page page = node.page;
-            PageId pageId = node.pageId;
-            if(tid.equals(page.isDirty())) {
+        for(PageId pageId : getWriteSet(tid)) {
+            Page page = pageStore.peek(pageId);
+            if(page != null && tid.equals(page.isDirty())) {
+                if (steal) {
+                    // with NO-FORCE the disk may be missing committed updates,
+                    // the before image is the last committed version.
+                    replacePage(page.getBeforeImage());
+                    continue;
+                }
                 int tableId = pageId.getTableId();
                 DbFile table = Database.getCatalog().getDatabaseFile(tableId);
 
                 // rewrite cache from disk.
-                node.page = table.readPage(pageId);
-                pageStore.put(pageId, node);
-                moveToHead(node);
+                replacePage(table.readPage(pageId));
+            }
+        }
+    }
+
+    /**
+     * Tell the heap files whose pages an aborted transaction may have filled
+     * that those pages may have room again.
+     */
+    private void releaseSpace(TransactionId tid) {
+        for (PageId pageId : getWriteSet(tid)) {
+            DbFile table = Database.getCatalog().getDatabaseFile(pageId.getTableId());
+            if (table instanceof HeapFile) {
+                ((HeapFile) table).pageRolledBack(pageId.getPageNumber());
+            }
+        }
+    }
+
+    /**
+     * NO-FORCE commit: log the after image of every page the transaction
+     * dirtied. The pages stay dirty and reach the disk later through
+     * eviction, the page cleaner or a checkpoint; the log is forced by the
+     * commit record.
+     */
+    private synchronized void logPages(TransactionId tid) throws IOException {
+        LogFile log = Database.getLogFile();
+        for (PageId pageId : getWriteSet(tid)) {
+            Page page = pageStore.peek(pageId);
+            if (page != null && tid.equals(page.isDirty())) {
+                log.logWrite(tid, page.getBeforeImage(), page);
             }
         }
     }
@@ -417,6 +599,23 @@ public class BufferPool {
         updateBufferPool(pages, tid);
     }
 
+    /**
+     * Add tuples to the specified table on behalf of transaction tid, like
+     * insertTuple does for each of them, with one catalog lookup and one
+     * update of the pool for the whole batch. Each page the batch changes is
+     * marked dirty once.
+     *
+     * @param tid     the transaction adding the tuples
+     * @param tableId the table to add the tuples to
+     * @param tuples  the tuples to add
+     */
+    public void insertTuples(TransactionId tid, int tableId, List<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        List<Page> pages = file.insertTuples(tid, tuples);
+        updateBufferPool(pages, tid);
+    }
+
     /**
      * Remove the specified tuple from the buffer pool.
      * Will acquire a write lock on the page the tuple is removed from and any
@@ -446,23 +645,16 @@ public class BufferPool {
      * @param tid transaction Id.
      * @throws DbException
      */
-    public void updateBufferPool(List<Page> pages, TransactionId tid) throws DbException {
+    public synchronized void updateBufferPool(List<Page> pages, TransactionId tid) throws DbException {
         for(Page page: pages) {
             page.markDirty(true,tid);
+            addToWriteSet(tid, page.getId());
         }
         for(Page page: pages) {
-            if(pageStore.size() > numPages){
+            if(!pageStore.contains(page.getId()) && pageStore.isFull()){
                 evictPage();
             }
-            if(pageStore.containsKey(page.getId())) {
-                LinkNode node = pageStore.get(page.getId());
-                node.page = page;
-                pageStore.put(page.getId(), node);
-            }else{
-                LinkNode node = new LinkNode(page.getId(), page);
-                addToHead(node);
-                pageStore.put(page.getId(), node);
-            }
+            replacePage(page);
         }
     }
 
@@ -474,7 +666,7 @@ public class BufferPool {
     public synchronized void flushAllPages() throws IOException {
         // TODO: some code goes here
         // not necessary for lab1
-        for(PageId pageId : pageStore.keySet()) {
+        for(PageId pageId : pageStore.pageIds()) {
             flushPage(pageId);
         }
     }
@@ -491,7 +683,9 @@ public class BufferPool {
     public synchronized void removePage(PageId pid) {
         // TODO: some code goes here
         // not necessary for lab1
-        pageStore.remove(pid);
+        boolean pinned = pageStore.pinCount(pid) > 0;
+        releaseFrame(pageStore.remove(pid), pinned);
+        readAhead.pageEvicted(pid);
     }
 
     /**
@@ -502,16 +696,22 @@ public class BufferPool {
     private synchronized void flushPage(PageId pid) throws IOException {
         // TODO: some code goes here
         // not necessary for lab1
-        Page page = pageStore.get(pid).page;
-        if(page.isDirty()!=null) {
-            System.out.println(page.isDirty().getId() + " finished, start to flushPage");
-            HeapPage heapPage = (HeapPage) page;
-            Iterator<Tuple> it = heapPage.iterator();
-            while(it.hasNext()) {
-                System.out.println("data: " + it.next().getField(0));
+        Page page = pageStore.peek(pid);
+        TransactionId dirtier = page == null ? null : page.isDirty();
+        if(dirtier != null) {
+            if (steal) {
+                if (writeSets.containsKey(dirtier)) {
+                    // uncommitted changes: snapshots still need the committed page.
+                    versions.pageStolen(page);
+                }
+                // write-ahead rule: the update record reaches the disk first.
+                LogFile log = Database.getLogFile();
+                log.logWrite(dirtier, page.getBeforeImage(), page);
+                log.force();
             }
             Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
             page.markDirty(false, null);
+            dirtyWrites.increment();
         }
     }
 
@@ -521,15 +721,57 @@ public class BufferPool {
     public synchronized void flushPages(TransactionId tid) throws IOException {
         // TODO: some code goes here
         // not necessary for lab1|lab2
-        for(LinkNode node: pageStore.values()) {
-            PageId pageId = node.pageId;
-            Page page = node.page;
-            if(tid.equals(page.isDirty())) {
+        for(PageId pageId : getWriteSet(tid)) {
+            Page page = pageStore.peek(pageId);
+            if(page != null && tid.equals(page.isDirty())) {
                 flushPage(pageId);
             }
         }
     }
 
+    /**
+     * Install a page in place of the resident version of it, if there is
+     * one, and release the frame of the version it replaces.
+     */
+    private synchronized void replacePage(Page page) {
+        PageId pid = page.getId();
+        Page old = pageStore.peek(pid);
+        boolean pinned = pageStore.pinCount(pid) > 0;
+        pageStore.put(page);
+        if (old != page) {
+            releaseFrame(old, pinned);
+        }
+    }
+
+    /**
+     * Give the frame of a page that left the pool back for other pages. A
+     * page that may still be in use, because it is pinned or a running
+     * transaction holds it for writing, keeps its frame instead; the
+     * garbage collector frees the frame with the page.
+     */
+    private void releaseFrame(Page page, boolean pinned) {
+        if (page != null && !pinned && !manager.isLockedExclusive(page.getId())) {
+            giveBackFrame(page);
+        }
+    }
+
+    private void giveBackFrame(Page page) {
+        if (page instanceof FramePool.FramedPage) {
+            ByteBuffer frame = ((FramePool.FramedPage) page).leaveFrame();
+            if (frame != null) {
+                frames.give(frame);
+            }
+        }
+    }
+
+    /**
+     * @return the frame pool pages read into this pool take their frames
+     * from.
+     */
+    FramePool getFramePool() {
+        return frames;
+    }
+
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
@@ -538,26 +780,81 @@ public class BufferPool {
         // TODO: some code goes here
         // not necessary for lab1
         // we should find a clean page to evict,notice cannot evict a dirty page.
-        // so we should loop all the pages.
-        for(int i=0;i<numPages;i++){
-            LinkNode node = removeTail();
-            Page page = node.page;
-
-            if(page.isDirty() != null){
-                // there is a transaction in this page.
-                addToHead(node);
-            }else{
+        // the replacement policy picks among the clean, unpinned pages.
+        PageId victim;
+        Page evicted;
+        do {
+            victim = pageStore.chooseVictim(page -> page.isDirty() == null);
+            if (victim == null && steal) {
+                // STEAL: fall back to a dirty page, flushPage logs it first.
+                victim = pageStore.chooseVictim(page -> true);
+            }
+            if (victim == null) {
+                throw new DbException("there are no clean unpinned pages to evict.");
+            }
+            try {
+                // evict this page need to write the page into the disk.
+                flushPage(victim);
+            }catch (IOException e) {
+                e.printStackTrace();
+            }
+            // a pin taken since the victim was chosen keeps the page.
+        } while ((evicted = pageStore.evict(victim)) == null);
+        releaseFrame(evicted, false);
+        evictions.increment();
+        readAhead.pageEvicted(victim);
+    }
+
+    /**
+     * Write out the dirty pages that have not been referenced since the last
+     * pass. A page is only written if a shared lock on it is granted without
+     * waiting, so pages a running transaction holds for writing are skipped.
+     *
+     * @param cleanerTid the transaction the cleaner takes its locks under.
+     */
+    void cleanColdPages(TransactionId cleanerTid) {
+        for (Page page : pageStore.coldPages(p -> p.isDirty() != null)) {
+            PageId pid = page.getId();
+            if (!manager.acquireLock(pid, cleanerTid, PageLock.SHARE)) {
+                continue;
+            }
+            try {
+                flushPage(pid);
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                manager.releaseLock(cleanerTid, pid);
+            }
+        }
+    }
+
+    /**
+     * Background writer used in STEAL mode. It stops when steal mode is
+     * turned off or once this pool is no longer the Database's pool.
+     */
+    private class PageCleaner extends Thread {
+        private final TransactionId cleanerTid = new TransactionId();
+        private volatile boolean running = true;
+
+        PageCleaner() {
+            super("page-cleaner");
+            setDaemon(true);
+        }
+
+        void shutdown() {
+            running = false;
+            interrupt();
+        }
+
+        public void run() {
+            while (running && Database.getBufferPool() == BufferPool.this) {
                 try {
-                    // evict this page need to write the page into the disk.
-                    flushPage(node.pageId);
-                }catch (IOException e) {
-                    e.printStackTrace();
+                    Thread.sleep(CLEANER_INTERVAL_MILLIS);
+                } catch (InterruptedException e) {
+                    continue;
                 }
-                pageStore.remove(node.pageId);
-                return;
+                cleanColdPages(cleanerTid);
             }
         }
-
-        throw new DbException("there are no dirty pages.");
     }
 }
@@ -0,0 +1,134 @@
+package simpledb.storage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * ClockPolicy is the CLOCK (second-chance) algorithm.
+ * <p>
+ * An access only sets the reference bit of the page's frame, so a cache hit
+ * takes no lock and never writes to state shared with other frames. Frames
+ * sit in a fixed ring of slots; installing, removing and sweeping the clock
+ * hand are synchronized on the policy. Use-once pages are installed, and
+ * accessed, without setting the bit.
+ *
+ * @Threadsafe
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    /**
+     * One slot of the clock ring.
+     */
+    static final class Frame extends Entry {
+        final int slot;
+        volatile boolean referenced;
+
+        Frame(PageId pid, int slot, boolean referenced) {
+            super(pid);
+            this.slot = slot;
+            this.referenced = referenced;
+        }
+    }
+
+    private final int capacity;
+
+    // guarded by this
+    private final Frame[] ring;
+    private final Deque<Integer> freeSlots;
+    private int hand;
+
+    /**
+     * @param capacity the number of frames in the ring.
+     */
+    public ClockPolicy(int capacity) {
+        this.capacity = capacity;
+        this.ring = new Frame[capacity];
+        this.freeSlots = new ArrayDeque<>(capacity);
+        clear();
+    }
+
+    /**
+     * @throws IllegalStateException if every slot of the ring is in use.
+     */
+    public synchronized Entry pageInstalled(PageId pid, boolean useOnce) {
+        Integer slot = freeSlots.pollFirst();
+        if (slot == null) {
+            throw new IllegalStateException("no free frame for page " + pid);
+        }
+        Frame frame = new Frame(pid, slot, !useOnce);
+        ring[slot] = frame;
+        return frame;
+    }
+
+    public void pageAccessed(Entry entry, boolean useOnce) {
+        Frame frame = (Frame) entry;
+        // only write the bit when it changes to avoid bouncing the cache line.
+        if (!useOnce && !frame.referenced) {
+            frame.referenced = true;
+        }
+    }
+
+    public synchronized void pageRemoved(Entry entry) {
+        Frame frame = (Frame) entry;
+        if (ring[frame.slot] == frame) {
+            ring[frame.slot] = null;
+            freeSlots.addLast(frame.slot);
+        }
+    }
+
+    /**
+     * Sweep the clock hand until a frame with a clear reference bit is found
+     * whose page is evictable. Reference bits are cleared as the hand
+     * passes, so after two full turns every frame has been considered.
+     */
+    public synchronized PageId chooseVictim(Predicate<PageId> evictable) {
+        for (int i = 0; i < 2 * capacity; i++) {
+            Frame frame = ring[hand];
+            hand = (hand + 1) % capacity;
+            if (frame == null) {
+                continue;
+            }
+            if (frame.referenced) {
+                frame.referenced = false;
+                continue;
+            }
+            if (evictable.test(frame.pid)) {
+                return frame.pid;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Age every frame and collect the cold ones: a frame whose reference bit
+     * is set has it cleared and is skipped, so a page is returned only if it
+     * has not been referenced since the previous call (or sweep of the hand).
+     * The hand itself does not move.
+     */
+    public synchronized List<PageId> coldPages() {
+        List<PageId> cold = new ArrayList<>();
+        for (Frame frame : ring) {
+            if (frame == null) {
+                continue;
+            }
+            if (frame.referenced) {
+                frame.referenced = false;
+            } else {
+                cold.add(frame.pid);
+            }
+        }
+        return cold;
+    }
+
+    public synchronized void clear() {
+        freeSlots.clear();
+        for (int i = 0; i < capacity; i++) {
+            ring[i] = null;
+            freeSlots.addLast(i);
+        }
+        hand = 0;
+    }
+}
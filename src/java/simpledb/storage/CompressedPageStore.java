@@ -0,0 +1,263 @@
+package simpledb.storage;
+
+import simpledb.common.Metrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * CompressedPageStore keeps the pages of a compressed HeapFile, each one
+ * deflated on its own, for cold tables that are read far more than written.
+ * <p>
+ * The file is a sequence of records, one per page version: the page number,
+ * the length of the record body, the length of the deflated page in it, and
+ * the body. A page that does not deflate to less than a page is stored as it
+ * is, with a deflated length of a whole page. A rewritten page goes back into
+ * its record when it fits and is appended in a new one otherwise; the last
+ * record of a page in the file is the page. The index from page numbers to
+ * records is built by reading the record headers the first time the file is
+ * used after it is opened; a record cut short at the end of the file, as by a
+ * crash while it was appended, is cut off then.
+ * <p>
+ * Records replaced by a newer one are not reclaimed.
+ *
+ * @Threadsafe
+ */
+class CompressedPageStore {
+
+    private static final int RECORD_HEADER = 12;
+
+    private static final ThreadLocal<Deflater> DEFLATER =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+    private static final ThreadLocal<Inflater> INFLATER =
+            ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private final FileHandle handle;
+
+    // the index; offsets is null until it is built. guarded by this.
+    private long[] offsets;
+    private int[] slotLengths;
+    private int pages;
+    // where the next record goes
+    private long end;
+
+    CompressedPageStore(FileHandle handle) {
+        this.handle = handle;
+    }
+
+    private void index() throws IOException {
+        if (offsets != null) {
+            return;
+        }
+        long[] offs = new long[16];
+        int[] lens = new int[16];
+        Arrays.fill(offs, -1);
+        int n = 0;
+        long pos = 0;
+        long size = handle.size();
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        while (pos + RECORD_HEADER <= size) {
+            header.clear();
+            handle.read(header, pos);
+            Metrics.recordRead(RECORD_HEADER);
+            int pageNo = header.getInt(0);
+            int slot = header.getInt(4);
+            if (pageNo < 0 || slot < 0 || pos + RECORD_HEADER + slot > size) {
+                break;
+            }
+            if (pageNo >= offs.length) {
+                int grown = Math.max(offs.length * 2, pageNo + 1);
+                offs = Arrays.copyOf(offs, grown);
+                Arrays.fill(offs, lens.length, grown, -1);
+                lens = Arrays.copyOf(lens, grown);
+            }
+            offs[pageNo] = pos;
+            lens[pageNo] = slot;
+            n = Math.max(n, pageNo + 1);
+            pos += RECORD_HEADER + slot;
+        }
+        if (pos < size) {
+            // the rest of a record cut short would look like records after
+            // a shorter one is appended over it.
+            handle.truncate(pos);
+        }
+        offsets = offs;
+        slotLengths = lens;
+        pages = n;
+        end = pos;
+    }
+
+    /**
+     * @return the number of pages in the file.
+     */
+    synchronized int numPages() throws IOException {
+        index();
+        return pages;
+    }
+
+    /**
+     * Read and inflate a page into <code>frame</code>, a buffer of
+     * BufferPool.getPageSize() bytes.
+     *
+     * @return the frame, cleared.
+     */
+    ByteBuffer read(int pageNo, ByteBuffer frame) throws IOException {
+        long offset;
+        int slot;
+        synchronized (this) {
+            index();
+            if (pageNo < 0 || pageNo >= pages) {
+                throw new IllegalArgumentException("no page " + pageNo);
+            }
+            offset = offsets[pageNo];
+            slot = slotLengths[pageNo];
+        }
+        int pageSize = BufferPool.getPageSize();
+        frame.clear();
+        if (offset < 0) {
+            // never written: an empty page
+            while (frame.hasRemaining()) {
+                frame.put((byte) 0);
+            }
+            return frame.clear();
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + slot);
+        handle.read(record, offset);
+        Metrics.recordRead(record.capacity());
+        int length = record.getInt(8);
+        if (length == pageSize) {
+            frame.put(record.array(), RECORD_HEADER, pageSize);
+            return frame.clear();
+        }
+
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(record.array(), RECORD_HEADER, length);
+        try {
+            while (frame.hasRemaining() && !inflater.finished()) {
+                if (inflater.inflate(frame) == 0 && inflater.needsInput()) {
+                    break;
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("page " + pageNo + " is corrupt", e);
+        }
+        if (frame.hasRemaining()) {
+            throw new IOException("page " + pageNo + " is corrupt");
+        }
+        return frame.clear();
+    }
+
+    /**
+     * Deflate a page into the body of a record.
+     *
+     * @return the record, with its slot length still to be set.
+     */
+    private static ByteBuffer compress(int pageNo, ByteBuffer page) {
+        int pageSize = page.remaining();
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + pageSize);
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(page.duplicate());
+        deflater.finish();
+        // stop one byte short of a page: a page that does not get smaller is stored as it is.
+        record.position(RECORD_HEADER).limit(RECORD_HEADER + pageSize - 1);
+        while (!deflater.finished() && record.hasRemaining()) {
+            deflater.deflate(record);
+        }
+        int length;
+        if (deflater.finished()) {
+            length = record.position() - RECORD_HEADER;
+        } else {
+            length = pageSize;
+            record.limit(record.capacity()).position(RECORD_HEADER);
+            record.put(page.duplicate());
+        }
+        record.putInt(0, pageNo);
+        record.putInt(8, length);
+        record.limit(RECORD_HEADER + length).position(0);
+        return record;
+    }
+
+    /**
+     * Write a page, given as its bytes from position zero to the end of the
+     * page; it may be the page after the last.
+     */
+    void write(int pageNo, ByteBuffer page) throws IOException {
+        ByteBuffer record = compress(pageNo, page);
+        int length = record.remaining() - RECORD_HEADER;
+        synchronized (this) {
+            index();
+            if (pageNo < 0 || pageNo > pages) {
+                throw new IllegalArgumentException("no page " + pageNo);
+            }
+            long offset;
+            int slot;
+            if (pageNo < pages && offsets[pageNo] >= 0 && slotLengths[pageNo] >= length) {
+                offset = offsets[pageNo];
+                slot = slotLengths[pageNo];
+            } else {
+                offset = end;
+                slot = length;
+            }
+            record.putInt(4, slot);
+            handle.write(record, offset);
+            Metrics.recordWrite(RECORD_HEADER + length);
+            if (offset == end) {
+                end += RECORD_HEADER + slot;
+                setIndex(pageNo, offset, slot);
+            }
+        }
+    }
+
+    /**
+     * Add empty pages at the end of the file.
+     *
+     * @return the number of the first.
+     */
+    synchronized int append(int count) throws IOException {
+        index();
+        ByteBuffer empty = compress(0, ByteBuffer.allocate(BufferPool.getPageSize()));
+        int length = empty.remaining();
+        ByteBuffer records = ByteBuffer.allocate(length * count);
+        int first = pages;
+        for (int i = 0; i < count; i++) {
+            empty.putInt(0, first + i);
+            empty.putInt(4, length - RECORD_HEADER);
+            records.put(empty.duplicate());
+        }
+        records.flip();
+        handle.write(records, end);
+        Metrics.recordWrite(records.capacity());
+        for (int i = 0; i < count; i++) {
+            setIndex(first + i, end + (long) i * length, length - RECORD_HEADER);
+        }
+        end += records.capacity();
+        return first;
+    }
+
+    private void setIndex(int pageNo, long offset, int slot) {
+        if (pageNo >= offsets.length) {
+            int grown = Math.max(offsets.length * 2, pageNo + 1);
+            int old = offsets.length;
+            offsets = Arrays.copyOf(offsets, grown);
+            Arrays.fill(offsets, old, grown, -1);
+            slotLengths = Arrays.copyOf(slotLengths, grown);
+        }
+        offsets[pageNo] = offset;
+        slotLengths[pageNo] = slot;
+        pages = Math.max(pages, pageNo + 1);
+    }
+
+    /**
+     * Forget the index; it is built again on the next use.
+     */
+    synchronized void reset() {
+        offsets = null;
+        slotLengths = null;
+    }
+}
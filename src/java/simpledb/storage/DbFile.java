@@ -2,11 +2,15 @@ package simpledb.storage;
 
 import simpledb.common.Catalog;
 import simpledb.common.DbException;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * The interface for database files on disk. Each table is represented by a
@@ -46,6 +50,31 @@ public interface DbFile {
     List<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException;
 
+    /**
+     * Inserts the specified tuples to the file on behalf of transaction, like
+     * insertTuple does for each of them. Pages changed by one tuple are
+     * marked dirty before the next is inserted, so that they stay in the
+     * buffer pool.
+     *
+     * @param tid    The transaction performing the update
+     * @param tuples The tuples to add, each updated to reflect where it is
+     *               stored.
+     * @return the pages that were modified, each once
+     * @throws DbException if a tuple cannot be added
+     * @throws IOException if the needed file can't be read/written
+     */
+    default List<Page> insertTuples(TransactionId tid, List<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        Map<PageId, Page> dirtied = new LinkedHashMap<>();
+        for (Tuple t : tuples) {
+            for (Page page : insertTuple(tid, t)) {
+                page.markDirty(true, tid);
+                dirtied.put(page.getId(), page);
+            }
+        }
+        return new ArrayList<>(dirtied.values());
+    }
+
     /**
      * Removes the specified tuple from the file on behalf of the specified
      * transaction.
@@ -71,6 +100,32 @@ public interface DbFile {
      */
     DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns an iterator over all the tuples stored in this DbFile, for a
+     * scan that only needs some of their fields. Only the given fields need
+     * be set in the tuples returned; a file may set the others as well.
+     *
+     * @param columns the indexes of the fields needed, or null for all.
+     * @return an iterator over all the tuples stored in this DbFile.
+     */
+    default DbFileIterator iterator(TransactionId tid, int[] columns) {
+        return iterator(tid);
+    }
+
+    /**
+     * Returns an iterator over the tuples stored in this DbFile, for a scan
+     * that only needs some of their fields and only the tuples that pass
+     * the given predicates. A file may leave out tuples it can tell fail a
+     * predicate, such as whole pages of them, but need not: the caller still
+     * applies the predicates to the tuples returned.
+     *
+     * @param columns    the indexes of the fields needed, or null for all.
+     * @param predicates predicates on the fields of the tuples.
+     */
+    default DbFileIterator iterator(TransactionId tid, int[] columns, List<Predicate> predicates) {
+        return iterator(tid, columns);
+    }
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDatabaseFile} and
@@ -92,4 +147,12 @@ public interface DbFile {
      * @return TupleDesc of this DbFile.
      */
     TupleDesc getTupleDesc();
+
+    /**
+     * Release the file handles this DbFile keeps open. The Catalog calls
+     * this when the table is dropped or replaced; a file used again
+     * afterwards opens its handles again.
+     */
+    default void close() throws IOException {
+    }
 }
@@ -6,6 +6,7 @@ import simpledb.execution.Predicate;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 
 /**
  * Interface for values of fields in tuples in SimpleDB.
@@ -20,6 +21,15 @@ public interface Field extends Serializable {
      */
     void serialize(DataOutputStream dos) throws IOException;
 
+    /**
+     * Write the bytes representing this field into a buffer in place, without
+     * moving its position; the counterpart of {@link Type#parse(ByteBuffer, int)}.
+     *
+     * @param buf    The buffer to write to
+     * @param offset The index of the first byte of the field in buf
+     */
+    void serialize(ByteBuffer buf, int offset);
+
     /**
      * Compare the value of this field object to the passed in value.
      *
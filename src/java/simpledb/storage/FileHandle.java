@@ -0,0 +1,310 @@
+package simpledb.storage;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * FileHandle is the long-lived FileChannel a DbFile reads and writes its
+ * pages through.
+ * <p>
+ * Reads and writes are positional, so threads share the channel without
+ * seeking and without a lock. The channel is opened on first use and stays
+ * open until close; a file used again after close opens it again. A read or
+ * write cut short because another thread closed the channel is retried on a
+ * new one. A thread interrupted during I/O closes the channel for everybody
+ * (see FileChannel); its own operation fails, and the others reopen it.
+ * <p>
+ * The length of the file is kept in memory from its first use, and
+ * {@link #size} does not ask the file system again; {@link #currentSize}
+ * does, for files that may have been written some other way. Appends grow
+ * the file on disk an extent of EXTENT_BYTES zeroes at a time, so the file
+ * is usually longer on disk than its length here; close cuts off the part
+ * of the last extent that was not used. A file that was not closed, as
+ * after a crash, keeps it on disk as zeroes at its end. For a file made of
+ * pages, the handle does not count them when it first takes the length: if
+ * the file on disk is whole extents long, it ends after the last page of the
+ * last extent with a byte other than zero, or after its first page. An
+ * all-zero page at the end is thus dropped along with the padding, which is
+ * no loss to a file where such a page is an empty one.
+ *
+ * @Threadsafe
+ */
+public class FileHandle {
+
+    private final File file;
+
+    /**
+     * The size of the zero-filled extents appends grow the file by.
+     */
+    public static final long EXTENT_BYTES = 1L << 20;
+
+    private volatile FileChannel channel;
+
+    // the length of the file, or -1 until it is first needed.
+    private volatile long size = -1;
+    // the length of the file on disk; the bytes from size on are zeroes.
+    // guarded by this.
+    private long allocated;
+
+    // where the pages of the file start, or -1 if it is not made of pages.
+    private final long pagesFrom;
+
+    public FileHandle(File file) {
+        this(file, -1);
+    }
+
+    /**
+     * @param pagesFrom the position the pages of the file, of
+     *                  BufferPool.getPageSize() bytes each, start at; or -1
+     *                  if the file is not made of pages.
+     */
+    public FileHandle(File file, long pagesFrom) {
+        this.file = file;
+        this.pagesFrom = pagesFrom;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    private FileChannel channel() throws IOException {
+        FileChannel ch = channel;
+        if (ch != null && ch.isOpen()) {
+            return ch;
+        }
+        synchronized (this) {
+            ch = channel;
+            if (ch == null || !ch.isOpen()) {
+                ch = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+                channel = ch;
+            }
+            return ch;
+        }
+    }
+
+    /**
+     * Fill the buffer with the bytes of the file from the given position.
+     *
+     * @throws EOFException if the file ends first.
+     */
+    public void read(ByteBuffer dst, long position) throws IOException {
+        int start = dst.position();
+        while (true) {
+            FileChannel ch = channel();
+            try {
+                while (dst.hasRemaining()) {
+                    if (ch.read(dst, position + dst.position() - start) < 0) {
+                        throw new EOFException(String.format("read past the end of %s at %d", file, position));
+                    }
+                }
+                return;
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                // closed by another thread; start over on a new channel.
+                dst.position(start);
+            }
+        }
+    }
+
+    /**
+     * Write the remaining bytes of the buffer at the given position.
+     */
+    public void write(ByteBuffer src, long position) throws IOException {
+        long end = position + src.remaining();
+        writeAt(src, position);
+        if (end > size) {
+            grown(end);
+        }
+    }
+
+    private synchronized void grown(long end) {
+        size();
+        size = Math.max(size, end);
+        allocated = Math.max(allocated, end);
+    }
+
+    private void writeAt(ByteBuffer src, long position) throws IOException {
+        int start = src.position();
+        while (true) {
+            FileChannel ch = channel();
+            try {
+                while (src.hasRemaining()) {
+                    ch.write(src, position + src.position() - start);
+                }
+                return;
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                // closed by another thread; start over on a new channel.
+                src.position(start);
+            }
+        }
+    }
+
+    /**
+     * Write the remaining bytes of the buffer at the end of the file. Appends
+     * through the same handle do not overlap.
+     *
+     * @return the position they were written at.
+     */
+    public synchronized long append(ByteBuffer src) throws IOException {
+        long position = size();
+        reserve(position + src.remaining());
+        write(src, position);
+        return position;
+    }
+
+    /**
+     * Add <code>bytes</code> zeroes at the end of the file. Only whole
+     * extents are written, when the file on disk is too short.
+     *
+     * @return the position they start at.
+     */
+    public synchronized long extend(long bytes) throws IOException {
+        long position = size();
+        reserve(position + bytes);
+        size = position + bytes;
+        return position;
+    }
+
+    /**
+     * Make the file on disk at least <code>end</code> bytes long, in whole
+     * extents of zeroes.
+     */
+    private void reserve(long end) throws IOException {
+        if (end <= allocated) {
+            return;
+        }
+        long target = (end + EXTENT_BYTES - 1) / EXTENT_BYTES * EXTENT_BYTES;
+        ByteBuffer zeroes = ByteBuffer.allocate((int) Math.min(EXTENT_BYTES, target - allocated));
+        for (long pos = allocated; pos < target; pos += zeroes.capacity()) {
+            zeroes.clear().limit((int) Math.min(zeroes.capacity(), target - pos));
+            writeAt(zeroes, pos);
+        }
+        allocated = target;
+    }
+
+    /**
+     * Map a region of the file read-only. The mapping stays valid after the
+     * channel is closed and shows writes made through the channel.
+     */
+    public MappedByteBuffer map(long position, long size) throws IOException {
+        while (true) {
+            FileChannel ch = channel();
+            try {
+                return ch.map(FileChannel.MapMode.READ_ONLY, position, size);
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                // closed by another thread; start over on a new channel.
+            }
+        }
+    }
+
+    /**
+     * Cut the file to the given length.
+     */
+    public synchronized void truncate(long size) throws IOException {
+        while (true) {
+            FileChannel ch = channel();
+            try {
+                ch.truncate(size);
+                this.size = Math.min(size(), size);
+                allocated = Math.min(allocated, size);
+                return;
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                // closed by another thread; start over on a new channel.
+            }
+        }
+    }
+
+    /**
+     * @return the length of the file in bytes.
+     */
+    public long size() {
+        long s = size;
+        if (s >= 0) {
+            return s;
+        }
+        synchronized (this) {
+            if (size < 0) {
+                measure(file.length());
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Take the length of the file from its length on disk, leaving out the
+     * zeroes of an extent that was not cut short.
+     */
+    private void measure(long onDisk) {
+        allocated = onDisk;
+        size = onDisk;
+        if (pagesFrom < 0 || onDisk == 0 || onDisk % EXTENT_BYTES != 0) {
+            return;
+        }
+        long start = onDisk - EXTENT_BYTES;
+        ByteBuffer extent = ByteBuffer.allocate((int) EXTENT_BYTES);
+        try {
+            read(extent, start);
+        } catch (IOException e) {
+            // count the zeroes as pages, which does no harm but to speed.
+            return;
+        }
+        int end = extent.capacity();
+        while (end >= Long.BYTES && extent.getLong(end - Long.BYTES) == 0) {
+            end -= Long.BYTES;
+        }
+        while (end > 0 && extent.get(end - 1) == 0) {
+            end--;
+        }
+        long pageSize = BufferPool.getPageSize();
+        long used = Math.max(start + end - pagesFrom, 1);
+        size = Math.min(onDisk, pagesFrom + (used + pageSize - 1) / pageSize * pageSize);
+    }
+
+    /**
+     * @return the length of the file in bytes, as {@link #size}, but first
+     * taking the length on disk if the file grew other than through this
+     * handle.
+     */
+    public synchronized long currentSize() {
+        long onDisk = file.length();
+        if (size < 0 || onDisk > allocated) {
+            measure(onDisk);
+        }
+        return size;
+    }
+
+    /**
+     * Cut off the unused part of the last extent and close the channel if
+     * it is open. The length of the file is read again on the next use.
+     */
+    public synchronized void close() throws IOException {
+        FileChannel ch = channel;
+        channel = null;
+        if (ch != null) {
+            try {
+                // unless the file was changed behind this handle's back
+                if (ch.isOpen() && size >= 0 && allocated > size && ch.size() == allocated) {
+                    ch.truncate(size);
+                }
+            } finally {
+                ch.close();
+            }
+        }
+        size = -1;
+    }
+}
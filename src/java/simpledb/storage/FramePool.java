@@ -0,0 +1,83 @@
+package simpledb.storage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * FramePool keeps the direct buffers that pages read into the BufferPool
+ * hold their bytes in. A page read from disk takes a frame, and gives it
+ * back when it leaves the pool, so the pool ends up with about one frame per
+ * page it holds and a page load does not allocate memory outside the heap.
+ * <p>
+ * A new frame is only allocated when none is free: while the pool fills up,
+ * and in place of frames that went away with pages that were still in use
+ * when they left. Frames given back beyond the capacity are left to the
+ * garbage collector.
+ *
+ * @Threadsafe
+ */
+class FramePool {
+
+    /**
+     * A page that may keep its bytes in a frame.
+     */
+    interface FramedPage {
+        /**
+         * Move the bytes of the page off its frame onto a heap buffer of its
+         * own, so that the frame can hold another page. Whoever still holds
+         * the page reads the same bytes as before.
+         *
+         * @return the frame, or null if the page is not on one.
+         */
+        ByteBuffer leaveFrame();
+    }
+
+    private final int capacity;
+
+    // guarded by this
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+
+    private final LongAdder allocations = new LongAdder();
+
+    /**
+     * @param capacity how many free frames to keep at most.
+     */
+    FramePool(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return a frame of BufferPool.getPageSize() bytes, with any content.
+     */
+    ByteBuffer take() {
+        int pageSize = BufferPool.getPageSize();
+        synchronized (this) {
+            ByteBuffer frame;
+            while ((frame = free.poll()) != null) {
+                // frames of an older page size are dropped.
+                if (frame.capacity() == pageSize) {
+                    return frame.clear();
+                }
+            }
+        }
+        allocations.increment();
+        return ByteBuffer.allocateDirect(pageSize);
+    }
+
+    /**
+     * Give back a frame no page uses any more.
+     */
+    synchronized void give(ByteBuffer frame) {
+        if (free.size() < capacity) {
+            free.push(frame);
+        }
+    }
+
+    /**
+     * @return the number of frames allocated so far.
+     */
+    long getAllocationCount() {
+        return allocations.sum();
+    }
+}
@@ -0,0 +1,77 @@
+package simpledb.storage;
+
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap remembers which pages of a HeapFile have an empty slot, so
+ * that inserts go straight to a page with room instead of locking and
+ * reading every page before it.
+ * <p>
+ * The map is a hint. It is rebuilt from the page headers on disk the first
+ * time the file takes an insert after it is opened, and kept up to date by
+ * inserts and deletes. Pages a transaction changed count as having room
+ * again when it aborts, since the inserts that filled them are gone; changes
+ * made behind the file's back can still leave it wrong. An insert therefore
+ * checks the page it is sent to, and marks it full if it is. Pages past the
+ * end of the map, such as those appended by someone else, count as having
+ * room.
+ *
+ * @Threadsafe
+ */
+public class FreeSpaceMap {
+
+    // pages that have room, among the first known pages; guarded by this
+    private final BitSet free = new BitSet();
+
+    // guarded by this
+    private int known;
+
+    /**
+     * @return the first page at or after <code>from</code> that may have an
+     * empty slot. It may be past the end of the file.
+     */
+    public synchronized int nextFree(int from) {
+        if (from >= known) {
+            return from;
+        }
+        int next = free.nextSetBit(from);
+        return next < 0 || next >= known ? known : next;
+    }
+
+    /**
+     * Record whether a page has an empty slot.
+     */
+    public synchronized void setFree(int pageNo, boolean hasRoom) {
+        if (pageNo >= known) {
+            // pages in between were appended behind our back: assume room.
+            free.set(known, pageNo);
+            known = pageNo + 1;
+        }
+        free.set(pageNo, hasRoom);
+    }
+
+    /**
+     * Forget the pages from <code>pages</code> on, after the file was cut
+     * short.
+     */
+    public synchronized void truncate(int pages) {
+        if (pages < known) {
+            free.clear(pages, known);
+            known = pages;
+        }
+    }
+
+    /**
+     * @return the number of pages the map knows about.
+     */
+    public synchronized int size() {
+        return known;
+    }
+
+    /**
+     * @return the number of known pages with an empty slot.
+     */
+    public synchronized int freePages() {
+        return free.get(0, known).cardinality();
+    }
+}
@@ -0,0 +1,171 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * GroupCommit makes the records of a LogFile durable in batches.
+ * <p>
+ * A committing transaction appends its COMMIT record and then waits on a
+ * future for the record to reach the disk. A single flusher thread waits out
+ * the group commit window, forces the log once for every record appended so
+ * far, and completes the futures of all the commits that force covered.
+ * Commits that arrive while a force is running are picked up by the next
+ * one, so under load each force serves many commits even with no window.
+ * <p>
+ * Records are counted as they are appended (see LogFile.preAppend); the
+ * count, unlike a file offset, survives log truncation.
+ *
+ * @Threadsafe
+ */
+class GroupCommit {
+
+    /**
+     * A commit waiting for the records up to <code>record</code> to be durable.
+     */
+    private static final class Waiter {
+        final long record;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Waiter(long record) {
+            this.record = record;
+        }
+    }
+
+    private final LogFile log;
+
+    private final ThreadPoolExecutor flusher;
+
+    private volatile long windowMicros;
+
+    // records up to this one are on disk; guarded by this
+    private long durable;
+
+    // guarded by this
+    private final List<Waiter> waiters = new ArrayList<>();
+
+    // a flush is queued or running; guarded by this
+    private boolean flushing;
+
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong forces = new AtomicLong();
+
+    GroupCommit(LogFile log, long windowMicros) {
+        this.log = log;
+        this.windowMicros = windowMicros;
+        // one thread that goes away when idle, so replaced logs leave nothing behind.
+        this.flusher = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "log-flusher");
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.flusher.allowCoreThreadTimeOut(true);
+    }
+
+    void setWindowMicros(long micros) {
+        this.windowMicros = Math.max(0, micros);
+    }
+
+    long getWindowMicros() {
+        return windowMicros;
+    }
+
+    /**
+     * @return a future completed once the records up to <code>record</code>
+     * are on disk.
+     */
+    synchronized CompletableFuture<Void> commit(long record) {
+        commits.incrementAndGet();
+        Waiter waiter = new Waiter(record);
+        if (record <= durable) {
+            waiter.done.complete(null);
+            return waiter.done;
+        }
+        waiters.add(waiter);
+        if (!flushing) {
+            flushing = true;
+            flusher.execute(this::flush);
+        }
+        return waiter.done;
+    }
+
+    /**
+     * Note that the records up to <code>record</code> are on disk, and
+     * release the commits waiting for them.
+     */
+    synchronized void durable(long record) {
+        forces.incrementAndGet();
+        if (record <= durable) {
+            return;
+        }
+        durable = record;
+        Iterator<Waiter> it = waiters.iterator();
+        while (it.hasNext()) {
+            Waiter waiter = it.next();
+            if (waiter.record <= record) {
+                it.remove();
+                waiter.done.complete(null);
+            }
+        }
+    }
+
+    private synchronized void failAll(IOException e) {
+        for (Waiter waiter : waiters) {
+            waiter.done.completeExceptionally(e);
+        }
+        waiters.clear();
+    }
+
+    /**
+     * Force the log until no commit is left waiting.
+     */
+    private void flush() {
+        long window = windowMicros;
+        if (window > 0) {
+            try {
+                TimeUnit.MICROSECONDS.sleep(window);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        while (true) {
+            synchronized (this) {
+                if (waiters.isEmpty()) {
+                    flushing = false;
+                    return;
+                }
+            }
+            try {
+                long record = log.forceAppended();
+                durable(record);
+            } catch (ClosedChannelException e) {
+                // the log was truncated and reopened under us; try again.
+            } catch (IOException e) {
+                failAll(e);
+            }
+        }
+    }
+
+    /**
+     * @return the number of commits that asked to be made durable.
+     */
+    long getCommitCount() {
+        return commits.get();
+    }
+
+    /**
+     * @return the number of times the log was forced.
+     */
+    long getForceCount() {
+        return forces.get();
+    }
+}
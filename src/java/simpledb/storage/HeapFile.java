@@ -3,13 +3,20 @@ package simpledb.storage;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
+import simpledb.common.Metrics;
 import simpledb.common.Permissions;
+import simpledb.execution.Predicate;
+import simpledb.transaction.Transaction;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import javax.xml.crypto.Data;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -20,6 +27,23 @@ import java.util.NoSuchElementException;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * A mapped HeapFile, meant for read-mostly tables, reads its pages from
+ * read-only mappings of the file instead: each page is a view of the mapping,
+ * with no read call and no copy, until it is changed. The file is mapped in
+ * segments of SEGMENT_BYTES; the last one is mapped again, further, when the
+ * file grows past it. Writes still go through the file's channel and show in
+ * the mappings. A mapped file must not be truncated while it is in use.
+ * <p>
+ * A compressed HeapFile, meant for cold tables, stores each page deflated
+ * instead, in a CompressedPageStore; pages are inflated as they are read
+ * into the buffer pool, and deflated as they are written out.
+ * <p>
+ * After large deletes, {@link #vacuum} moves tuples off the last pages and
+ * cuts the file short, while the table stays in use.
+ * <p>
+ * A scan given predicates on INT fields passes over the pages whose
+ * ZoneMap zone shows that no tuple on them can match.
  *
  * @author Sam Madden
  * @see HeapPage#HeapPage
@@ -30,6 +54,40 @@ public class HeapFile implements DbFile {
 
     private final TupleDesc tupleDesc;
 
+    // pages are read and written through one channel for the life of the file.
+    final FileHandle handle;
+
+    /**
+     * The size of the regions a mapped file is mapped in.
+     */
+    public static final long SEGMENT_BYTES = 64L << 20;
+
+    /**
+     * How a HeapFile keeps its pages on disk.
+     */
+    public enum Storage {
+        /** pages one after another, read through the file's channel */
+        PLAIN,
+        /** pages one after another, read through memory mappings */
+        MAPPED,
+        /** pages deflated one by one; see CompressedPageStore */
+        COMPRESSED
+    }
+
+    private final boolean mapped;
+
+    // null unless the file is compressed
+    private final CompressedPageStore compressed;
+
+    // segment i maps the file from i * SEGMENT_BYTES, as far as it went when mapped.
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+    // built from the page headers on the first insert after the file is opened.
+    private volatile FreeSpaceMap freeSpace;
+
+    // null if the table has no INT fields; emptied when the file is closed.
+    private volatile ZoneMap zones;
+
     /**
      * Constructs a heap file backed by the specified file.
      *
@@ -37,9 +95,57 @@ public class HeapFile implements DbFile {
      *          file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally read
+     * through memory mappings.
+     *
+     * @param mapped true to build pages straight from mappings of the file.
+     */
+    public HeapFile(File f, TupleDesc td, boolean mapped) {
+        this(f, td, mapped ? Storage.MAPPED : Storage.PLAIN);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, which keeps its
+     * pages as <code>storage</code> says.
+     */
+    public HeapFile(File f, TupleDesc td, Storage storage) {
         // TODO: some code goes here
         this.file = f;
         this.tupleDesc = td;
+        this.handle = new FileHandle(f, storage == Storage.COMPRESSED ? -1 : 0);
+        this.mapped = storage == Storage.MAPPED;
+        this.compressed = storage == Storage.COMPRESSED ? new CompressedPageStore(handle) : null;
+        this.zones = newZoneMap(td);
+    }
+
+    private static ZoneMap newZoneMap(TupleDesc td) {
+        ZoneMap map = new ZoneMap(td);
+        return map.getFields().length == 0 ? null : map;
+    }
+
+    /**
+     * @return the zone map of this file, or null if it has no INT fields.
+     */
+    public ZoneMap getZoneMap() {
+        return zones;
+    }
+
+    /**
+     * @return true if pages are read through memory mappings of the file.
+     */
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    /**
+     * @return true if pages are stored compressed.
+     */
+    public boolean isCompressed() {
+        return compressed != null;
     }
 
     /**
@@ -83,40 +189,170 @@ public class HeapFile implements DbFile {
         // note: the pageNo in range with[0,1,2...numPage-1]
         int pageNo = pid.getPageNumber();
 
-        RandomAccessFile f = null;
+        long offset = (long) pageNo * BufferPool.getPageSize();
+        if (pageNo < 0 || compressed == null && offset + BufferPool.getPageSize() > handle.size()
+                && offset + BufferPool.getPageSize() > handle.currentSize()) {
+            throw new IllegalArgumentException(String.format("table %d page %d is invalid", tableId, pageNo));
+        }
+
+        HeapPageId id = new HeapPageId(tableId, pageNo);
+        ByteBuffer frame = null;
+        FramePool frames = Database.getBufferPool().getFramePool();
+        boolean read = false;
         try {
-            f = new RandomAccessFile(file ,"r");
-            if((long) (pageNo + 1) *BufferPool.getPageSize()>f.length()) {
-                f.close();
-                throw new IllegalArgumentException(String.format("table %d page %d is invalid", tableId, pageNo));
+            if (mapped) {
+                frame = mappedFrame(offset);
+            }
+            if (frame != null) {
+                read = true;
+                Metrics.recordRead(frame.capacity());
+                return newPage(id, frame);
+            }
+            // read straight into the frame of the pool the page will live in.
+            frame = frames.take();
+            if (compressed != null) {
+                // the store counts the bytes it reads.
+                compressed.read(pageNo, frame);
+            } else {
+                handle.read(frame, offset);
+                frame.clear();
+                Metrics.recordRead(frame.capacity());
             }
+            read = true;
+        } catch (IOException e) {
+            throw new IllegalArgumentException(String.format("table %d page %d is invalid", tableId, pageNo), e);
+        } finally {
+            if (!read && frame != null) {
+                frames.give(frame);
+            }
+        }
+        return newPage(id, frame);
+    }
 
-            byte[] bytes = new byte[BufferPool.getPageSize()];
+    /**
+     * Build a page of this file over a frame read from disk; see
+     * HeapPage#HeapPage(HeapPageId, ByteBuffer).
+     */
+    Page newPage(HeapPageId id, ByteBuffer frame) {
+        return new HeapPage(id, frame);
+    }
 
-            // don't seek one by one, because of may be out of memory.
-            f.seek((long) pageNo *BufferPool.getPageSize());
+    /**
+     * @param columns the fields to decode, or null for all of them.
+     * @return the tuples on a page of this file.
+     */
+    Iterator<Tuple> pageTuples(Page page, int[] columns) {
+        return ((HeapPage) page).iterator(columns);
+    }
 
-            int read = f.read(bytes, 0, BufferPool.getPageSize());
+    /**
+     * @return how many bytes from the start of a page the free-space map
+     * reads to tell whether the page has room.
+     */
+    int spaceHeaderBytes() {
+        return (HeapPage.numSlots(tupleDesc) + 7) / 8;
+    }
 
-            if(read != BufferPool.getPageSize()) {
-                throw new IllegalArgumentException(String.format("table %d page %d is invalid", tableId, pageNo));
-            }
+    /**
+     * @return true if a page whose first spaceHeaderBytes() bytes are
+     * <code>header</code> has room for a tuple.
+     */
+    boolean hasRoom(byte[] header) {
+        return HeapPage.hasEmptySlot(header, HeapPage.numSlots(tupleDesc));
+    }
 
-            HeapPageId id = new HeapPageId(tableId, pageNo);
-
-            return new HeapPage(id, bytes);
-        }catch (IOException e) {
-            e.printStackTrace();
-        }finally {
-            try{
-                assert f != null;
-                f.close();
-            }catch (Exception e) {
-                e.printStackTrace();
-            }
+    /**
+     * @return true if a page of this file has room for a tuple.
+     */
+    boolean hasRoom(Page page) {
+        return ((HeapPage) page).getNumEmptySlots() > 0;
+    }
+
+    /**
+     * @throws DbException if the tuple cannot be stored in this file.
+     */
+    void checkTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(tupleDesc)) {
+            throw new DbException("the tupleDesc of this tuple invalid.");
         }
+    }
 
-        throw new IllegalArgumentException(String.format("table %d page %d is invalid", tableId, pageNo));
+    /**
+     * Insert tuples from <code>from</code> on into a page of this file
+     * while they fit.
+     *
+     * @return the index of the first tuple not inserted.
+     */
+    int fillPage(Page page, List<Tuple> tuples, int from) throws DbException {
+        HeapPage heapPage = (HeapPage) page;
+        int room = heapPage.getNumEmptySlots();
+        int next = from;
+        for (; room > 0 && next < tuples.size(); room--) {
+            heapPage.insertTuple(tuples.get(next++));
+        }
+        return next;
+    }
+
+    /**
+     * @return the number of empty pages the tuples from <code>from</code>
+     * on fill.
+     */
+    int pagesFor(List<Tuple> tuples, int from) {
+        int perPage = HeapPage.numSlots(tupleDesc);
+        return (tuples.size() - from + perPage - 1) / perPage;
+    }
+
+    /**
+     * Remove a tuple from the page of this file it is on.
+     */
+    void removeTuple(Page page, Tuple t) throws DbException {
+        ((HeapPage) page).deleteTuple(t);
+    }
+
+    /**
+     * @return a read-only view of the page at <code>offset</code> in the
+     * mappings, or null if the page crosses a segment boundary.
+     */
+    private ByteBuffer mappedFrame(long offset) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        int seg = (int) (offset / SEGMENT_BYTES);
+        long end = offset + pageSize;
+        if ((end - 1) / SEGMENT_BYTES != seg) {
+            return null;
+        }
+        ByteBuffer view = segment(seg, end).duplicate();
+        int start = (int) (offset - seg * SEGMENT_BYTES);
+        view.limit(start + pageSize).position(start);
+        return view.slice();
+    }
+
+    /**
+     * @return the mapping of segment <code>seg</code>, mapping the file
+     * again if the current one ends before <code>end</code>.
+     */
+    private MappedByteBuffer segment(int seg, long end) throws IOException {
+        MappedByteBuffer[] segs = segments;
+        long start = seg * SEGMENT_BYTES;
+        if (seg < segs.length && segs[seg] != null && start + segs[seg].capacity() >= end) {
+            return segs[seg];
+        }
+        synchronized (this) {
+            segs = segments;
+            if (seg < segs.length && segs[seg] != null && start + segs[seg].capacity() >= end) {
+                return segs[seg];
+            }
+            long size = handle.size();
+            segs = Arrays.copyOf(segs, Math.max(segs.length, seg + 1));
+            for (int i = 0; i <= seg; i++) {
+                long from = i * SEGMENT_BYTES;
+                long len = Math.min(SEGMENT_BYTES, size - from);
+                if (segs[i] == null || segs[i].capacity() < len) {
+                    segs[i] = handle.map(from, len);
+                }
+            }
+            segments = segs;
+            return segs[seg];
+        }
     }
 
     // see DbFile.java for javadocs
@@ -129,13 +365,32 @@ public class HeapFile implements DbFile {
             throw new IllegalArgumentException();
         }
 
-        RandomAccessFile f = new RandomAccessFile(file, "rw");
-
-        f.seek((long) pageNo * BufferPool.getPageSize());
+        ZoneMap zm = zones;
+        if (zm != null && zm.isKnown(pageNo)) {
+            // a page written some other way than through inserts, as by recovery.
+            zm.widen(pageNo, pageTuples(page, zm.getFields()));
+        }
 
-        f.write(page.getPageData());
+        ByteBuffer data = page.getPageBuffer();
+        if (compressed != null) {
+            compressed.write(pageNo, data);
+            return;
+        }
+        int len = data.remaining();
+        handle.write(data, (long) pageNo * BufferPool.getPageSize());
+        Metrics.recordWrite(len);
+    }
 
-        f.close();
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+        handle.close();
+        freeSpace = null;
+        zones = newZoneMap(tupleDesc);
+        if (compressed != null) {
+            compressed.reset();
+        }
+        // pages still on the old mappings keep them alive.
+        segments = new MappedByteBuffer[0];
     }
 
     /**
@@ -143,7 +398,77 @@ public class HeapFile implements DbFile {
      */
     public int numPages() {
         // TODO: some code goes here
-        return (int) Math.floor((this.file.length() * 1.0) / (BufferPool.getPageSize()));
+        return knownPages();
+    }
+
+    /**
+     * Returns the number of pages in this HeapFile, first taking the length
+     * of the file on disk again in case pages were added to it other than
+     * through this HeapFile.
+     */
+    public int refreshNumPages() {
+        if (compressed == null) {
+            handle.currentSize();
+        }
+        return knownPages();
+    }
+
+    /**
+     * @return the number of pages in this HeapFile as kept in memory, which
+     * counts every page added through this HeapFile but not ones added to
+     * the file some other way since {@link #refreshNumPages} last looked.
+     */
+    int knownPages() {
+        if (compressed != null) {
+            try {
+                return compressed.numPages();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return (int) (handle.size() / BufferPool.getPageSize());
+    }
+
+    /**
+     * @return the free-space map of this file, built from the page headers
+     * on disk if this is its first use since the file was opened.
+     */
+    FreeSpaceMap getFreeSpaceMap() throws IOException {
+        FreeSpaceMap fsm = freeSpace;
+        if (fsm != null) {
+            return fsm;
+        }
+        synchronized (this) {
+            if (freeSpace == null) {
+                fsm = new FreeSpaceMap();
+                byte[] header = new byte[spaceHeaderBytes()];
+                ByteBuffer page = compressed == null ? null : ByteBuffer.allocate(BufferPool.getPageSize());
+                int pages = numPages();
+                for (int i = 0; i < pages; i++) {
+                    if (compressed != null) {
+                        compressed.read(i, page).get(header);
+                    } else {
+                        handle.read(ByteBuffer.wrap(header), (long) i * BufferPool.getPageSize());
+                        Metrics.recordRead(header.length);
+                    }
+                    fsm.setFree(i, hasRoom(header));
+                }
+                freeSpace = fsm;
+            }
+            return freeSpace;
+        }
+    }
+
+    /**
+     * Note that changes to a page were rolled back: an insert that filled it
+     * may be gone, so the free-space map counts it as having room again
+     * until an insert finds out.
+     */
+    void pageRolledBack(int pageNo) {
+        FreeSpaceMap fsm = freeSpace;
+        if (fsm != null && pageNo < fsm.size()) {
+            fsm.setFree(pageNo, true);
+        }
     }
 
     // see DbFile.java for javadocs
@@ -151,37 +476,94 @@ public class HeapFile implements DbFile {
             throws DbException, IOException, TransactionAbortedException {
         // TODO: some code goes here
         // not necessary for lab1
+        return insertTuples(tid, Collections.singletonList(t));
+    }
+
+    /**
+     * Fill the pages that have room, then append as many pages as the rest
+     * of the tuples need with a single write and fill those. Each page is
+     * marked dirty as soon as it is changed.
+     */
+    @Override
+    public List<Page> insertTuples(TransactionId tid, List<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        for (Tuple t : tuples) {
+            checkTuple(t);
+        }
         List<Page> pages = new ArrayList<>();
-        for(int i=0;i<numPages();i++){
-            HeapPageId heapPageId = new HeapPageId(getId(), i);
+        BufferPool bp = Database.getBufferPool();
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        int next = 0;
+        int from = 0;
+        while (next < tuples.size()) {
+            int i = fsm.nextFree(from);
+            if (i >= knownPages()) {
+                // not have more pages,create new pages for the rest.
+                int newPages = pagesFor(tuples, next);
+                int first = appendEmptyPages(newPages);
+                for (int k = 0; k < newPages; k++) {
+                    fsm.setFree(first + k, true);
+                }
+                from = first;
+                continue;
+            }
+            from = i + 1;
 
-            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_WRITE);
+            // only pages the map says have room are locked and read.
+            HeapPageId heapPageId = new HeapPageId(getId(), i);
+            boolean held = bp.holdsLock(tid, heapPageId);
+            Page page;
+            try {
+                page = bp.getPage(tid, heapPageId, Permissions.READ_WRITE);
+            } catch (IllegalArgumentException e) {
+                if (i < knownPages()) {
+                    throw e;
+                }
+                // cut off by a vacuum since the map was read.
+                if (!held) {
+                    bp.unsafeReleasePage(tid, heapPageId);
+                }
+                continue;
+            }
 
-            // this page have an empty slot
-            if(page.getNumEmptySlots()!=0){
-                page.insertTuple(t);
-                pages.add(page);
-                return pages;
-            }else{
-                Database.getBufferPool().unsafeReleasePage(tid, heapPageId);
+            int filled = fillPage(page, tuples, next);
+            if (filled == next) {
+                // the map was out of date.
+                fsm.setFree(i, false);
+                if (!held) {
+                    bp.unsafeReleasePage(tid, heapPageId);
+                }
+                continue;
             }
+            widenZone(i, tuples, next, filled);
+            next = filled;
+            page.markDirty(true, tid);
+            fsm.setFree(i, hasRoom(page));
+            pages.add(page);
         }
+        return pages;
+    }
 
-        // not have more pages,create a new page for this operation.
-        BufferedOutputStream output = new BufferedOutputStream(new FileOutputStream(file, true));
-        byte[] newPage = HeapPage.createEmptyPageData();
-        output.write(newPage);
-        output.flush();
-
-
-        HeapPageId pageId = new HeapPageId(getId(), numPages()-1);
-
-
-        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
+    private void widenZone(int pageNo, List<Tuple> tuples, int from, int to) {
+        ZoneMap zm = zones;
+        if (zm != null) {
+            zm.widen(pageNo, tuples, from, to);
+        }
+    }
 
-        page.insertTuple(t);
-        pages.add(page);
-        return pages;
+    /**
+     * Add empty pages at the end of the file. An empty page is all zeroes,
+     * and so is the file past its end up to the end of the last extent: the
+     * file on disk only grows when the pages go past that.
+     *
+     * @return the number of the first.
+     */
+    private int appendEmptyPages(int count) throws IOException {
+        if (compressed != null) {
+            return compressed.append(count);
+        }
+        long offset = handle.extend((long) count * BufferPool.getPageSize());
+        return (int) (offset / BufferPool.getPageSize());
     }
 
     // see DbFile.java for javadocs
@@ -193,18 +575,196 @@ public class HeapFile implements DbFile {
 
         PageId pageId = t.getRecordId().getPageId();
 
-        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
+        Page page = Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
 
-        page.deleteTuple(t);
+        removeTuple(page, t);
+        FreeSpaceMap fsm = freeSpace;
+        if (fsm != null) {
+            fsm.setFree(pageId.getPageNumber(), true);
+        }
 
         pages.add(page);
         return pages;
     }
 
+    /**
+     * Compact the file while it stays in use: move the tuples on the last
+     * pages into room on earlier pages, then cut the empty pages off the end
+     * of the file. Moved tuples get new RecordIds.
+     * <p>
+     * Each page is emptied by a transaction of its own, which locks that
+     * page and the pages its tuples move to, so other transactions wait for
+     * a few pages at a time and never for the whole table. A move that loses
+     * a deadlock is rolled back and tried again.
+     * <p>
+     * The file is only cut when its pages are stored plain, the pool is in
+     * NO-STEAL mode, so that recovery cannot write the cut pages back, and
+     * no snapshot is running that may still read them. Otherwise the empty
+     * pages stay at the end of the file, where inserts come to them last.
+     *
+     * @return the number of pages cut off the file.
+     */
+    public int vacuum() throws DbException, IOException {
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        int retries = 0;
+        for (int src = knownPages() - 1; src > 0; ) {
+            Transaction t = new Transaction();
+            t.start();
+            boolean emptied;
+            boolean committed = false;
+            try {
+                emptied = emptyPage(t.getId(), src, fsm);
+                t.commit();
+                committed = true;
+            } catch (TransactionAbortedException e) {
+                if (++retries > VACUUM_RETRIES) {
+                    break;
+                }
+                continue;
+            } finally {
+                // put back whatever was moved, and let go of the pages.
+                if (!committed) {
+                    t.abort();
+                }
+            }
+            if (!emptied) {
+                break;
+            }
+            retries = 0;
+            src--;
+        }
+        return cutEmptyPages(fsm);
+    }
+
+    // how many times in a row vacuum tries again to move a page's tuples.
+    private static final int VACUUM_RETRIES = 3;
+
+    /**
+     * Move the tuples on page <code>src</code> into room the free-space map
+     * shows on pages before it, as far as there is room.
+     *
+     * @return true if the page was left empty.
+     */
+    private boolean emptyPage(TransactionId tid, int src, FreeSpaceMap fsm)
+            throws DbException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        Page page = bp.getPage(tid, new HeapPageId(getId(), src), Permissions.READ_WRITE);
+        List<Tuple> tuples = new ArrayList<>();
+        pageTuples(page, null).forEachRemaining(tuples::add);
+        if (tuples.isEmpty()) {
+            return true;
+        }
+        int to = fsm.nextFree(0);
+        if (to >= src) {
+            return false;
+        }
+        // keep inserts off the page while it is emptied.
+        fsm.setFree(src, false);
+        for (Tuple t : tuples) {
+            removeTuple(page, t);
+        }
+        page.markDirty(true, tid);
+        List<Page> dirtied = new ArrayList<>();
+        dirtied.add(page);
+        int next = 0;
+        for (; next < tuples.size() && to < src; to = fsm.nextFree(to + 1)) {
+            HeapPageId targetId = new HeapPageId(getId(), to);
+            Page target = bp.getPage(tid, targetId, Permissions.READ_WRITE);
+            int filled = fillPage(target, tuples, next);
+            fsm.setFree(to, hasRoom(target));
+            if (filled == next) {
+                // the map was out of date.
+                bp.unsafeReleasePage(tid, targetId);
+                continue;
+            }
+            widenZone(to, tuples, next, filled);
+            next = filled;
+            target.markDirty(true, tid);
+            dirtied.add(target);
+        }
+        // what found no room goes back where it was.
+        fillPage(page, tuples, next);
+        fsm.setFree(src, hasRoom(page));
+        bp.updateBufferPool(dirtied, tid);
+        return next == tuples.size();
+    }
+
+    /**
+     * Cut the empty pages at the end of the file off, keeping at least one
+     * page, if vacuum may.
+     *
+     * @return the number of pages cut.
+     */
+    private int cutEmptyPages(FreeSpaceMap fsm) throws DbException, IOException {
+        BufferPool bp = Database.getBufferPool();
+        if (compressed != null || mapped || bp.isStealMode() || bp.getVersionStore().hasSnapshots()) {
+            return 0;
+        }
+        Transaction t = new Transaction();
+        t.start();
+        int pages = knownPages();
+        int keep = pages;
+        boolean committed = false;
+        try {
+            // lock the empty pages, so that nobody is reading or filling them.
+            while (keep > 1) {
+                Page page = bp.getPage(t.getId(), new HeapPageId(getId(), keep - 1), Permissions.READ_WRITE);
+                if (pageTuples(page, null).hasNext()) {
+                    break;
+                }
+                keep--;
+            }
+            int pageSize = BufferPool.getPageSize();
+            synchronized (handle) {
+                // pages appended meanwhile keep the end of the file in place.
+                if (keep < pages && handle.size() == (long) pages * pageSize) {
+                    for (int i = keep; i < pages; i++) {
+                        bp.removePage(new HeapPageId(getId(), i));
+                    }
+                    handle.truncate((long) keep * pageSize);
+                    fsm.truncate(keep);
+                    ZoneMap zm = zones;
+                    if (zm != null) {
+                        zm.truncate(keep);
+                    }
+                } else {
+                    keep = pages;
+                }
+            }
+            t.commit();
+            committed = true;
+        } catch (TransactionAbortedException e) {
+            return 0;
+        } finally {
+            if (!committed) {
+                t.abort();
+            }
+        }
+        return pages - keep;
+    }
+
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // TODO: some code goes here
-        return new HeapFileIterator(this, tid);
+        return new HeapFileIterator(this, tid, null, null);
+    }
+
+    /**
+     * Only the given fields are decoded; the others are left null.
+     */
+    @Override
+    public DbFileIterator iterator(TransactionId tid, int[] columns) {
+        return new HeapFileIterator(this, tid, columns, null);
+    }
+
+    /**
+     * Pages whose zone shows that no tuple on them passes the predicates are
+     * not read. A page read with no uncommitted changes has its zone learned
+     * on the way, so that later scans can pass over it.
+     */
+    @Override
+    public DbFileIterator iterator(TransactionId tid, int[] columns, List<Predicate> predicates) {
+        return new HeapFileIterator(this, tid, columns, predicates);
     }
 
 
@@ -212,31 +772,100 @@ public class HeapFile implements DbFile {
 
         private final HeapFile heapFile;
         private final TransactionId tid;
+        private final int[] columns;
+        // null or empty to read every page.
+        private final List<Predicate> predicates;
+        // the zone map while the scan may pass over pages, else null.
+        private ZoneMap zones;
 
         private Iterator<Tuple> it;
 
         private int whichPage;
-        public HeapFileIterator(HeapFile heapFile, TransactionId tid) {
+
+        // the page being iterated over, pinned so that it stays in the pool.
+        private PageId pinned;
+
+        // the last page read, to tell a sequential run from a jump.
+        private int lastPage;
+        // pages up to this one have been handed to the read-ahead.
+        private int readAheadTo;
+        // tables larger than a quarter of the pool are read as use-once so
+        // that scanning them does not evict everybody else's pages.
+        private boolean useOnce;
+
+        public HeapFileIterator(HeapFile heapFile, TransactionId tid, int[] columns, List<Predicate> predicates) {
             this.heapFile = heapFile;
             this.tid = tid;
+            this.columns = columns;
+            this.predicates = predicates;
         }
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
             whichPage = 0;
+            lastPage = -2;
+            readAheadTo = -1;
+            useOnce = heapFile.numPages() > Database.getBufferPool().getNumPages() / 4;
+            // a snapshot may read older versions of pages than their zones cover.
+            boolean snapshot = Database.getBufferPool().getVersionStore().isSnapshot(tid);
+            zones = predicates == null || predicates.isEmpty() || snapshot ? null : heapFile.zones;
             it = getPageTuples(whichPage);
         }
 
         private Iterator<Tuple> getPageTuples(int pageNum) throws TransactionAbortedException, DbException {
-            if(pageNum>=0 && pageNum < heapFile.numPages()) {
+            if(pageNum>=0 && pageNum < heapFile.knownPages()) {
+                if (zones != null && !zones.mayMatch(pageNum, predicates)) {
+                    return Collections.emptyIterator();
+                }
+                readAhead(pageNum);
                 HeapPageId pid = new HeapPageId(heapFile.getId(), pageNum);
-                HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
-                return page.iterator();
+                unpin();
+                Page page;
+                try {
+                    page = Database.getBufferPool().pinPage(tid, pid, Permissions.READ_ONLY, useOnce);
+                } catch (IllegalArgumentException e) {
+                    if (pageNum < heapFile.knownPages()) {
+                        throw e;
+                    }
+                    // cut off by a vacuum, with nothing on it.
+                    return Collections.emptyIterator();
+                }
+                pinned = pid;
+                if (zones != null && !zones.isKnown(pageNum) && page.isDirty() == null) {
+                    // under the shared lock nobody else can be changing the page.
+                    zones.learn(pageNum, heapFile.pageTuples(page, zones.getFields()));
+                }
+                return heapFile.pageTuples(page, columns);
             }else{
                 throw new DbException(String.format("heapfile %d does not contain page %d.", pageNum, heapFile.getId()));
             }
         }
 
+        /**
+         * Once the scan has read two pages in a row, keep the read-ahead
+         * window filled: refill it whenever less than half of it is left.
+         */
+        private void readAhead(int pageNum) {
+            boolean sequential = pageNum == lastPage + 1;
+            lastPage = pageNum;
+            if (!sequential) {
+                readAheadTo = pageNum;
+                return;
+            }
+            ReadAhead readAhead = Database.getBufferPool().getReadAhead();
+            int window = readAhead.effectiveWindow();
+            if (window == 0 || readAheadTo - pageNum > window / 2) {
+                return;
+            }
+            int last = Math.min(heapFile.knownPages() - 1, pageNum + window);
+            for (int i = Math.max(readAheadTo, pageNum) + 1; i <= last; i++) {
+                if (zones == null || zones.mayMatch(i, predicates)) {
+                    readAhead.prefetch(new HeapPageId(heapFile.getId(), i));
+                }
+            }
+            readAheadTo = Math.max(readAheadTo, last);
+        }
+
         @Override
         public boolean hasNext() throws DbException, TransactionAbortedException {
             if(it==null){
@@ -246,7 +875,7 @@ public class HeapFile implements DbFile {
             // maybe have more than one page in the DbFile.
             if(!it.hasNext()) {
                 // if whichPage => maxPage, do not need decrement.
-                while(whichPage < (heapFile.numPages() - 1)) {
+                while(whichPage < (heapFile.knownPages() - 1)) {
                     whichPage ++;
                     it = getPageTuples(whichPage);
                     if(it.hasNext()) {
@@ -278,6 +907,14 @@ public class HeapFile implements DbFile {
         @Override
         public void close() {
             it = null;
+            unpin();
+        }
+
+        private void unpin() {
+            if (pinned != null) {
+                Database.getBufferPool().unpinPage(tid, pinned);
+                pinned = null;
+            }
         }
     }
 }
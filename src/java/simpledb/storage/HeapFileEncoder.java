@@ -4,8 +4,18 @@ import simpledb.common.Type;
 import simpledb.common.Utility;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -13,10 +23,20 @@ import java.util.List;
  * pages of binary data in the appropriate format for simpledb heap pages
  * Pages are padded out to a specified length, and written consecutive in a
  * data file.
+ * <p>
+ * Input is read in large blocks of whole lines and encoded straight into
+ * page buffers that are written out many pages at a time, so converting a
+ * file takes the same memory however large it is. The parallel mode encodes
+ * the blocks on several threads and writes their pages in input order.
  */
 
 public class HeapFileEncoder {
 
+    // bytes of input read at a time; a block is cut at its last line end.
+    static final int CHUNK_BYTES = 1 << 20;
+    // pages written at a time
+    private static final int WRITE_PAGES = 256;
+
     /**
      * Convert the specified tuple list (with only integer fields) into a binary
      * page file. <br>
@@ -29,31 +49,28 @@ public class HeapFileEncoder {
      * @param outFile    The output file to write data to
      * @param npagebytes The number of bytes per page in the output file
      * @param numFields  the number of fields in each input tuple
-     * @throws IOException if the temporary/output file can't be opened
+     * @throws IOException if the output file can't be opened
      * @see HeapPage
      * @see HeapFile
      */
     public static void convert(List<List<Integer>> tuples, File outFile, int npagebytes, int numFields) throws IOException {
-        File tempInput = File.createTempFile("tempTable", ".txt");
-        tempInput.deleteOnExit();
-        BufferedWriter bw = new BufferedWriter(new FileWriter(tempInput));
-        for (List<Integer> tuple : tuples) {
-            int writtenFields = 0;
-            for (Integer field : tuple) {
-                writtenFields++;
-                if (writtenFields > numFields) {
-                    throw new RuntimeException("Tuple has more than " + numFields + " fields: (" +
+        Type[] ts = new Type[numFields];
+        Arrays.fill(ts, Type.INT_TYPE);
+        try (FileChannel out = openOutput(outFile)) {
+            PageBuilder pages = new PageBuilder(ts, npagebytes, out);
+            for (List<Integer> tuple : tuples) {
+                if (tuple.size() != numFields) {
+                    throw new RuntimeException("Tuple does not have " + numFields + " fields: (" +
                             Utility.listToString(tuple) + ")");
                 }
-                bw.write(String.valueOf(field));
-                if (writtenFields < numFields) {
-                    bw.write(',');
+                int offset = pages.startRecord();
+                for (Integer field : tuple) {
+                    pages.putInt(offset, field);
+                    offset += Type.INT_TYPE.getLen();
                 }
             }
-            bw.write('\n');
+            pages.finish(true);
         }
-        bw.close();
-        convert(tempInput, outFile, npagebytes, numFields);
     }
 
     public static void convert(File inFile, File outFile, int npagebytes,
@@ -94,135 +111,386 @@ public class HeapFileEncoder {
     public static void convert(File inFile, File outFile, int npagebytes,
                                int numFields, Type[] typeAr, char fieldSeparator)
             throws IOException {
+        convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator, 1);
+    }
 
-        int nrecbytes = 0;
-        for (int i = 0; i < numFields; i++) {
-            nrecbytes += typeAr[i].getLen();
+    /**
+     * Convert the specified input text file into a binary page file, as
+     * {@link #convert(File, File, int, int, Type[], char)}, encoding it on
+     * <code>threads</code> threads. With more than one thread, every block
+     * of input ends its last page early, so the file may have a few pages
+     * more than a serial conversion writes.
+     *
+     * @param threads the number of threads to encode on
+     * @throws IOException if the input/output file can't be opened or a
+     *                     malformed input line is encountered
+     */
+    public static void convert(File inFile, File outFile, int npagebytes,
+                               int numFields, Type[] typeAr, char fieldSeparator, int threads)
+            throws IOException {
+        Type[] types = Arrays.copyOf(typeAr, numFields);
+        try (InputStream in = new FileInputStream(inFile);
+             FileChannel out = openOutput(outFile)) {
+            LineChunks chunks = new LineChunks(in);
+            if (threads <= 1) {
+                PageBuilder pages = new PageBuilder(types, npagebytes, out);
+                int end;
+                while ((end = chunks.next(true)) >= 0) {
+                    parseLines(chunks.chunk(), end, types, fieldSeparator, pages);
+                }
+                pages.finish(true);
+            } else {
+                convertParallel(chunks, out, npagebytes, types, fieldSeparator, threads);
+            }
         }
-        int nrecords = (npagebytes * 8) / (nrecbytes * 8 + 1);  //floor comes for free
+    }
 
-        //  per record, we need one bit; there are nrecords per page, so we need
-        // nrecords bits, i.e., ((nrecords/32)+1) integers.
-        int nheaderbytes = (nrecords / 8);
-        if (nheaderbytes * 8 < nrecords)
-            nheaderbytes++;  //ceiling
-        int nheaderbits = nheaderbytes * 8;
+    private static FileChannel openOutput(File outFile) throws IOException {
+        return FileChannel.open(outFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
 
-        BufferedReader br = new BufferedReader(new FileReader(inFile));
-        FileOutputStream os = new FileOutputStream(outFile);
+    private static void convertParallel(LineChunks chunks, FileChannel out, int npagebytes,
+                                        Type[] types, char fieldSeparator, int threads)
+            throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        // blocks being encoded, in input order; bounded so that memory is too.
+        Deque<Future<List<ByteBuffer>>> encoding = new ArrayDeque<>();
+        boolean written = false;
+        try {
+            int end;
+            while ((end = chunks.next(false)) >= 0) {
+                byte[] chunk = chunks.chunk();
+                int length = end;
+                encoding.add(pool.submit(() -> {
+                    PageBuilder pages = new PageBuilder(types, npagebytes, null);
+                    parseLines(chunk, length, types, fieldSeparator, pages);
+                    pages.finish(false);
+                    return pages.written;
+                }));
+                if (encoding.size() >= threads * 2) {
+                    written |= writeAll(out, encoding.removeFirst());
+                }
+            }
+            while (!encoding.isEmpty()) {
+                written |= writeAll(out, encoding.removeFirst());
+            }
+            if (!written) {
+                // an empty table still has one page
+                new PageBuilder(types, npagebytes, out).finish(true);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
 
-        // our numbers probably won't be much larger than 1024 digits
-        char[] buf = new char[1024];
+    /**
+     * Write the pages of an encoded block.
+     *
+     * @return true if there were any.
+     */
+    private static boolean writeAll(FileChannel out, Future<List<ByteBuffer>> block) throws IOException {
+        List<ByteBuffer> buffers;
+        try {
+            buffers = block.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while converting");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+        for (ByteBuffer buffer : buffers) {
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        }
+        return !buffers.isEmpty();
+    }
 
-        int curpos = 0;
-        int recordcount = 0;
-        int npages = 0;
-        int fieldNo = 0;
+    /**
+     * Encode the lines in <code>chunk[0, end)</code> into pages.
+     */
+    private static void parseLines(byte[] chunk, int end, Type[] types, char fieldSeparator,
+                                   PageBuilder pages) throws IOException {
+        int pos = 0;
+        while (pos < end) {
+            int eol = indexOf(chunk, (byte) '\n', pos, end);
+            int lineEnd = eol;
+            // Ignore Windows/Notepad special line endings
+            if (lineEnd > pos && chunk[lineEnd - 1] == '\r') {
+                lineEnd--;
+            }
+            if (lineEnd > pos) {
+                parseLine(chunk, pos, lineEnd, types, fieldSeparator, pages);
+            }
+            pos = eol + 1;
+        }
+    }
 
-        ByteArrayOutputStream headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-        DataOutputStream headerStream = new DataOutputStream(headerBAOS);
-        ByteArrayOutputStream pageBAOS = new ByteArrayOutputStream(npagebytes);
-        DataOutputStream pageStream = new DataOutputStream(pageBAOS);
+    private static void parseLine(byte[] line, int from, int to, Type[] types, char fieldSeparator,
+                                  PageBuilder pages) throws IOException {
+        int offset = pages.startRecord();
+        int start = from;
+        for (int i = 0; i < types.length; i++) {
+            int sep = indexOf(line, (byte) fieldSeparator, start, to);
+            if ((sep < to) != (i < types.length - 1)) {
+                throw new IOException("BAD LINE : " + new String(line, from, to - from)
+                        + " (expected " + types.length + " fields)");
+            }
+            if (types[i] == Type.INT_TYPE) {
+                int value = 0;
+                try {
+                    value = parseInt(line, start, sep);
+                } catch (NumberFormatException e) {
+                    System.out.println("BAD LINE : " + new String(line, start, sep - start));
+                }
+                pages.putInt(offset, value);
+            } else if (types[i] == Type.STRING_TYPE) {
+                int s = start;
+                int e = sep;
+                while (s < e && (line[s] & 0xFF) <= ' ') {
+                    s++;
+                }
+                while (e > s && (line[e - 1] & 0xFF) <= ' ') {
+                    e--;
+                }
+                int length = Math.min(e - s, Type.STRING_LEN);
+                pages.putInt(offset, length);
+                pages.putBytes(offset + 4, line, s, length);
+            }
+            offset += types[i].getLen();
+            start = sep + 1;
+        }
+    }
 
-        boolean done = false;
-        boolean first = true;
-        while (!done) {
-            int c = br.read();
+    private static int indexOf(byte[] bytes, byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        return to;
+    }
 
-            // Ignore Windows/Notepad special line endings
-            if (c == '\r')
-                continue;
-
-            if (c == '\n') {
-                if (first)
-                    continue;
-                recordcount++;
-                first = true;
-            } else
-                first = false;
-            if (c == fieldSeparator || c == '\n' || c == '\r') {
-                String s = new String(buf, 0, curpos);
-                if (typeAr[fieldNo] == Type.INT_TYPE) {
-                    try {
-                        pageStream.writeInt(Integer.parseInt(s.trim()));
-                    } catch (NumberFormatException e) {
-                        System.out.println("BAD LINE : " + s);
-                    }
-                } else if (typeAr[fieldNo] == Type.STRING_TYPE) {
-                    s = s.trim();
-                    int overflow = Type.STRING_LEN - s.length();
-                    if (overflow < 0) {
-                        s = s.substring(0, Type.STRING_LEN);
-                    }
-                    pageStream.writeInt(s.length());
-                    pageStream.writeBytes(s);
-                    while (overflow-- > 0)
-                        pageStream.write((byte) 0);
-                }
-                curpos = 0;
-                if (c == '\n')
-                    fieldNo = 0;
-                else
-                    fieldNo++;
+    /**
+     * Parse a decimal int, ignoring surrounding white space.
+     */
+    static int parseInt(byte[] bytes, int from, int to) throws NumberFormatException {
+        while (from < to && (bytes[from] & 0xFF) <= ' ') {
+            from++;
+        }
+        while (to > from && (bytes[to - 1] & 0xFF) <= ' ') {
+            to--;
+        }
+        boolean negative = false;
+        int i = from;
+        if (i < to && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+        if (i == to) {
+            throw new NumberFormatException(new String(bytes, from, to - from));
+        }
+        long value = 0;
+        for (; i < to; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9 || value > Integer.MAX_VALUE + 1L) {
+                throw new NumberFormatException(new String(bytes, from, to - from));
+            }
+            value = value * 10 + digit;
+        }
+        value = negative ? -value : value;
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new NumberFormatException(new String(bytes, from, to - from));
+        }
+        return (int) value;
+    }
+
+    /**
+     * Reads input in blocks of whole lines.
+     */
+    static final class LineChunks {
+        private final InputStream in;
+        private final int chunkBytes;
+        private byte[] chunk;
+        // the start of a line read past the end of the last block
+        private byte[] carry = new byte[0];
+        private int carryLength;
+        private boolean eof;
 
-            } else if (c == -1) {
-                done = true;
+        LineChunks(InputStream in) {
+            this(in, CHUNK_BYTES);
+        }
 
-            } else {
-                buf[curpos++] = (char) c;
-                continue;
-            }
-
-            // if we wrote a full page of records, or if we're done altogether,
-            // write out the header of the page.
-            //
-            // in the header, write a 1 for bits that correspond to records we've
-            // written and 0 for empty slots.
-            //
-            // when we're done, also flush the page to disk, but only if it has
-            // records on it.  however, if this file is empty, do flush an empty
-            // page to disk.
-            if (recordcount >= nrecords
-                    || done && recordcount > 0
-                    || done && npages == 0) {
-                int i = 0;
-                byte headerbyte = 0;
-
-                for (i = 0; i < nheaderbits; i++) {
-                    if (i < recordcount)
-                        headerbyte |= (1 << (i % 8));
-
-                    if (((i + 1) % 8) == 0) {
-                        headerStream.writeByte(headerbyte);
-                        headerbyte = 0;
+        LineChunks(InputStream in, int chunkBytes) {
+            this.in = in;
+            this.chunkBytes = chunkBytes;
+        }
+
+        /**
+         * Read the next block.
+         *
+         * @param reuse true to read into the array of the last block, false
+         *              for a new array.
+         * @return the length of the block, in {@link #chunk()}; or -1 at the
+         *         end of the input.
+         */
+        int next(boolean reuse) throws IOException {
+            if (eof && carryLength == 0) {
+                return -1;
+            }
+            int size = Math.max(chunkBytes, carryLength * 2);
+            byte[] buf = reuse && chunk != null && chunk.length >= size ? chunk : new byte[size];
+            System.arraycopy(carry, 0, buf, 0, carryLength);
+            int length = carryLength;
+            int end;
+            while (true) {
+                while (!eof && length < buf.length) {
+                    int n = in.read(buf, length, buf.length - length);
+                    if (n < 0) {
+                        eof = true;
+                    } else {
+                        length += n;
                     }
                 }
+                end = length;
+                while (end > 0 && buf[end - 1] != '\n') {
+                    end--;
+                }
+                if (end > 0 || eof) {
+                    break;
+                }
+                // a line longer than the block
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+            if (end == 0) {
+                // the last line, with no line end
+                end = length;
+            }
+            carryLength = length - end;
+            if (carry.length < carryLength) {
+                carry = new byte[Math.max(carryLength, chunkBytes / 16)];
+            }
+            System.arraycopy(buf, end, carry, 0, carryLength);
+            chunk = buf;
+            return end;
+        }
 
-                if (i % 8 > 0)
-                    headerStream.writeByte(headerbyte);
+        byte[] chunk() {
+            return chunk;
+        }
+    }
 
-                // pad the rest of the page with zeroes
+    /**
+     * Lays out records on consecutive pages in a buffer of many pages, and
+     * writes the buffer out each time it fills, or keeps it when there is
+     * nowhere to write.
+     */
+    static final class PageBuilder {
+        private final int npagebytes;
+        private final int nrecbytes;
+        private final int nrecords;
+        private final int nheaderbytes;
+        private final FileChannel out;
 
-                for (i = 0; i < (npagebytes - (recordcount * nrecbytes + nheaderbytes)); i++)
-                    pageStream.writeByte(0);
+        private ByteBuffer buffer;
+        // the start of the page being filled, or -1 if there is none
+        private int pageStart = -1;
+        private int recordCount;
+        private boolean anyPage;
 
-                // write header and body to file
-                headerStream.flush();
-                headerBAOS.writeTo(os);
-                pageStream.flush();
-                pageBAOS.writeTo(os);
+        // the filled buffers, when there is no channel to write them to
+        final List<ByteBuffer> written = new ArrayList<>();
 
-                // reset header and body for next page
-                headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-                headerStream = new DataOutputStream(headerBAOS);
-                pageBAOS = new ByteArrayOutputStream(npagebytes);
-                pageStream = new DataOutputStream(pageBAOS);
+        PageBuilder(Type[] types, int npagebytes, FileChannel out) {
+            int nrecbytes = 0;
+            for (Type type : types) {
+                nrecbytes += type.getLen();
+            }
+            this.npagebytes = npagebytes;
+            this.nrecbytes = nrecbytes;
+            this.nrecords = (npagebytes * 8) / (nrecbytes * 8 + 1);  //floor comes for free
+            this.nheaderbytes = (nrecords + 7) / 8;
+            this.out = out;
+            this.buffer = ByteBuffer.allocate(npagebytes * WRITE_PAGES);
+        }
 
-                recordcount = 0;
-                npages++;
+        /**
+         * Take the next slot, on a new page if the last one is full.
+         *
+         * @return the offset of the record in the buffer.
+         */
+        int startRecord() throws IOException {
+            if (pageStart >= 0 && recordCount == nrecords) {
+                endPage();
+            }
+            if (pageStart < 0) {
+                startPage();
+            }
+            byte[] bytes = buffer.array();
+            bytes[pageStart + recordCount / 8] |= (byte) (1 << (recordCount % 8));
+            return pageStart + nheaderbytes + recordCount++ * nrecbytes;
+        }
+
+        void putInt(int offset, int value) {
+            buffer.putInt(offset, value);
+        }
+
+        void putBytes(int offset, byte[] bytes, int from, int length) {
+            System.arraycopy(bytes, from, buffer.array(), offset, length);
+        }
+
+        private void startPage() throws IOException {
+            if (buffer.remaining() < npagebytes) {
+                flush();
+            }
+            pageStart = buffer.position();
+            Arrays.fill(buffer.array(), pageStart, pageStart + npagebytes, (byte) 0);
+            recordCount = 0;
+            anyPage = true;
+        }
+
+        private void endPage() {
+            buffer.position(pageStart + npagebytes);
+            pageStart = -1;
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            if (out == null) {
+                written.add(buffer);
+                buffer = ByteBuffer.allocate(buffer.capacity());
+                return;
+            }
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        /**
+         * End the last page and write or keep what is left.
+         *
+         * @param emptyPage true to write an empty page if there were no
+         *                  records at all.
+         */
+        void finish(boolean emptyPage) throws IOException {
+            if (pageStart < 0 && !anyPage && emptyPage) {
+                startPage();
+            }
+            if (pageStart >= 0) {
+                endPage();
+            }
+            if (buffer.position() > 0) {
+                flush();
             }
         }
-        br.close();
-        os.close();
     }
 }
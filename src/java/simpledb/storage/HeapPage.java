@@ -7,31 +7,51 @@ import simpledb.common.Debug;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * The page keeps its bytes, in the on-disk format, in a ByteBuffer. Inserts
+ * and deletes update those bytes in place and tuples are only decoded when
+ * they are read, so a resident page costs a handful of objects however many
+ * tuples it holds. The before image is copied on the first change after
+ * {@link #setBeforeImage}; pages that are only read never carry a second
+ * copy.
+ * <p>
+ * A page read from disk sits on a direct buffer outside the Java heap, a
+ * frame the BufferPool takes back when the page leaves it (see FramePool);
+ * a writable direct buffer is always such a frame. A page of a mapped
+ * HeapFile sits on a read-only slice of the mapping instead. Pages built
+ * from byte arrays, before images and the copies pages get on their first
+ * change or when they leave their frame live on the heap.
  *
  * @see HeapFile
  * @see BufferPool
  */
-public class HeapPage implements Page {
+public class HeapPage implements Page, FramePool.FramedPage {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte[] header;
-    final Tuple[] tuples;
     final int numSlots;
+    final int headerSize;
+    final int tupleSize;
+    // where each field starts within a tuple
+    final int[] fieldStarts;
+
+    // the header bits followed by the tuple slots, as on disk.
+    private volatile ByteBuffer data;
 
     boolean isDirty;
 
     TransactionId tid;
 
+    // the page as of the last setBeforeImage, or null if it has not changed since.
     byte[] oldData;
-    private final Byte oldDataLock = (byte) 0;
+    private final Object oldDataLock = new Object();
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -51,28 +71,69 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, copyToFrame(data));
+    }
+
+    /**
+     * Create a HeapPage over a page read straight into a buffer. The page
+     * takes ownership of <code>frame</code>, which must be exactly
+     * BufferPool.getPageSize() bytes long. A read-only frame, such as a slice
+     * of a mapped file, is copied before the page first changes.
+     */
+    HeapPage(HeapPageId id, ByteBuffer frame) {
+        if (frame.capacity() != BufferPool.getPageSize()) {
+            throw new IllegalArgumentException("page frame of " + frame.capacity() + " bytes");
+        }
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
+        this.headerSize = getHeaderSize();
+        this.tupleSize = td.getSize();
+        this.fieldStarts = new int[td.numFields()];
+        for (int j = 1; j < fieldStarts.length; j++) {
+            fieldStarts[j] = fieldStarts[j - 1] + td.getFieldType(j - 1).getLen();
+        }
         this.isDirty = false;
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.data = frame;
 
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
+        setBeforeImage();
+    }
 
-        tuples = new Tuple[numSlots];
-        try {
-            // allocate and read the actual records of this page
-            for (int i = 0; i < tuples.length; i++)
-                tuples[i] = readNextTuple(dis, i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
+    /**
+     * Give a page over a read-only frame a writable copy of it.
+     */
+    private void ensureWritable() {
+        if (data.isReadOnly()) {
+            data = copyOf(data);
         }
-        dis.close();
+    }
 
-        setBeforeImage();
+    public ByteBuffer leaveFrame() {
+        synchronized (oldDataLock) {
+            // under the lock, so that a before image is not taken half way.
+            ByteBuffer frame = data;
+            if (!frame.isDirect() || frame.isReadOnly()) {
+                return null;
+            }
+            data = copyOf(frame);
+            return frame;
+        }
+    }
+
+    /**
+     * @return a heap buffer with the same bytes as a whole page buffer.
+     */
+    static ByteBuffer copyOf(ByteBuffer page) {
+        ByteBuffer copy = ByteBuffer.allocate(page.capacity());
+        copy.put(page.duplicate().clear());
+        return copy.clear();
+    }
+
+    private static ByteBuffer copyToFrame(byte[] bytes) {
+        ByteBuffer frame = ByteBuffer.allocate(BufferPool.getPageSize());
+        frame.put(bytes, 0, Math.min(bytes.length, frame.capacity()));
+        frame.clear();
+        return frame;
     }
 
     /**
@@ -82,8 +143,34 @@ public class HeapPage implements Page {
      */
     private int getNumTuples() {
         // TODO: some code goes here
+        return numSlots(td);
+
+    }
+
+    /**
+     * @return the number of tuple slots on a page of a table with the given
+     * TupleDesc.
+     */
+    static int numSlots(TupleDesc td) {
         return (int) Math.floor( (BufferPool.getPageSize()*8*1.0) / (td.getSize()*8*1.0+1.0) );
+    }
 
+    /**
+     * @return true if one of the first <code>numSlots</code> slots is free
+     * according to the page header <code>header</code>.
+     */
+    static boolean hasEmptySlot(byte[] header, int numSlots) {
+        for (int i = 0; i < numSlots / 8; i++) {
+            if (header[i] != (byte) 0xFF) {
+                return true;
+            }
+        }
+        for (int i = numSlots / 8 * 8; i < numSlots; i++) {
+            if (((header[i / 8] >> (i % 8)) & 1) == 0) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -102,23 +189,38 @@ public class HeapPage implements Page {
      * -- used by recovery
      */
     public HeapPage getBeforeImage() {
-        try {
-            byte[] oldDataRef = null;
-            synchronized (oldDataLock) {
-                oldDataRef = oldData;
+        synchronized (oldDataLock) {
+            // copied under the lock: a writer saves the before image
+            // under it before changing the page.
+            if (oldData != null) {
+                return newImage(copyToFrame(oldData));
             }
-            return new HeapPage(pid, oldDataRef);
-        } catch (IOException e) {
-            e.printStackTrace();
-            //should never happen -- we parsed it OK before!
-            System.exit(1);
+            return newImage(copyOf(data));
         }
-        return null;
+    }
+
+    /**
+     * @return a page of the same kind as this one over <code>frame</code>.
+     */
+    HeapPage newImage(ByteBuffer frame) {
+        return new HeapPage(pid, frame);
     }
 
     public void setBeforeImage() {
         synchronized (oldDataLock) {
-            oldData = getPageData().clone();
+            oldData = null;
+        }
+    }
+
+    /**
+     * Keep the current bytes as the before image if this is the first change
+     * since setBeforeImage.
+     */
+    private void preserveBeforeImage() {
+        synchronized (oldDataLock) {
+            if (oldData == null) {
+                oldData = getPageData();
+            }
         }
     }
 
@@ -131,30 +233,22 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Decode the given fields of the tuple in a used slot, or all of them if
+     * <code>columns</code> is null; the others are left null.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i = 0; i < td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
-
-        // read fields in the tuple
+    private Tuple readTuple(int slotId, int[] columns) throws NoSuchElementException {
         Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
+        t.setRecordId(new RecordId(pid, slotId));
+        ByteBuffer buf = data;
         try {
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+            if (columns == null) {
+                for (int j = 0; j < td.numFields(); j++) {
+                    t.setField(j, td.getFieldType(j).parse(buf, fieldOffset(slotId, j)));
+                }
+            } else {
+                for (int j : columns) {
+                    t.setField(j, td.getFieldType(j).parse(buf, fieldOffset(slotId, j)));
+                }
             }
         } catch (java.text.ParseException e) {
             e.printStackTrace();
@@ -164,6 +258,15 @@ public class HeapPage implements Page {
         return t;
     }
 
+    /**
+     * @return where field <code>field</code> of the tuple in slot
+     * <code>slotId</code> starts on the page. The fields of a tuple lie
+     * together, one tuple after another.
+     */
+    int fieldOffset(int slotId, int field) {
+        return headerSize + slotId * tupleSize + fieldStarts[field];
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -176,64 +279,18 @@ public class HeapPage implements Page {
      * @see #HeapPage
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i = 0; i < tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j = 0; j < td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        byte[] bytes = new byte[BufferPool.getPageSize()];
+        data.duplicate().clear().get(bytes);
+        return bytes;
+    }
 
-        return baos.toByteArray();
+    /**
+     * A read-only view of the page's own bytes; flushing or logging the page
+     * through it copies nothing.
+     */
+    @Override
+    public ByteBuffer getPageBuffer() {
+        return data.asReadOnlyBuffer().clear();
     }
 
     /**
@@ -261,19 +318,27 @@ public class HeapPage implements Page {
     public void deleteTuple(Tuple t) throws DbException {
         // TODO: some code goes here
         // not necessary for lab1
-        int tupleId = t.getRecordId().getTupleNumber();
-        if (tuples[tupleId]==null || !t.getTupleDesc().equals(td)||!t.getRecordId().getPageId().equals(pid)) {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !t.getTupleDesc().equals(td)||!rid.getPageId().equals(pid)) {
             throw new DbException("No such tuple in the tuples.");
         }
 
-
-        if(!isSlotUsed(tupleId)) {
+        int tupleId = rid.getTupleNumber();
+        if(tupleId < 0 || tupleId >= numSlots || !isSlotUsed(tupleId)) {
             throw new DbException("The tuple not exists.");
         }
 
+        preserveBeforeImage();
+        ensureWritable();
         markSlotUsed(tupleId, false);
 
-        tuples[tupleId] = null;
+        // empty slots are all zeroes on disk
+        for (int j = 0; j < td.numFields(); j++) {
+            int offset = fieldOffset(tupleId, j);
+            for (int i = 0; i < td.getFieldType(j).getLen(); i++) {
+                data.put(offset + i, (byte) 0);
+            }
+        }
     }
 
     /**
@@ -287,23 +352,44 @@ public class HeapPage implements Page {
     public void insertTuple(Tuple t) throws DbException {
         // TODO: some code goes here
         // not necessary for lab1
-        if (getNumEmptySlots()==0){
-            throw new DbException("the page have not empty slot.");
-        }
-
-
         if(!t.getTupleDesc().equals(td)) {
             throw new DbException("the tupleDesc of this tuple invalid.");
         }
 
+        int i = firstEmptySlot();
+        if (i < 0) {
+            throw new DbException("the page have not empty slot.");
+        }
+        preserveBeforeImage();
+        ensureWritable();
+        writeTuple(i, t);
+        markSlotUsed(i, true);
+        t.setRecordId(new RecordId(pid, i));
+    }
 
-        for(int i=0;i<numSlots;i++){
-            if(!isSlotUsed(i)){
-                markSlotUsed(i, true);
-                t.setRecordId(new RecordId(pid, i));
-                tuples[i] = t;
-                return;
+    /**
+     * @return the first slot not in use, or -1 if the page is full.
+     */
+    private int firstEmptySlot() {
+        ByteBuffer buf = data;
+        for (int b = 0; b < headerSize; b++) {
+            int bits = buf.get(b) & 0xFF;
+            if (bits == 0xFF) {
+                // eight slots in use
+                continue;
             }
+            int i = b * 8 + Integer.numberOfTrailingZeros(~bits);
+            return i < numSlots ? i : -1;
+        }
+        return -1;
+    }
+
+    /**
+     * Encode the fields of t into a slot.
+     */
+    private void writeTuple(int slotId, Tuple t) {
+        for (int j = 0; j < td.numFields(); j++) {
+            t.getField(j).serialize(data, fieldOffset(slotId, j));
         }
     }
 
@@ -361,7 +447,7 @@ public class HeapPage implements Page {
         int cnt = i / 8;
         int more = i % 8;
 
-        int bitIdx = header[cnt];
+        int bitIdx = data.get(cnt);
         int nowBit = (bitIdx>>more)&1;
         return nowBit == 1;
     }
@@ -374,15 +460,15 @@ public class HeapPage implements Page {
         // not necessary for lab1
         int cnt=i/8;
         int more=i%8;
-        int bitIdx = header[cnt];
+        int bitIdx = data.get(cnt);
         int nowBit = (bitIdx>>more)&1;
         // 0->1
         if(nowBit==0&&value){
-            header[cnt]+=(1<<more);
+            data.put(cnt, (byte) (bitIdx | (1<<more)));
         }
         // 1->0
         if(nowBit==1&&!value) {
-            header[cnt]-=(1<<more);
+            data.put(cnt, (byte) (bitIdx & ~(1<<more)));
         }
     }
 
@@ -392,15 +478,45 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // TODO: some code goes here
-        ArrayList<Tuple> filledTuples = new ArrayList<Tuple>();
-        for(int i=0;i<numSlots;i++){
-            if(isSlotUsed(i)){
-                filledTuples.add(tuples[i]);
+        return iterator(null);
+    }
+
+    /**
+     * @param columns the fields to decode, or null for all of them; the
+     *                others are left null in the tuples returned.
+     * @return an iterator over the tuples on this page, as {@link #iterator()}.
+     */
+    public Iterator<Tuple> iterator(int[] columns) {
+        // the slots in use now; tuples are decoded as the iterator reaches them
+        byte[] used = new byte[headerSize];
+        data.duplicate().clear().get(used);
+        return new Iterator<Tuple>() {
+            private int slot = nextUsed(0);
+
+            private int nextUsed(int from) {
+                for (int i = from; i < numSlots; i++) {
+                    if (((used[i / 8] >> (i % 8)) & 1) == 1) {
+                        return i;
+                    }
+                }
+                return numSlots;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return slot < numSlots;
             }
-        }
 
-        return filledTuples.iterator();
+            @Override
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = readTuple(slot, columns);
+                slot = nextUsed(slot + 1);
+                return t;
+            }
+        };
     }
 
 }
-
@@ -0,0 +1,732 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LockManager keeps the locks held by transactions on pages and tables.
+ * <p>
+ * Locks are hierarchical. Before a transaction locks a page it takes an
+ * intention lock on the page's table (INTENTION_SHARE for a shared page lock,
+ * INTENTION_EXCLUSIVE for an exclusive one); a transaction holding a SHARE or
+ * EXCLUSIVE table lock needs no page locks on that table for what the table
+ * lock covers. Once a transaction holds more than
+ * {@link #getEscalationThreshold()} page locks on one table, the page locks
+ * are escalated to a single table lock if that can be granted right away, so
+ * a large scan or bulk delete ends up with one lock instead of one per page.
+ * <p>
+ * Every locked page or table has a list of holders and a FIFO queue of
+ * waiting requests. A request that cannot be granted is queued and its thread
+ * parks on a Condition of its own; releasing a lock grants requests from the
+ * head of the queue in order (a run of compatible requests) and signals
+ * exactly those threads. A new request never barges past queued ones, except
+ * that a holder upgrading its lock is queued ahead of requests from
+ * transactions that do not hold the page or table yet.
+ * <p>
+ * Queued requests form a wait-for graph: an edge runs from a waiting
+ * transaction to every other transaction that holds a conflicting lock on the
+ * same page or table, or is queued ahead of it there. Each time a transaction
+ * blocks, the graph is searched for a cycle through it; if one is found, the
+ * youngest transaction on the cycle (the one with the largest id) is chosen
+ * as the victim and its lock request fails with a
+ * TransactionAbortedException. Transactions that are not deadlocked are never
+ * aborted, no matter how long they wait.
+ *
+ * @Threadsafe
+ */
+public class LockManager {
+
+    public static final int DEFAULT_ESCALATION_THRESHOLD = 1000;
+
+    /**
+     * The key table locks are kept under, next to the PageIds of page locks.
+     */
+    private static final class TableKey {
+        final int tableId;
+
+        TableKey(int tableId) {
+            this.tableId = tableId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof TableKey && ((TableKey) o).tableId == tableId;
+        }
+
+        @Override
+        public int hashCode() {
+            return tableId;
+        }
+
+        @Override
+        public String toString() {
+            return "table " + tableId;
+        }
+    }
+
+    /**
+     * A lock request that is waiting in the queue of a page or table.
+     */
+    private static class LockRequest {
+        final TransactionId tid;
+        final Object resource;
+        final int type;
+        final Condition cond;
+        boolean granted;
+        boolean aborted;
+
+        LockRequest(TransactionId tid, Object resource, int type, Condition cond) {
+            this.tid = tid;
+            this.resource = resource;
+            this.type = type;
+            this.cond = cond;
+        }
+    }
+
+    /**
+     * Holders and waiters of one page or table.
+     */
+    private static class LockState {
+        final Map<TransactionId, PageLock> holders = new LinkedHashMap<>();
+        final LinkedList<LockRequest> queue = new LinkedList<>();
+    }
+
+    private final ReentrantLock latch = new ReentrantLock();
+
+    // keyed by PageId or TableKey; guarded by latch
+    private final Map<Object, LockState> locks;
+
+    // the queued requests of each blocked transaction; guarded by latch
+    private final Map<TransactionId, List<LockRequest>> waiting;
+
+    // the tables each transaction holds a lock on, each with the pages of it
+    // the transaction holds a lock on; guarded by latch
+    private final Map<TransactionId, Map<Integer, Set<PageId>>> held;
+
+    private volatile int escalationThreshold = DEFAULT_ESCALATION_THRESHOLD;
+
+    private final AtomicLong deadlocks = new AtomicLong();
+    private final AtomicLong escalations = new AtomicLong();
+    private final AtomicLong lockWaits = new AtomicLong();
+    private final AtomicLong lockWaitNanos = new AtomicLong();
+
+    /**
+     * Upper bounds, in milliseconds, of the buckets of the lock wait
+     * histogram. The last bucket counts the waits longer than all of them.
+     */
+    public static final long[] WAIT_BUCKET_MILLIS = {1, 10, 100, 1000};
+
+    private final AtomicLongArray waitHistogram = new AtomicLongArray(WAIT_BUCKET_MILLIS.length + 1);
+
+    public LockManager() {
+        this.locks = new HashMap<>();
+        this.waiting = new HashMap<>();
+        this.held = new HashMap<>();
+    }
+
+    /**
+     * Acquire a lock on the page for the transaction, taking the intention
+     * lock on its table first, and parking until both can be granted.
+     *
+     * @param needLockType PageLock.SHARE or PageLock.EXCLUSIVE
+     * @throws TransactionAbortedException if the transaction was chosen as the
+     *                                     victim of a deadlock while waiting.
+     */
+    public void lock(PageId pid, TransactionId tid, int needLockType) throws TransactionAbortedException {
+        latch.lock();
+        try {
+            int tableId = pid.getTableId();
+            if (tableCovers(tid, tableId, needLockType)) {
+                return;
+            }
+            acquire(new TableKey(tableId), tid, PageLock.intentionFor(needLockType));
+            acquire(pid, tid, needLockType);
+            maybeEscalate(tid, tableId);
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /**
+     * Acquire a lock on a whole table, parking until it can be granted. Page
+     * locks the table lock covers are released.
+     *
+     * @param needLockType one of the PageLock types
+     * @throws TransactionAbortedException if the transaction was chosen as the
+     *                                     victim of a deadlock while waiting.
+     */
+    public void lockTable(int tableId, TransactionId tid, int needLockType) throws TransactionAbortedException {
+        latch.lock();
+        try {
+            acquire(new TableKey(tableId), tid, needLockType);
+            releaseCoveredPages(tid, tableId);
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /**
+     * Try to grant a lock on the page, and the intention lock on its table,
+     * without waiting.
+     *
+     * @return true if the transaction now holds the lock.
+     */
+    public boolean acquireLock(PageId pid, TransactionId tid, int needLockType) {
+        latch.lock();
+        try {
+            int tableId = pid.getTableId();
+            if (tableCovers(tid, tableId, needLockType)) {
+                return true;
+            }
+            if (!tryGrant(new TableKey(tableId), tid, PageLock.intentionFor(needLockType))) {
+                return false;
+            }
+            if (tryGrant(pid, tid, needLockType)) {
+                return true;
+            }
+            releaseIntention(tid, tableId);
+            return false;
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /**
+     * Release the lock on a page, and the intention lock on its table if the
+     * transaction now holds no other page of it.
+     */
+    public void releaseLock(TransactionId tid, PageId pid) {
+        latch.lock();
+        try {
+            LockState state = locks.get(pid);
+            if (state != null && state.holders.remove(tid) != null) {
+                Set<PageId> pages = heldPages(tid, pid.getTableId());
+                if (pages != null) {
+                    pages.remove(pid);
+                }
+                grantWaiters(pid, state);
+                releaseIntention(tid, pid.getTableId());
+            }
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /**
+     * @return true if the transaction holds a lock on the page, or a table
+     * lock that covers reading it.
+     */
+    public boolean isHoldLock(TransactionId tid, PageId pageId) {
+        latch.lock();
+        try {
+            Set<PageId> pages = heldPages(tid, pageId.getTableId());
+            return pages != null && (pages.contains(pageId) || tableCovers(tid, pageId.getTableId(), PageLock.SHARE));
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /**
+     * @return true if some transaction holds an exclusive lock on the page,
+     * or a table lock that covers one.
+     */
+    public boolean isLockedExclusive(PageId pageId) {
+        latch.lock();
+        try {
+            LockState page = locks.get(pageId);
+            if (page != null && hasHolder(page, PageLock.EXCLUSIVE)) {
+                return true;
+            }
+            LockState table = locks.get(new TableKey(pageId.getTableId()));
+            return table != null && hasHolder(table, PageLock.EXCLUSIVE);
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    private static boolean hasHolder(LockState state, int covering) {
+        for (PageLock lock : state.holders.values()) {
+            if (PageLock.covers(lock.getLockType(), covering)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Release every lock the transaction holds, its page locks before its
+     * table locks. Only the transaction's own pages and tables are visited.
+     */
+    public void completeTransaction(TransactionId tid) {
+        latch.lock();
+        try {
+            Map<Integer, Set<PageId>> tables = held.remove(tid);
+            if (tables == null) {
+                return;
+            }
+            for (Set<PageId> pages : tables.values()) {
+                for (PageId pid : pages) {
+                    release(pid, tid);
+                }
+            }
+            for (int tableId : tables.keySet()) {
+                release(new TableKey(tableId), tid);
+            }
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /**
+     * @return a snapshot of the pages the transaction holds a page lock on.
+     * Pages covered by a table lock are not included.
+     */
+    public Set<PageId> getLockedPages(TransactionId tid) {
+        latch.lock();
+        try {
+            Set<PageId> pages = new HashSet<>();
+            Map<Integer, Set<PageId>> tables = held.get(tid);
+            if (tables != null) {
+                for (Set<PageId> p : tables.values()) {
+                    pages.addAll(p);
+                }
+            }
+            return pages;
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /**
+     * @return the type of the lock the transaction holds on the table, or
+     * null if it holds none.
+     */
+    public Integer getTableLock(TransactionId tid, int tableId) {
+        latch.lock();
+        try {
+            int type = tableLockType(tid, tableId);
+            return type < 0 ? null : type;
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    public int getEscalationThreshold() {
+        return escalationThreshold;
+    }
+
+    /**
+     * Set how many page locks on one table a transaction may hold before
+     * they are escalated to a table lock.
+     */
+    public void setEscalationThreshold(int threshold) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("escalation threshold " + threshold);
+        }
+        this.escalationThreshold = threshold;
+    }
+
+    /**
+     * Acquire a lock on a page or table, parking until it can be granted.
+     * Caller holds the latch.
+     */
+    private void acquire(Object resource, TransactionId tid, int needLockType) throws TransactionAbortedException {
+        if (tryGrant(resource, tid, needLockType)) {
+            return;
+        }
+        LockRequest request = enqueue(resource, tid, needLockType);
+        // an upgrade queued at the head may be grantable straight away.
+        grantWaiters(resource, locks.get(resource));
+        if (request.granted) {
+            return;
+        }
+        TransactionId victim = detectDeadlock(tid);
+        if (tid.equals(victim)) {
+            dequeue(request);
+            throw new TransactionAbortedException();
+        }
+
+        lockWaits.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            while (!request.granted && !request.aborted) {
+                request.cond.awaitUninterruptibly();
+            }
+        } finally {
+            recordWait(System.nanoTime() - start);
+        }
+        if (request.aborted) {
+            throw new TransactionAbortedException();
+        }
+    }
+
+    /**
+     * Grant the lock right away if the transaction already holds one that
+     * covers it, or if no request is queued and the lock is compatible with
+     * the holders. Caller holds the latch.
+     */
+    private boolean tryGrant(Object resource, TransactionId tid, int needLockType) {
+        LockState state = locks.get(resource);
+        if (state == null) {
+            state = new LockState();
+            locks.put(resource, state);
+        }
+        PageLock lock = state.holders.get(tid);
+        if (lock != null && PageLock.covers(lock.getLockType(), needLockType)) {
+            return true;
+        }
+        int type = lock == null ? needLockType : PageLock.combine(lock.getLockType(), needLockType);
+        if (state.queue.isEmpty() && compatible(state, tid, type)) {
+            grant(resource, state, tid, type);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if no other transaction holds a lock on the page or table
+     *         that conflicts with the requested type.
+     */
+    private boolean compatible(LockState state, TransactionId tid, int needLockType) {
+        for (PageLock lock : state.holders.values()) {
+            if (!lock.getTid().equals(tid) && conflicts(lock.getLockType(), needLockType)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean conflicts(int a, int b) {
+        return !PageLock.compatible(a, b);
+    }
+
+    private void grant(Object resource, LockState state, TransactionId tid, int needLockType) {
+        PageLock lock = state.holders.get(tid);
+        if (lock != null) {
+            // if transaction t is the only transaction holding a shared lock on an object o,t may upgrade its lock on o to an exclusive lock.
+            lock.setLockType(PageLock.combine(lock.getLockType(), needLockType));
+            return;
+        }
+        state.holders.put(tid, new PageLock(needLockType, tid));
+        Map<Integer, Set<PageId>> tables = held.computeIfAbsent(tid, k -> new HashMap<>());
+        if (resource instanceof TableKey) {
+            tables.computeIfAbsent(((TableKey) resource).tableId, k -> new HashSet<>());
+        } else {
+            PageId pid = (PageId) resource;
+            tables.computeIfAbsent(pid.getTableId(), k -> new HashSet<>()).add(pid);
+        }
+    }
+
+    /**
+     * Drop the transaction's lock on a page or table and grant the requests
+     * waiting behind it. The caller updates <code>held</code>.
+     */
+    private void release(Object resource, TransactionId tid) {
+        LockState state = locks.get(resource);
+        if (state != null && state.holders.remove(tid) != null) {
+            grantWaiters(resource, state);
+        }
+    }
+
+    /**
+     * @return the pages of the table the transaction holds a page lock on, or
+     * null if it holds no lock on the table.
+     */
+    private Set<PageId> heldPages(TransactionId tid, int tableId) {
+        Map<Integer, Set<PageId>> tables = held.get(tid);
+        return tables == null ? null : tables.get(tableId);
+    }
+
+    /**
+     * @return the type of the transaction's lock on the table, or -1.
+     */
+    private int tableLockType(TransactionId tid, int tableId) {
+        if (heldPages(tid, tableId) == null) {
+            return -1;
+        }
+        return locks.get(new TableKey(tableId)).holders.get(tid).getLockType();
+    }
+
+    private boolean tableCovers(TransactionId tid, int tableId, int pageLockType) {
+        int type = tableLockType(tid, tableId);
+        return type >= 0 && PageLock.covers(type, pageLockType);
+    }
+
+    /**
+     * Drop the transaction's lock on the table if it is only an intention
+     * lock and no page lock of the table is left under it.
+     */
+    private void releaseIntention(TransactionId tid, int tableId) {
+        Set<PageId> pages = heldPages(tid, tableId);
+        int type = tableLockType(tid, tableId);
+        if (pages == null || !pages.isEmpty()
+                || (type != PageLock.INTENTION_SHARE && type != PageLock.INTENTION_EXCLUSIVE)) {
+            return;
+        }
+        Map<Integer, Set<PageId>> tables = held.get(tid);
+        tables.remove(tableId);
+        if (tables.isEmpty()) {
+            held.remove(tid);
+        }
+        release(new TableKey(tableId), tid);
+    }
+
+    /**
+     * Replace the transaction's page locks on the table with one table lock
+     * once there are more of them than the threshold, unless another
+     * transaction's lock or request stands in the way.
+     */
+    private void maybeEscalate(TransactionId tid, int tableId) {
+        Set<PageId> pages = heldPages(tid, tableId);
+        if (pages == null || pages.size() <= escalationThreshold) {
+            return;
+        }
+        int type = PageLock.SHARE;
+        for (PageId pid : pages) {
+            if (locks.get(pid).holders.get(tid).getLockType() == PageLock.EXCLUSIVE) {
+                type = PageLock.EXCLUSIVE;
+                break;
+            }
+        }
+        if (tryGrant(new TableKey(tableId), tid, type)) {
+            escalations.incrementAndGet();
+            releaseCoveredPages(tid, tableId);
+        }
+    }
+
+    /**
+     * Release the transaction's page locks on the table that its table lock
+     * covers.
+     */
+    private void releaseCoveredPages(TransactionId tid, int tableId) {
+        int tableType = tableLockType(tid, tableId);
+        Iterator<PageId> it = heldPages(tid, tableId).iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            LockState state = locks.get(pid);
+            if (PageLock.covers(tableType, state.holders.get(tid).getLockType())) {
+                it.remove();
+                release(pid, tid);
+            }
+        }
+    }
+
+    /**
+     * Queue a request. Upgrades go ahead of requests from transactions that
+     * do not hold the page or table, behind any upgrades already queued.
+     */
+    private LockRequest enqueue(Object resource, TransactionId tid, int needLockType) {
+        LockState state = locks.get(resource);
+        PageLock lock = state.holders.get(tid);
+        int type = lock == null ? needLockType : PageLock.combine(lock.getLockType(), needLockType);
+        LockRequest request = new LockRequest(tid, resource, type, latch.newCondition());
+        if (lock != null) {
+            int pos = 0;
+            for (LockRequest r : state.queue) {
+                if (!state.holders.containsKey(r.tid)) {
+                    break;
+                }
+                pos++;
+            }
+            state.queue.add(pos, request);
+        } else {
+            state.queue.addLast(request);
+        }
+        waiting.computeIfAbsent(tid, k -> new ArrayList<>()).add(request);
+        return request;
+    }
+
+    /**
+     * Take a request out of its queue without granting it, and let the
+     * requests behind it move up.
+     */
+    private void dequeue(LockRequest request) {
+        LockState state = locks.get(request.resource);
+        forgetWaiter(request);
+        if (state != null && state.queue.remove(request)) {
+            grantWaiters(request.resource, state);
+        }
+    }
+
+    private void forgetWaiter(LockRequest request) {
+        List<LockRequest> requests = waiting.get(request.tid);
+        if (requests != null) {
+            requests.remove(request);
+            if (requests.isEmpty()) {
+                waiting.remove(request.tid);
+            }
+        }
+    }
+
+    /**
+     * Grant queued requests from the head of the queue for as long as
+     * they are compatible with the holders, and wake their threads.
+     */
+    private void grantWaiters(Object resource, LockState state) {
+        List<TransactionId> granted = new ArrayList<>();
+        while (!state.queue.isEmpty()) {
+            LockRequest head = state.queue.getFirst();
+            if (!compatible(state, head.tid, head.type)) {
+                break;
+            }
+            state.queue.removeFirst();
+            grant(resource, state, head.tid, head.type);
+            head.granted = true;
+            forgetWaiter(head);
+            head.cond.signal();
+            granted.add(head.tid);
+        }
+        if (state.holders.isEmpty() && state.queue.isEmpty()) {
+            locks.remove(resource);
+        }
+        // a transaction that was just granted a lock while another of its
+        // requests is still queued can close a cycle for the waiters behind it.
+        for (TransactionId tid : granted) {
+            if (waiting.containsKey(tid)) {
+                detectDeadlock(tid);
+            }
+        }
+    }
+
+    /**
+     * Search the wait-for graph for a cycle through the given (waiting)
+     * transaction. If one is found, choose the youngest transaction on it as
+     * the victim; the queued requests of a victim other than <code>tid</code>
+     * are aborted and their threads woken.
+     *
+     * @return the victim, or null if <code>tid</code> is not deadlocked.
+     */
+    private TransactionId detectDeadlock(TransactionId tid) {
+        List<TransactionId> cycle = findCycle(tid, tid, new ArrayList<>(), new HashSet<>());
+        if (cycle == null) {
+            return null;
+        }
+        TransactionId victim = null;
+        for (TransactionId t : cycle) {
+            if (victim == null || t.getId() > victim.getId()) {
+                victim = t;
+            }
+        }
+        deadlocks.incrementAndGet();
+        if (!victim.equals(tid)) {
+            for (LockRequest request : new ArrayList<>(waiting.get(victim))) {
+                request.aborted = true;
+                dequeue(request);
+                request.cond.signal();
+            }
+        }
+        return victim;
+    }
+
+    /**
+     * Depth-first search for a path of wait-for edges from <code>from</code>
+     * back to <code>target</code>.
+     *
+     * @return the transactions on the cycle, or null if there is none.
+     */
+    private List<TransactionId> findCycle(TransactionId target, TransactionId from,
+                                          List<TransactionId> path, Set<TransactionId> visited) {
+        path.add(from);
+        for (TransactionId next : waitsFor(from)) {
+            if (next.equals(target)) {
+                return path;
+            }
+            if (visited.add(next)) {
+                List<TransactionId> cycle = findCycle(target, next, path, visited);
+                if (cycle != null) {
+                    return cycle;
+                }
+            }
+        }
+        path.remove(path.size() - 1);
+        return null;
+    }
+
+    /**
+     * @return the transactions that hold a lock conflicting with a request
+     *         the given transaction is waiting on, or are queued ahead of it.
+     */
+    private Set<TransactionId> waitsFor(TransactionId tid) {
+        List<LockRequest> requests = waiting.get(tid);
+        if (requests == null) {
+            return Collections.emptySet();
+        }
+        Set<TransactionId> blockers = new LinkedHashSet<>();
+        for (LockRequest request : requests) {
+            LockState state = locks.get(request.resource);
+            for (PageLock lock : state.holders.values()) {
+                if (!lock.getTid().equals(tid) && conflicts(lock.getLockType(), request.type)) {
+                    blockers.add(lock.getTid());
+                }
+            }
+            // grants are FIFO, so even a compatible request ahead of this one
+            // has to be granted first.
+            for (LockRequest ahead : state.queue) {
+                if (ahead == request) {
+                    break;
+                }
+                if (!ahead.tid.equals(tid)) {
+                    blockers.add(ahead.tid);
+                }
+            }
+        }
+        return blockers;
+    }
+
+    private void recordWait(long nanos) {
+        lockWaitNanos.addAndGet(nanos);
+        long millis = nanos / 1_000_000;
+        int bucket = 0;
+        while (bucket < WAIT_BUCKET_MILLIS.length && millis >= WAIT_BUCKET_MILLIS[bucket]) {
+            bucket++;
+        }
+        waitHistogram.incrementAndGet(bucket);
+    }
+
+    /**
+     * @return the number of deadlocks detected (and broken) so far, which is
+     * also the number of transactions aborted by the lock manager.
+     */
+    public long getDeadlockCount() {
+        return deadlocks.get();
+    }
+
+    /**
+     * @return the number of times page locks were escalated to a table lock.
+     */
+    public long getEscalationCount() {
+        return escalations.get();
+    }
+
+    /**
+     * @return the number of lock requests that had to wait.
+     */
+    public long getLockWaitCount() {
+        return lockWaits.get();
+    }
+
+    /**
+     * @return the total time, in milliseconds, transactions spent waiting for locks.
+     */
+    public long getLockWaitTimeMillis() {
+        return lockWaitNanos.get() / 1_000_000;
+    }
+
+    /**
+     * @return how many lock waits fell in each bucket of
+     * {@link #WAIT_BUCKET_MILLIS}, plus one bucket for the longer ones.
+     */
+    public long[] getLockWaitHistogram() {
+        long[] counts = new long[waitHistogram.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = waitHistogram.get(i);
+        }
+        return counts;
+    }
+}
@@ -10,7 +10,10 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
 
 /*
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -95,6 +98,16 @@ public class LogFile {
     long currentOffset = -1;//protected by this
     //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
+    long appended = 0; // records appended since the log was opened //protected by this
+
+    /**
+     * The default group commit window in microseconds, from the
+     * simpledb.groupCommitMicros system property.
+     */
+    public static final long DEFAULT_GROUP_COMMIT_MICROS =
+            Long.getLong("simpledb.groupCommitMicros", 0);
+
+    private final GroupCommit groupCommit = new GroupCommit(this, DEFAULT_GROUP_COMMIT_MICROS);
 
     final Map<Long, Long> tidToFirstLogRecord = new HashMap<>();
 
@@ -131,6 +144,7 @@ public class LogFile {
     // the log.
     void preAppend() throws IOException {
         totalRecords++;
+        appended++;
         if (recoveryUndecided) {
             recoveryUndecided = false;
             raf.seek(0);
@@ -179,20 +193,64 @@ public class LogFile {
     /**
      * Write a commit record to disk for the specified tid,
      * and force the log to disk.
+     * <p>
+     * The record is forced by group commit: the call waits, without holding
+     * the log, until a single force covers it and every commit appended
+     * during the group commit window (see {@link #setGroupCommitWindow}).
      *
      * @param tid The committing transaction.
      */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
+    public void logCommit(TransactionId tid) throws IOException {
+        long record;
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            raf.writeInt(COMMIT_RECORD);
+            raf.writeLong(tid.getId());
+            raf.writeLong(currentOffset);
+            currentOffset = raf.getFilePointer();
+            tidToFirstLogRecord.remove(tid.getId());
+            record = appended;
+        }
+        try {
+            groupCommit.commit(record).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted waiting for commit of " + tid.getId(), e);
+        } catch (ExecutionException e) {
+            throw new IOException("could not force commit of " + tid.getId(), e.getCause());
+        }
+    }
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    /**
+     * Set how long the log waits for more commits to join a force.
+     * Zero forces as soon as a commit is appended; commits appended while a
+     * force runs still share the next one.
+     *
+     * @param micros the group commit window in microseconds.
+     */
+    public void setGroupCommitWindow(long micros) {
+        groupCommit.setWindowMicros(micros);
+    }
+
+    public long getGroupCommitWindow() {
+        return groupCommit.getWindowMicros();
+    }
+
+    /**
+     * @return the number of commits made durable through group commit.
+     */
+    public long getCommitCount() {
+        return groupCommit.getCommitCount();
+    }
+
+    /**
+     * @return the number of times the log was forced to disk.
+     */
+    public long getForceCount() {
+        return groupCommit.getForceCount();
     }
 
     /**
@@ -250,9 +308,12 @@ public class LogFile {
         for (int j : pageInfo) {
             raf.writeInt(j);
         }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
+        ByteBuffer pageData = p.getPageBuffer();
+        raf.writeInt(pageData.remaining());
+        // the channel shares raf's file pointer
+        while (pageData.hasRemaining()) {
+            raf.getChannel().write(pageData);
+        }
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
@@ -275,7 +336,8 @@ public class LogFile {
             }
             pid = (PageId) idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            // the (id, bytes) constructor; pages may declare others
+            Constructor<?> pageConst = pageClass.getDeclaredConstructor(idClass, byte[].class);
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
@@ -285,10 +347,10 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page) pageConsts[0].newInstance(pageArgs);
+            newPage = (Page) pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e) {
+        } catch (ClassNotFoundException | NoSuchMethodException | InvocationTargetException | IllegalAccessException | InstantiationException e) {
             e.printStackTrace();
             throw new IOException();
         }
@@ -474,10 +536,49 @@ public class LogFile {
             synchronized (this) {
                 preAppend();
                 // TODO: some code goes here
+                Long firstLogRecord = tidToFirstLogRecord.get(tid.getId());
+                if (firstLogRecord == null) {
+                    // no BEGIN record, so nothing of tid's can be on disk
+                    return;
+                }
+
+                // the first UPDATE record of a page holds its state from
+                // before tid touched it; later ones may carry stolen data.
+                Map<PageId, Page> beforeImages = new HashMap<>();
+                raf.seek(firstLogRecord);
+                try {
+                    while (raf.getFilePointer() < currentOffset) {
+                        int type = raf.readInt();
+                        long recordTid = raf.readLong();
+                        if (type == UPDATE_RECORD) {
+                            Page before = readPageData(raf);
+                            readPageData(raf);
+                            if (recordTid == tid.getId()) {
+                                beforeImages.putIfAbsent(before.getId(), before);
+                            }
+                        } else if (type == CHECKPOINT_RECORD) {
+                            skipCheckpoint();
+                        }
+                        raf.readLong();
+                    }
+                } finally {
+                    raf.seek(currentOffset);
+                }
+
+                for (Page before : beforeImages.values()) {
+                    PageId pid = before.getId();
+                    Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(before);
+                    Database.getBufferPool().removePage(pid);
+                }
             }
         }
     }
 
+    private void skipCheckpoint() throws IOException {
+        int numXactions = raf.readInt();
+        raf.skipBytes(numXactions * 2 * LONG_SIZE);
+    }
+
     /**
      * Shutdown the logging system, writing out whatever state
      * is necessary so that start up can happen quickly (without
@@ -503,6 +604,91 @@ public class LogFile {
             synchronized (this) {
                 recoveryUndecided = false;
                 // TODO: some code goes here
+                if (raf.length() < LONG_SIZE) {
+                    raf.setLength(0);
+                    raf.writeLong(NO_CHECKPOINT_ID);
+                }
+
+                // analysis: collect the updates in log order and find out
+                // which transactions finished.
+                List<Long> updateTids = new ArrayList<>();
+                List<Page> befores = new ArrayList<>();
+                List<Page> afters = new ArrayList<>();
+                Set<Long> committed = new HashSet<>();
+                Set<Long> finished = new HashSet<>();
+                Set<Long> started = new LinkedHashSet<>();
+                long lastGood = LONG_SIZE;
+                raf.seek(LONG_SIZE);
+                try {
+                    while (raf.getFilePointer() < raf.length()) {
+                        int type = raf.readInt();
+                        long recordTid = raf.readLong();
+                        switch (type) {
+                            case UPDATE_RECORD:
+                                Page before = readPageData(raf);
+                                Page after = readPageData(raf);
+                                updateTids.add(recordTid);
+                                befores.add(before);
+                                afters.add(after);
+                                started.add(recordTid);
+                                break;
+                            case CHECKPOINT_RECORD:
+                                skipCheckpoint();
+                                break;
+                            case COMMIT_RECORD:
+                                committed.add(recordTid);
+                                finished.add(recordTid);
+                                break;
+                            case ABORT_RECORD:
+                                finished.add(recordTid);
+                                break;
+                            case BEGIN_RECORD:
+                                started.add(recordTid);
+                                break;
+                        }
+                        raf.readLong();
+                        lastGood = raf.getFilePointer();
+                    }
+                } catch (EOFException e) {
+                    // a record torn by the crash; it was never forced, so drop it
+                }
+                raf.setLength(lastGood);
+
+                // redo the committed transactions in log order, then undo the
+                // ones that never finished, newest update first.
+                Set<PageId> touched = new HashSet<>();
+                for (int i = 0; i < afters.size(); i++) {
+                    if (committed.contains(updateTids.get(i))) {
+                        Page after = afters.get(i);
+                        Database.getCatalog().getDatabaseFile(after.getId().getTableId()).writePage(after);
+                        touched.add(after.getId());
+                    }
+                }
+                for (int i = befores.size() - 1; i >= 0; i--) {
+                    if (!finished.contains(updateTids.get(i))) {
+                        Page before = befores.get(i);
+                        Database.getCatalog().getDatabaseFile(before.getId().getTableId()).writePage(before);
+                        touched.add(before.getId());
+                    }
+                }
+                for (PageId pid : touched) {
+                    Database.getBufferPool().removePage(pid);
+                }
+
+                // record the losers as aborted so a later recovery does not
+                // undo them again over newer committed updates.
+                raf.seek(lastGood);
+                currentOffset = lastGood;
+                for (Long loser : started) {
+                    if (!finished.contains(loser)) {
+                        raf.writeInt(ABORT_RECORD);
+                        raf.writeLong(loser);
+                        raf.writeLong(currentOffset);
+                        currentOffset = raf.getFilePointer();
+                    }
+                }
+                tidToFirstLogRecord.clear();
+                force();
             }
         }
     }
@@ -516,6 +702,29 @@ public class LogFile {
 
     public synchronized void force() throws IOException {
         raf.getChannel().force(true);
+        groupCommit.durable(appended);
+    }
+
+    /**
+     * Force the records appended so far without holding the log while the
+     * disk is busy, so commits can keep appending. Called by the group
+     * commit flusher.
+     *
+     * @return the number of records appended when the force began; all of
+     * them are on disk.
+     */
+    long forceAppended() throws IOException {
+        long record;
+        FileChannel channel;
+        synchronized (this) {
+            channel = raf.getChannel();
+            if (!channel.isOpen()) {
+                throw new IOException("log is closed");
+            }
+            record = appended;
+        }
+        channel.force(true);
+        return record;
     }
 
 }
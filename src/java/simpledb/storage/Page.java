@@ -2,6 +2,8 @@ package simpledb.storage;
 
 import simpledb.transaction.TransactionId;
 
+import java.nio.ByteBuffer;
+
 /**
  * Page is the interface used to represent pages that are resident in the
  * BufferPool.  Typically, DbFiles will read and write pages from disk.
@@ -48,6 +50,16 @@ public interface Page {
 
     byte[] getPageData();
 
+    /**
+     * The bytes of getPageData, as a buffer from position zero to the end of
+     * the page. Pages that keep their bytes in a buffer return a read-only
+     * view of it instead of a copy; it reflects later changes to the page,
+     * so write it out before letting go of the page.
+     */
+    default ByteBuffer getPageBuffer() {
+        return ByteBuffer.wrap(getPageData());
+    }
+
     /**
      * Provide a representation of this page before any modifications were made
      * to it.  Used by recovery.
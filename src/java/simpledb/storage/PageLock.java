@@ -0,0 +1,103 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionId;
+
+/**
+ * A lock held by one transaction on one page, or on a whole table.
+ * <p>
+ * Pages are locked SHARE or EXCLUSIVE. Tables may also be locked in the
+ * intention modes, which a transaction takes on a table before locking pages
+ * of it: INTENTION_SHARE before shared page locks, INTENTION_EXCLUSIVE before
+ * exclusive ones, and SHARE_INTENTION_EXCLUSIVE when it both reads the whole
+ * table and writes some of its pages.
+ */
+public class PageLock {
+    public static final int SHARE = 0;
+    public static final int EXCLUSIVE = 1;
+    public static final int INTENTION_SHARE = 2;
+    public static final int INTENTION_EXCLUSIVE = 3;
+    public static final int SHARE_INTENTION_EXCLUSIVE = 4;
+
+    // COMPATIBLE[a][b]: two transactions may hold a and b on the same object.
+    private static final boolean[][] COMPATIBLE = {
+            //         S      X      IS     IX     SIX
+            /* S   */ {true, false, true, false, false},
+            /* X   */ {false, false, false, false, false},
+            /* IS  */ {true, false, true, true, true},
+            /* IX  */ {false, false, true, true, false},
+            /* SIX */ {false, false, true, false, false},
+    };
+
+    // COVERS[a][b]: holding a grants everything b does.
+    private static final boolean[][] COVERS = {
+            //         S      X      IS     IX     SIX
+            /* S   */ {true, false, true, false, false},
+            /* X   */ {true, true, true, true, true},
+            /* IS  */ {false, false, true, false, false},
+            /* IX  */ {false, false, true, true, false},
+            /* SIX */ {true, false, true, true, true},
+    };
+
+    private int lockType;
+
+    private TransactionId tid;
+
+    public PageLock(int type, TransactionId tid) {
+        this.lockType = type;
+        this.tid = tid;
+    }
+
+    public int getLockType() {
+        return lockType;
+    }
+
+    public TransactionId getTid() {
+        return tid;
+    }
+
+    public void setLockType(int lockType) {
+        this.lockType = lockType;
+    }
+
+    public void setTid(TransactionId tid) {
+        this.tid = tid;
+    }
+
+    /**
+     * @return true if different transactions may hold locks of types a and b
+     * on the same page or table at the same time.
+     */
+    public static boolean compatible(int a, int b) {
+        return COMPATIBLE[a][b];
+    }
+
+    /**
+     * @return true if a lock of type a allows everything one of type b does.
+     * A table lock that covers a page lock type makes page locks of that type
+     * on the table unnecessary.
+     */
+    public static boolean covers(int a, int b) {
+        return COVERS[a][b];
+    }
+
+    /**
+     * @return the weakest lock type that covers both a and b.
+     */
+    public static int combine(int a, int b) {
+        if (covers(a, b)) {
+            return a;
+        }
+        if (covers(b, a)) {
+            return b;
+        }
+        // only SHARE and INTENTION_EXCLUSIVE are incomparable
+        return SHARE_INTENTION_EXCLUSIVE;
+    }
+
+    /**
+     * @return the table lock to take before a page lock of the given type.
+     */
+    public static int intentionFor(int pageLockType) {
+        return pageLockType == EXCLUSIVE ? INTENTION_EXCLUSIVE : INTENTION_SHARE;
+    }
+}
@@ -0,0 +1,265 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * PageTable maps PageIds to the pages resident in the BufferPool. Which page
+ * to give up when every frame is in use is left to a ReplacementPolicy.
+ * <p>
+ * Lookups go through a ConcurrentHashMap and then tell the policy about the
+ * access; with the default ClockPolicy that only sets a reference bit, so
+ * hits do not contend. Installing and removing pages are synchronized on the
+ * table.
+ * <p>
+ * Frames carry a pin count. A pinned frame is never chosen as a victim, and
+ * evict only removes a frame that is unpinned; it claims the frame by
+ * setting the count to -1, after which pin fails until the page is back.
+ *
+ * @Threadsafe
+ */
+public class PageTable {
+
+    /**
+     * A resident page and the policy's entry for it.
+     */
+    static final class Frame {
+        volatile Page page;
+        final ReplacementPolicy.Entry entry;
+        // -1 once claimed for eviction
+        final AtomicInteger pins = new AtomicInteger();
+
+        Frame(Page page, ReplacementPolicy.Entry entry) {
+            this.page = page;
+            this.entry = entry;
+        }
+    }
+
+    private final int capacity;
+
+    private final ConcurrentHashMap<PageId, Frame> frames;
+
+    private final ReplacementPolicy policy;
+
+    /**
+     * @param capacity the number of frames.
+     * @param policy   the replacement policy, sized for <code>capacity</code>.
+     */
+    public PageTable(int capacity, ReplacementPolicy policy) {
+        this.capacity = capacity;
+        this.frames = new ConcurrentHashMap<>();
+        this.policy = policy;
+    }
+
+    /**
+     * Look up a resident page and count it as an access.
+     *
+     * @return the page, or null if it is not resident.
+     */
+    public Page get(PageId pid) {
+        return get(pid, false);
+    }
+
+    /**
+     * Look up a resident page.
+     *
+     * @param useOnce true if the access should not count as reuse.
+     * @return the page, or null if it is not resident.
+     */
+    public Page get(PageId pid, boolean useOnce) {
+        Frame frame = frames.get(pid);
+        if (frame == null) {
+            return null;
+        }
+        policy.pageAccessed(frame.entry, useOnce);
+        return frame.page;
+    }
+
+    /**
+     * Look up a resident page without telling the policy.
+     */
+    public Page peek(PageId pid) {
+        Frame frame = frames.get(pid);
+        return frame == null ? null : frame.page;
+    }
+
+    public boolean contains(PageId pid) {
+        return frames.containsKey(pid);
+    }
+
+    public int size() {
+        return frames.size();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public ReplacementPolicy getPolicy() {
+        return policy;
+    }
+
+    public synchronized boolean isFull() {
+        return frames.size() >= capacity;
+    }
+
+    /**
+     * Install a page, replacing the resident version if there is one.
+     *
+     * @throws IllegalStateException if the page is not resident and every
+     *                               frame is in use.
+     */
+    public synchronized void put(Page page) {
+        put(page, false);
+    }
+
+    /**
+     * Install a page, replacing the resident version if there is one.
+     *
+     * @param useOnce true for pages nobody is expected to reuse, such as those
+     *                of a large scan or read-ahead.
+     * @throws IllegalStateException if the page is not resident and every
+     *                               frame is in use.
+     */
+    public synchronized void put(Page page, boolean useOnce) {
+        PageId pid = page.getId();
+        Frame frame = frames.get(pid);
+        if (frame != null) {
+            frame.page = page;
+            policy.pageAccessed(frame.entry, useOnce);
+            return;
+        }
+        if (frames.size() >= capacity) {
+            throw new IllegalStateException("no free frame for page " + pid);
+        }
+        frames.put(pid, new Frame(page, policy.pageInstalled(pid, useOnce)));
+    }
+
+    /**
+     * Drop a page from the table, even if it is pinned.
+     *
+     * @return the page that was resident, or null.
+     */
+    public synchronized Page remove(PageId pid) {
+        Frame frame = frames.remove(pid);
+        if (frame == null) {
+            return null;
+        }
+        policy.pageRemoved(frame.entry);
+        return frame.page;
+    }
+
+    /**
+     * Evict a page unless it is pinned.
+     *
+     * @return the page that was resident, or null if it is pinned or not
+     * resident.
+     */
+    public synchronized Page evict(PageId pid) {
+        Frame frame = frames.get(pid);
+        if (frame == null || !frame.pins.compareAndSet(0, -1)) {
+            return null;
+        }
+        frames.remove(pid);
+        policy.pageRemoved(frame.entry);
+        return frame.page;
+    }
+
+    /**
+     * Pin a resident page so that it is not evicted until unpinned.
+     *
+     * @return false if the page is not resident or is being evicted.
+     */
+    public boolean pin(PageId pid) {
+        Frame frame = frames.get(pid);
+        if (frame == null) {
+            return false;
+        }
+        while (true) {
+            int pins = frame.pins.get();
+            if (pins < 0) {
+                return false;
+            }
+            if (frame.pins.compareAndSet(pins, pins + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Release one pin of a page.
+     */
+    public void unpin(PageId pid) {
+        Frame frame = frames.get(pid);
+        if (frame == null) {
+            return;
+        }
+        while (true) {
+            int pins = frame.pins.get();
+            if (pins <= 0 || frame.pins.compareAndSet(pins, pins - 1)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the number of pins on a resident page, 0 if it is not resident.
+     */
+    public int pinCount(PageId pid) {
+        Frame frame = frames.get(pid);
+        return frame == null ? 0 : Math.max(0, frame.pins.get());
+    }
+
+    /**
+     * Ask the policy for a victim among the unpinned pages that satisfy
+     * <code>evictable</code>.
+     *
+     * @return the PageId of the victim, or null if no page can be evicted.
+     */
+    public synchronized PageId chooseVictim(Predicate<Page> evictable) {
+        return policy.chooseVictim(pid -> {
+            Frame frame = frames.get(pid);
+            return frame != null && frame.pins.get() == 0 && evictable.test(frame.page);
+        });
+    }
+
+    /**
+     * @return the pages the policy would evict soon that satisfy
+     * <code>filter</code>.
+     */
+    public List<Page> coldPages(Predicate<Page> filter) {
+        List<Page> cold = new ArrayList<>();
+        for (PageId pid : policy.coldPages()) {
+            Frame frame = frames.get(pid);
+            if (frame != null && filter.test(frame.page)) {
+                cold.add(frame.page);
+            }
+        }
+        return cold;
+    }
+
+    public Set<PageId> pageIds() {
+        return frames.keySet();
+    }
+
+    /**
+     * @return a snapshot of the resident pages.
+     */
+    public Collection<Page> pages() {
+        List<Page> pages = new ArrayList<>(frames.size());
+        for (Frame frame : frames.values()) {
+            pages.add(frame.page);
+        }
+        return pages;
+    }
+
+    public synchronized void clear() {
+        frames.clear();
+        policy.clear();
+    }
+}
@@ -0,0 +1,45 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+/**
+ * PaxHeapFile is a HeapFile whose pages are PaxPages, for analytical tables
+ * that are mostly scanned for a few of their fields. A page holds the same
+ * tuples as a page of a HeapFile, grouped by field instead of by tuple, and a
+ * scan that needs only some fields (see {@link DbFile#iterator(
+ * simpledb.transaction.TransactionId, int[])}) decodes only those.
+ * Inserts, deletes, the free-space map and the storage modes work as in a
+ * HeapFile.
+ * <p>
+ * Whole pages are still read from disk; what is saved is the decoding of the
+ * other fields and the memory it touches.
+ *
+ * @see PaxPage
+ */
+public class PaxHeapFile extends HeapFile {
+
+    public PaxHeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * @param mapped true to build pages straight from mappings of the file;
+     *               see HeapFile.
+     */
+    public PaxHeapFile(File f, TupleDesc td, boolean mapped) {
+        super(f, td, mapped);
+    }
+
+    /**
+     * @param storage how the file keeps its pages; see HeapFile.
+     */
+    public PaxHeapFile(File f, TupleDesc td, Storage storage) {
+        super(f, td, storage);
+    }
+
+    @Override
+    Page newPage(HeapPageId id, ByteBuffer frame) {
+        return new PaxPage(id, frame);
+    }
+}
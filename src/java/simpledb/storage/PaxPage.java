@@ -0,0 +1,67 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * PaxPage is a HeapPage whose tuples are stored a field at a time: after the
+ * header, the page holds the first field of every slot, then the second field
+ * of every slot, and so on. It has the same slots and header as a HeapPage of
+ * the same table, so it is used and recovered the same way; only where a
+ * field of a slot lies differs.
+ * <p>
+ * A scan that needs only some fields of a table reads their values from
+ * contiguous runs of the page instead of picking them out of every tuple.
+ *
+ * @see PaxHeapFile
+ */
+public class PaxPage extends HeapPage {
+
+    // the length of each field
+    private final int[] fieldLengths;
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, byte[])
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        super(id, data);
+        this.fieldLengths = fieldLengths(td);
+    }
+
+    /**
+     * @see HeapPage#HeapPage(HeapPageId, ByteBuffer)
+     */
+    PaxPage(HeapPageId id, ByteBuffer frame) {
+        super(id, frame);
+        this.fieldLengths = fieldLengths(td);
+    }
+
+    private static int[] fieldLengths(TupleDesc td) {
+        int[] lengths = new int[td.numFields()];
+        for (int j = 0; j < lengths.length; j++) {
+            lengths[j] = td.getFieldType(j).getLen();
+        }
+        return lengths;
+    }
+
+    /**
+     * @return where field <code>field</code> of slot <code>slotId</code>
+     * starts: the values of a field lie together, one slot after another.
+     */
+    @Override
+    int fieldOffset(int slotId, int field) {
+        return headerSize + numSlots * fieldStarts[field] + slotId * fieldLengths[field];
+    }
+
+    @Override
+    HeapPage newImage(ByteBuffer frame) {
+        return new PaxPage(pid, frame);
+    }
+
+    @Override
+    public PaxPage getBeforeImage() {
+        return (PaxPage) super.getBeforeImage();
+    }
+}
@@ -0,0 +1,160 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionId;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ReadAhead loads pages into a BufferPool on a background thread before
+ * anyone asks for them. Sequential scans hand it the pages they are about to
+ * read (see HeapFile's iterator); the pages are installed as use-once, so
+ * read-ahead that turns out to be useless is among the first pages the
+ * replacement policy evicts.
+ * <p>
+ * A prefetched page is only loaded under a shared lock that is granted
+ * without waiting, and only into a free frame or in place of a clean page;
+ * read-ahead never writes to disk.
+ * <p>
+ * The statistics say how well the window is tuned: a hit is a prefetched
+ * page that was read before being evicted, a late page is one a reader had
+ * to fetch itself while its prefetch was still queued, and a wasted page
+ * was evicted without being read.
+ *
+ * @Threadsafe
+ */
+public class ReadAhead {
+
+    /**
+     * Number of pages a scan keeps in flight ahead of its position.
+     */
+    public static final int DEFAULT_WINDOW = 8;
+
+    private final BufferPool pool;
+
+    private volatile int window = DEFAULT_WINDOW;
+
+    private final ThreadPoolExecutor executor;
+
+    // the transaction the prefetcher takes its shared locks under.
+    private final TransactionId prefetchTid = new TransactionId();
+
+    // scheduled but not loaded yet
+    private final Set<PageId> inFlight = ConcurrentHashMap.newKeySet();
+    // loaded and not read yet
+    private final Set<PageId> unused = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong issued = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong late = new AtomicLong();
+    private final AtomicLong wasted = new AtomicLong();
+
+    ReadAhead(BufferPool pool) {
+        this.pool = pool;
+        // one thread that goes away when idle, so replaced pools leave nothing behind.
+        this.executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "read-ahead");
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @param window pages to read ahead of a scan; 0 turns read-ahead off.
+     */
+    public void setWindow(int window) {
+        this.window = Math.max(0, window);
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * The window actually used: at most a quarter of the pool, so that
+     * read-ahead cannot flush a small pool.
+     */
+    public int effectiveWindow() {
+        return Math.min(window, pool.getNumPages() / 4);
+    }
+
+    /**
+     * Schedule a page to be loaded, unless it is resident or already queued.
+     */
+    public void prefetch(PageId pid) {
+        if (pool.isResident(pid) || !inFlight.add(pid)) {
+            return;
+        }
+        issued.incrementAndGet();
+        executor.execute(() -> {
+            try {
+                pool.prefetchPage(pid, prefetchTid);
+            } catch (IllegalArgumentException e) {
+                // the page went away (e.g. the file shrank); nothing to load.
+            } finally {
+                inFlight.remove(pid);
+            }
+        });
+    }
+
+    // called before the page becomes visible, so a hit cannot slip past it.
+    void pageLoaded(PageId pid) {
+        unused.add(pid);
+    }
+
+    void pageHit(PageId pid) {
+        if (!unused.isEmpty() && unused.remove(pid)) {
+            hits.incrementAndGet();
+        }
+    }
+
+    void pageMiss(PageId pid) {
+        if (!inFlight.isEmpty() && inFlight.contains(pid)) {
+            late.incrementAndGet();
+        }
+    }
+
+    void pageEvicted(PageId pid) {
+        if (!unused.isEmpty() && unused.remove(pid)) {
+            wasted.incrementAndGet();
+        }
+    }
+
+    /**
+     * Wait until every scheduled page has been loaded or dropped.
+     *
+     * @return false if the timeout expired first.
+     */
+    public boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!inFlight.isEmpty()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    public long getIssuedCount() {
+        return issued.get();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getLateCount() {
+        return late.get();
+    }
+
+    public long getWastedCount() {
+        return wasted.get();
+    }
+}
@@ -0,0 +1,80 @@
+package simpledb.storage;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * A ReplacementPolicy decides which resident page a PageTable gives up when
+ * it needs a free frame. The table tells the policy about every page it
+ * installs, hands out and drops. For each resident page the policy returns
+ * an Entry that the table keeps next to the page and passes back on later
+ * calls, so a cache hit needs no second lookup.
+ * <p>
+ * Accesses can be marked "use once" (large sequential scans do this): the
+ * page is needed now but is not expected to be needed again, so it must not
+ * push pages with real reuse out of the pool.
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * The policy's state for one resident page.
+     */
+    class Entry {
+        public final PageId pid;
+
+        public Entry(PageId pid) {
+            this.pid = pid;
+        }
+    }
+
+    /**
+     * A page was installed in a free frame.
+     *
+     * @param useOnce true if nobody is expected to read the page again.
+     * @return the entry to pass back for this page.
+     */
+    Entry pageInstalled(PageId pid, boolean useOnce);
+
+    /**
+     * A resident page was handed out again.
+     *
+     * @param useOnce true if the access should not count as reuse.
+     */
+    void pageAccessed(Entry entry, boolean useOnce);
+
+    /**
+     * A page left the table, either as a victim or because it was discarded.
+     */
+    void pageRemoved(Entry entry);
+
+    /**
+     * @param evictable which pages may be given up right now.
+     * @return the page to evict, or null if no page is evictable.
+     */
+    PageId chooseVictim(Predicate<PageId> evictable);
+
+    /**
+     * @return resident pages this policy would evict soon, so a background
+     * writer can clean them before they are chosen.
+     */
+    List<PageId> coldPages();
+
+    void clear();
+
+    /**
+     * Create a policy by name: "clock" (the default) or "2q".
+     *
+     * @param capacity the number of frames of the table.
+     * @throws IllegalArgumentException if the name is not known.
+     */
+    static ReplacementPolicy create(String name, int capacity) {
+        switch (name.toLowerCase()) {
+            case "clock":
+                return new ClockPolicy(capacity);
+            case "2q":
+                return new TwoQueuePolicy(capacity);
+            default:
+                throw new IllegalArgumentException("unknown replacement policy " + name);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * SlottedHeapFile is a HeapFile whose pages are SlottedHeapPages, for tables
+ * of short strings: it stores each string in as many bytes as it has, where a
+ * HeapFile stores every string in STRING_LEN + 4 bytes. Scans, inserts,
+ * deletes and the free-space map work as in a HeapFile.
+ * <p>
+ * The free-space map counts a page as having room while it could take the
+ * largest tuple of the table, so a page may be passed over with a few bytes
+ * free that a small tuple could use.
+ *
+ * @see SlottedHeapPage
+ */
+public class SlottedHeapFile extends HeapFile {
+
+    public SlottedHeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * @param mapped true to build pages straight from mappings of the file;
+     *               see HeapFile.
+     */
+    public SlottedHeapFile(File f, TupleDesc td, boolean mapped) {
+        super(f, td, mapped);
+    }
+
+    /**
+     * @param storage how the file keeps its pages; see HeapFile.
+     */
+    public SlottedHeapFile(File f, TupleDesc td, Storage storage) {
+        super(f, td, storage);
+    }
+
+    @Override
+    Page newPage(HeapPageId id, ByteBuffer frame) {
+        return new SlottedHeapPage(id, frame);
+    }
+
+    /**
+     * Every field is decoded: the fields before a needed one have to be
+     * walked over anyway.
+     */
+    @Override
+    Iterator<Tuple> pageTuples(Page page, int[] columns) {
+        return ((SlottedHeapPage) page).iterator();
+    }
+
+    @Override
+    int spaceHeaderBytes() {
+        return SlottedHeapPage.HEADER_BYTES;
+    }
+
+    @Override
+    boolean hasRoom(byte[] header) {
+        return SlottedHeapPage.freeBytes(header, BufferPool.getPageSize())
+                >= SlottedHeapPage.roomNeeded(getTupleDesc());
+    }
+
+    @Override
+    boolean hasRoom(Page page) {
+        return ((SlottedHeapPage) page).getFreeBytes() >= SlottedHeapPage.roomNeeded(getTupleDesc());
+    }
+
+    @Override
+    void checkTuple(Tuple t) throws DbException {
+        super.checkTuple(t);
+        int room = BufferPool.getPageSize() - SlottedHeapPage.HEADER_BYTES - SlottedHeapPage.SLOT_BYTES;
+        if (SlottedHeapPage.recordSize(t) > room) {
+            throw new DbException("the tuple is larger than a page.");
+        }
+    }
+
+    @Override
+    int fillPage(Page page, List<Tuple> tuples, int from) throws DbException {
+        SlottedHeapPage slotted = (SlottedHeapPage) page;
+        int next = from;
+        while (next < tuples.size() && slotted.fits(tuples.get(next))) {
+            slotted.insertTuple(tuples.get(next++));
+        }
+        return next;
+    }
+
+    @Override
+    int pagesFor(List<Tuple> tuples, int from) {
+        long bytes = 0;
+        for (int i = from; i < tuples.size(); i++) {
+            bytes += SlottedHeapPage.recordSize(tuples.get(i)) + SlottedHeapPage.SLOT_BYTES;
+        }
+        int perPage = BufferPool.getPageSize() - SlottedHeapPage.HEADER_BYTES;
+        return (int) Math.max(1, (bytes + perPage - 1) / perPage);
+    }
+
+    @Override
+    void removeTuple(Page page, Tuple t) throws DbException {
+        ((SlottedHeapPage) page).deleteTuple(t);
+    }
+}
@@ -0,0 +1,462 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.transaction.TransactionId;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * SlottedHeapPage is a page of a SlottedHeapFile: tuples are stored as
+ * variable-length records, so a string takes a length byte and its
+ * characters instead of the STRING_LEN + 4 bytes it takes on a HeapPage.
+ * <p>
+ * The page starts with a header of three unsigned shorts: the number of
+ * slots, the offset of the record area and the number of bytes in records.
+ * The slot directory follows the header, one (offset, length) pair of
+ * unsigned shorts per slot; a slot with offset 0 is empty. Records are
+ * stored from the end of the page down towards the directory. A record is
+ * its fields in order: an int as four bytes, a string as one byte of length
+ * followed by that many characters. An all-zero page is an empty page.
+ * <p>
+ * Deleting a tuple empties its slot, which a later insert reuses; tuples keep
+ * their slot, and so their RecordId, for as long as they are on the page.
+ * When the free space is there but not in one piece, an insert first
+ * compacts the records towards the end of the page.
+ * <p>
+ * Like a HeapPage, the page keeps its bytes in a frame of the BufferPool or
+ * a heap buffer, updates them in place and copies them as the before image
+ * on its first change.
+ *
+ * @see SlottedHeapFile
+ */
+public class SlottedHeapPage implements Page, FramePool.FramedPage {
+
+    /**
+     * The bytes before the slot directory.
+     */
+    public static final int HEADER_BYTES = 6;
+
+    /**
+     * The bytes of a slot directory entry.
+     */
+    public static final int SLOT_BYTES = 4;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final int pageSize;
+
+    private volatile ByteBuffer data;
+
+    boolean isDirty;
+
+    TransactionId tid;
+
+    // the page as of the last setBeforeImage, or null if it has not changed since.
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a SlottedHeapPage from a set of bytes of data read from disk.
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) {
+        this(id, copyToFrame(data));
+    }
+
+    /**
+     * Create a SlottedHeapPage over a page read straight into a buffer; see
+     * HeapPage#HeapPage(HeapPageId, ByteBuffer).
+     */
+    SlottedHeapPage(HeapPageId id, ByteBuffer frame) {
+        if (frame.capacity() != BufferPool.getPageSize()) {
+            throw new IllegalArgumentException("page frame of " + frame.capacity() + " bytes");
+        }
+        if (frame.capacity() > 1 << 16) {
+            throw new IllegalArgumentException("slotted pages are at most 64KB, not " + frame.capacity());
+        }
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = frame.capacity();
+        this.isDirty = false;
+        this.data = frame;
+
+        setBeforeImage();
+    }
+
+    private static ByteBuffer copyToFrame(byte[] bytes) {
+        ByteBuffer frame = ByteBuffer.allocate(BufferPool.getPageSize());
+        frame.put(bytes, 0, Math.min(bytes.length, frame.capacity()));
+        frame.clear();
+        return frame;
+    }
+
+    private void ensureWritable() {
+        if (data.isReadOnly()) {
+            data = HeapPage.copyOf(data);
+        }
+    }
+
+    public ByteBuffer leaveFrame() {
+        synchronized (oldDataLock) {
+            ByteBuffer frame = data;
+            if (!frame.isDirect() || frame.isReadOnly()) {
+                return null;
+            }
+            data = HeapPage.copyOf(frame);
+            return frame;
+        }
+    }
+
+    /**
+     * @return the size of the record of a tuple.
+     */
+    public static int recordSize(Tuple t) {
+        int size = 0;
+        TupleDesc td = t.getTupleDesc();
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.STRING_TYPE) {
+                size += 1 + Math.min(((StringField) t.getField(j)).getValue().length(), Type.STRING_LEN);
+            } else {
+                size += td.getFieldType(j).getLen();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the size of the largest record of a table with the given
+     * TupleDesc.
+     */
+    public static int maxRecordSize(TupleDesc td) {
+        int size = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            size += td.getFieldType(j) == Type.STRING_TYPE ? 1 + Type.STRING_LEN : td.getFieldType(j).getLen();
+        }
+        return size;
+    }
+
+    /**
+     * @return the free bytes, including a directory entry, that a page
+     * must have to be sure to take any tuple with the given TupleDesc.
+     */
+    static int roomNeeded(TupleDesc td) {
+        return maxRecordSize(td) + SLOT_BYTES;
+    }
+
+    /**
+     * @return the free bytes of the page whose header is the first
+     * HEADER_BYTES bytes of <code>header</code>.
+     */
+    static int freeBytes(byte[] header, int pageSize) {
+        ByteBuffer buf = ByteBuffer.wrap(header);
+        int slots = buf.getShort(0) & 0xFFFF;
+        int used = buf.getShort(4) & 0xFFFF;
+        return pageSize - HEADER_BYTES - SLOT_BYTES * slots - used;
+    }
+
+    private int numSlots() {
+        return data.getShort(0) & 0xFFFF;
+    }
+
+    private int recordStart() {
+        int start = data.getShort(2) & 0xFFFF;
+        // an all-zero page has no records.
+        return start == 0 ? pageSize : start;
+    }
+
+    private int usedBytes() {
+        return data.getShort(4) & 0xFFFF;
+    }
+
+    private int slotOffset(int slot) {
+        return data.getShort(HEADER_BYTES + SLOT_BYTES * slot) & 0xFFFF;
+    }
+
+    private int slotLength(int slot) {
+        return data.getShort(HEADER_BYTES + SLOT_BYTES * slot + 2) & 0xFFFF;
+    }
+
+    private void setHeader(int slots, int recordStart, int used) {
+        data.putShort(0, (short) slots);
+        // an empty page is all zeroes
+        data.putShort(2, (short) (recordStart == pageSize ? 0 : recordStart));
+        data.putShort(4, (short) used);
+    }
+
+    private void setSlot(int slot, int offset, int length) {
+        data.putShort(HEADER_BYTES + SLOT_BYTES * slot, (short) offset);
+        data.putShort(HEADER_BYTES + SLOT_BYTES * slot + 2, (short) length);
+    }
+
+    /**
+     * @return the bytes of the page not taken by the header, the slot
+     * directory or records, whether or not they are in one piece.
+     */
+    public int getFreeBytes() {
+        return pageSize - HEADER_BYTES - SLOT_BYTES * numSlots() - usedBytes();
+    }
+
+    /**
+     * @return the number of tuples on this page.
+     */
+    public int getNumTuples() {
+        int n = 0;
+        for (int i = numSlots() - 1; i >= 0; i--) {
+            if (slotOffset(i) != 0) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @return true if the page has room for the tuple.
+     */
+    public boolean fits(Tuple t) {
+        int slot = firstEmptySlot();
+        return getFreeBytes() >= recordSize(t) + (slot == numSlots() ? SLOT_BYTES : 0);
+    }
+
+    /**
+     * @return the first empty slot, or the number of slots if none is.
+     */
+    private int firstEmptySlot() {
+        int slots = numSlots();
+        for (int i = 0; i < slots; i++) {
+            if (slotOffset(i) == 0) {
+                return i;
+            }
+        }
+        return slots;
+    }
+
+    /**
+     * Return a view of this page before it was modified
+     * -- used by recovery
+     */
+    public SlottedHeapPage getBeforeImage() {
+        synchronized (oldDataLock) {
+            if (oldData != null) {
+                return new SlottedHeapPage(pid, oldData);
+            }
+            return new SlottedHeapPage(pid, HeapPage.copyOf(data));
+        }
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = null;
+        }
+    }
+
+    private void preserveBeforeImage() {
+        synchronized (oldDataLock) {
+            if (oldData == null) {
+                oldData = getPageData();
+            }
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    public byte[] getPageData() {
+        byte[] bytes = new byte[pageSize];
+        data.duplicate().clear().get(bytes);
+        return bytes;
+    }
+
+    @Override
+    public ByteBuffer getPageBuffer() {
+        return data.asReadOnlyBuffer().clear();
+    }
+
+    /**
+     * Adds the specified tuple to the page; the tuple is updated to reflect
+     * that it is now stored on this page.
+     *
+     * @throws DbException if the page does not have room for the tuple or
+     *                     tupledesc is mismatch.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td)) {
+            throw new DbException("the tupleDesc of this tuple invalid.");
+        }
+        int size = recordSize(t);
+        int slot = firstEmptySlot();
+        int slots = Math.max(numSlots(), slot + 1);
+        if (getFreeBytes() < size + SLOT_BYTES * (slots - numSlots())) {
+            throw new DbException("the page have not enough room.");
+        }
+        preserveBeforeImage();
+        ensureWritable();
+        if (recordStart() - (HEADER_BYTES + SLOT_BYTES * slots) < size) {
+            compact();
+        }
+
+        int offset = recordStart() - size;
+        writeRecord(offset, t);
+        setSlot(slot, offset, size);
+        setHeader(slots, offset, usedBytes() + size);
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * Delete the specified tuple from the page and empty its slot.
+     *
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *                     already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !t.getTupleDesc().equals(td) || !rid.getPageId().equals(pid)) {
+            throw new DbException("No such tuple in the tuples.");
+        }
+        int slot = rid.getTupleNumber();
+        if (slot < 0 || slot >= numSlots() || slotOffset(slot) == 0) {
+            throw new DbException("The tuple not exists.");
+        }
+        preserveBeforeImage();
+        ensureWritable();
+
+        int offset = slotOffset(slot);
+        int length = slotLength(slot);
+        // free space is all zeroes, as on a new page
+        for (int i = 0; i < length; i++) {
+            data.put(offset + i, (byte) 0);
+        }
+        setSlot(slot, 0, 0);
+
+        int slots = numSlots();
+        while (slots > 0 && slotOffset(slots - 1) == 0) {
+            slots--;
+        }
+        int start = recordStart();
+        if (slots == 0) {
+            start = pageSize;
+        } else if (offset == start) {
+            start += length;
+        }
+        setHeader(slots, start, usedBytes() - length);
+    }
+
+    /**
+     * Move the records together at the end of the page, so that all the
+     * free space is between the slot directory and the records.
+     */
+    private void compact() {
+        byte[] records = new byte[pageSize];
+        int end = pageSize;
+        int slots = numSlots();
+        for (int i = 0; i < slots; i++) {
+            int offset = slotOffset(i);
+            if (offset == 0) {
+                continue;
+            }
+            int length = slotLength(i);
+            end -= length;
+            data.duplicate().position(offset).get(records, end, length);
+            setSlot(i, end, length);
+        }
+        int directoryEnd = HEADER_BYTES + SLOT_BYTES * slots;
+        ByteBuffer region = data.duplicate();
+        region.position(directoryEnd);
+        region.put(new byte[end - directoryEnd]);
+        region.put(records, end, pageSize - end);
+        setHeader(slots, end, usedBytes());
+    }
+
+    private void writeRecord(int offset, Tuple t) {
+        for (int j = 0; j < td.numFields(); j++) {
+            Field f = t.getField(j);
+            if (td.getFieldType(j) == Type.STRING_TYPE) {
+                String s = ((StringField) f).getValue();
+                int len = Math.min(s.length(), Type.STRING_LEN);
+                data.put(offset++, (byte) len);
+                for (int i = 0; i < len; i++) {
+                    data.put(offset++, (byte) s.charAt(i));
+                }
+            } else {
+                f.serialize(data, offset);
+                offset += td.getFieldType(j).getLen();
+            }
+        }
+    }
+
+    private Tuple readTuple(int slot) {
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slot));
+        ByteBuffer buf = data;
+        int offset = slotOffset(slot);
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                Type type = td.getFieldType(j);
+                if (type == Type.STRING_TYPE) {
+                    int len = buf.get(offset++) & 0xFF;
+                    byte[] bs = new byte[len];
+                    buf.duplicate().position(offset).get(bs);
+                    offset += len;
+                    t.setField(j, new StringField(new String(bs), Type.STRING_LEN));
+                } else {
+                    t.setField(j, type.parse(buf, offset));
+                    offset += type.getLen();
+                }
+            }
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+        return t;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.isDirty = dirty;
+        this.tid = tid;
+    }
+
+    public TransactionId isDirty() {
+        return !this.isDirty ? null : tid;
+    }
+
+    /**
+     * @return an iterator over the tuples on this page when it was called;
+     * tuples deleted since are skipped.
+     */
+    public Iterator<Tuple> iterator() {
+        BitSet live = new BitSet();
+        for (int i = numSlots() - 1; i >= 0; i--) {
+            if (slotOffset(i) != 0) {
+                live.set(i);
+            }
+        }
+        return new Iterator<Tuple>() {
+            private int slot = live.nextSetBit(0);
+
+            @Override
+            public boolean hasNext() {
+                while (slot >= 0 && (slot >= numSlots() || slotOffset(slot) == 0)) {
+                    slot = live.nextSetBit(slot + 1);
+                }
+                return slot >= 0;
+            }
+
+            @Override
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = readTuple(slot);
+                slot = live.nextSetBit(slot + 1);
+                return t;
+            }
+        };
+    }
+}
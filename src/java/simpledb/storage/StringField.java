@@ -5,6 +5,7 @@ import simpledb.execution.Predicate;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Instance of Field that stores a single String of a fixed length.
@@ -67,6 +68,19 @@ public class StringField implements Field {
             dos.write((byte) 0);
     }
 
+    /**
+     * Write this string into buf at offset, in the same maxSize + 4 bytes
+     * that {@link #serialize(DataOutputStream)} writes.
+     */
+    public void serialize(ByteBuffer buf, int offset) {
+        int len = Math.min(value.length(), maxSize);
+        buf.putInt(offset, len);
+        offset += 4;
+        for (int i = 0; i < maxSize; i++) {
+            buf.put(offset + i, i < len ? (byte) value.charAt(i) : 0);
+        }
+    }
+
     /**
      * Compare the specified field to the value of this Field. Return semantics
      * are as specified by Field.compare
@@ -0,0 +1,159 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * TwoQueuePolicy is the 2Q algorithm (Johnson and Shasha), which keeps a
+ * single pass over many pages from flushing the pages that are really
+ * reused.
+ * <p>
+ * A page read for the first time goes into a FIFO probation queue, A1in.
+ * Only if it is asked for again after it has left A1in (its id is still in
+ * the ghost queue A1out) is it let into the main LRU queue, Am. Repeated
+ * hits while a page sits in A1in do not count, since they are usually the
+ * same operation touching the page several times. Victims come from A1in
+ * while it holds more than a quarter of the frames, so a scan only churns
+ * A1in and the working set in Am stays resident.
+ * <p>
+ * Use-once pages are not remembered in A1out when they leave, so they can
+ * never be promoted. Every call is synchronized on the policy, including
+ * hits.
+ *
+ * @Threadsafe
+ */
+public class TwoQueuePolicy implements ReplacementPolicy {
+
+    static final class QueueEntry extends Entry {
+        boolean useOnce;
+        boolean inAm;
+
+        QueueEntry(PageId pid, boolean useOnce) {
+            super(pid);
+            this.useOnce = useOnce;
+        }
+    }
+
+    private final int capacity;
+
+    // A1in is kept small, A1out remembers about half a pool of evicted ids.
+    private final int kin;
+    private final int kout;
+
+    // entries use identity hashing, so the queues never hash a PageId.
+    // probation FIFO, oldest first
+    private final LinkedHashSet<QueueEntry> a1in;
+    // ids recently dropped from a1in
+    private final LinkedHashSet<PageId> a1out;
+    // main queue, least recently used first
+    private final LinkedHashSet<QueueEntry> am;
+
+    /**
+     * @param capacity the number of frames of the table.
+     */
+    public TwoQueuePolicy(int capacity) {
+        this.capacity = capacity;
+        this.kin = Math.max(1, capacity / 4);
+        this.kout = Math.max(1, capacity / 2);
+        this.a1in = new LinkedHashSet<>();
+        this.a1out = new LinkedHashSet<>();
+        this.am = new LinkedHashSet<>();
+    }
+
+    public synchronized Entry pageInstalled(PageId pid, boolean useOnce) {
+        if (a1in.size() + am.size() >= capacity) {
+            throw new IllegalStateException("no free frame for page " + pid);
+        }
+        QueueEntry entry = new QueueEntry(pid, useOnce);
+        if (a1out.remove(pid) && !useOnce) {
+            entry.inAm = true;
+            am.add(entry);
+        } else {
+            a1in.add(entry);
+        }
+        return entry;
+    }
+
+    public synchronized void pageAccessed(Entry e, boolean useOnce) {
+        QueueEntry entry = (QueueEntry) e;
+        if (useOnce) {
+            return;
+        }
+        if (entry.inAm) {
+            // move to the young end
+            if (am.remove(entry)) {
+                am.add(entry);
+            }
+        } else {
+            // read again for real: remember it when it leaves a1in.
+            entry.useOnce = false;
+        }
+    }
+
+    public synchronized void pageRemoved(Entry e) {
+        QueueEntry entry = (QueueEntry) e;
+        if (entry.inAm) {
+            am.remove(entry);
+            return;
+        }
+        if (a1in.remove(entry) && !entry.useOnce) {
+            a1out.add(entry.pid);
+            if (a1out.size() > kout) {
+                Iterator<PageId> oldest = a1out.iterator();
+                oldest.next();
+                oldest.remove();
+            }
+        }
+    }
+
+    public synchronized PageId chooseVictim(Predicate<PageId> evictable) {
+        PageId victim = null;
+        if (a1in.size() > kin || am.isEmpty()) {
+            victim = oldest(a1in, evictable);
+        }
+        if (victim == null) {
+            victim = oldest(am, evictable);
+        }
+        if (victim == null) {
+            victim = oldest(a1in, evictable);
+        }
+        return victim;
+    }
+
+    private static PageId oldest(Set<QueueEntry> queue, Predicate<PageId> evictable) {
+        for (QueueEntry entry : queue) {
+            if (evictable.test(entry.pid)) {
+                return entry.pid;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The pages of A1in and the least recently used quarter of Am.
+     */
+    public synchronized List<PageId> coldPages() {
+        List<PageId> cold = new ArrayList<>();
+        for (QueueEntry entry : a1in) {
+            cold.add(entry.pid);
+        }
+        int n = am.size() / 4;
+        for (QueueEntry entry : am) {
+            if (n-- <= 0) {
+                break;
+            }
+            cold.add(entry.pid);
+        }
+        return cold;
+    }
+
+    public synchronized void clear() {
+        a1in.clear();
+        a1out.clear();
+        am.clear();
+    }
+}
@@ -0,0 +1,188 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * VersionStore keeps the older committed versions of pages that snapshot
+ * transactions may still read.
+ * <p>
+ * Commits are numbered. A snapshot transaction sees the database as of the
+ * last commit before it began: it reads without locks, and every page it
+ * reads is an immutable copy of that page as committed at the time. While
+ * snapshots are running, each commit leaves the version it replaces for every
+ * page it changed, labelled with its own number; versions are dropped once no
+ * running snapshot began before they were replaced. A page that has no such
+ * version is read from its before image, which is its last committed state.
+ * <p>
+ * In STEAL mode a page may reach the disk with changes of a running
+ * transaction and leave the pool. Its committed state is then kept here
+ * until the transaction completes.
+ * <p>
+ * Writers keep using two-phase locking and are not affected by snapshots
+ * beyond the cost of copying the versions.
+ *
+ * @Threadsafe
+ */
+public class VersionStore {
+
+    /**
+     * A committed page image and the commit that replaced it.
+     */
+    private static final class Version {
+        final long until;
+        final Page image;
+
+        Version(long until, Page image) {
+            this.until = until;
+            this.image = image;
+        }
+    }
+
+    // the number of commits so far; guarded by this
+    private long clock;
+
+    // the commit number each running snapshot reads as of; updated under this
+    private final ConcurrentHashMap<TransactionId, Long> snapshots = new ConcurrentHashMap<>();
+
+    // oldest first; guarded by this
+    private final Map<PageId, Deque<Version>> versions = new HashMap<>();
+
+    // committed images of pages written out with uncommitted changes; guarded by this
+    private final Map<PageId, Page> stolen = new HashMap<>();
+
+    /**
+     * Start a snapshot for the transaction as of the last commit.
+     */
+    public synchronized void begin(TransactionId tid) {
+        snapshots.put(tid, clock);
+    }
+
+    /**
+     * End the transaction's snapshot and drop the versions nobody can read
+     * any more.
+     *
+     * @return true if the transaction was a snapshot.
+     */
+    public synchronized boolean end(TransactionId tid) {
+        if (snapshots.remove(tid) == null) {
+            return false;
+        }
+        prune();
+        return true;
+    }
+
+    /**
+     * @return true if any snapshot is running.
+     */
+    public boolean hasSnapshots() {
+        return !snapshots.isEmpty();
+    }
+
+    public boolean isSnapshot(TransactionId tid) {
+        return !snapshots.isEmpty() && snapshots.containsKey(tid);
+    }
+
+    /**
+     * Number the commit of a transaction and, for each page it changed, keep
+     * the version it replaces if a snapshot may read it. The pages' before
+     * images are then reset to their committed state. Caller holds the
+     * BufferPool's monitor.
+     *
+     * @param writeSet the pages the transaction may have changed.
+     * @param pages    the pages resident in the pool.
+     */
+    synchronized void commit(TransactionId tid, Iterable<PageId> writeSet, PageTable pages) {
+        long now = ++clock;
+        for (PageId pid : writeSet) {
+            Page before = stolen.remove(pid);
+            Page page = pages.peek(pid);
+            if (snapshots.isEmpty()) {
+                before = null;
+            } else if (before == null && page != null && tid.equals(page.isDirty())) {
+                before = page.getBeforeImage();
+            }
+            if (before != null) {
+                versions.computeIfAbsent(pid, k -> new ArrayDeque<>()).addLast(new Version(now, before));
+            }
+            if (page != null) {
+                page.setBeforeImage();
+            }
+        }
+    }
+
+    /**
+     * Forget the committed images kept for pages of an aborted transaction;
+     * rolling back has restored them.
+     */
+    synchronized void abort(Iterable<PageId> writeSet) {
+        for (PageId pid : writeSet) {
+            stolen.remove(pid);
+        }
+    }
+
+    /**
+     * Keep the committed image of a page with uncommitted changes that is
+     * about to be written out.
+     */
+    synchronized void pageStolen(Page page) {
+        stolen.putIfAbsent(page.getId(), page.getBeforeImage());
+    }
+
+    /**
+     * @param page the current version of the page, from the pool or disk.
+     * @return the version of the page the snapshot reads.
+     */
+    synchronized Page read(TransactionId tid, Page page) {
+        long start = snapshots.get(tid);
+        PageId pid = page.getId();
+        Deque<Version> chain = versions.get(pid);
+        if (chain != null) {
+            for (Version v : chain) {
+                if (v.until > start) {
+                    return v.image;
+                }
+            }
+        }
+        Page committed = stolen.get(pid);
+        return committed != null ? committed : page.getBeforeImage();
+    }
+
+    /**
+     * @return the number of old page versions kept.
+     */
+    public synchronized int getVersionCount() {
+        int n = 0;
+        for (Deque<Version> chain : versions.values()) {
+            n += chain.size();
+        }
+        return n;
+    }
+
+    private void prune() {
+        if (snapshots.isEmpty()) {
+            versions.clear();
+            return;
+        }
+        long oldest = Long.MAX_VALUE;
+        for (long start : snapshots.values()) {
+            oldest = Math.min(oldest, start);
+        }
+        Iterator<Deque<Version>> it = versions.values().iterator();
+        while (it.hasNext()) {
+            Deque<Version> chain = it.next();
+            while (!chain.isEmpty() && chain.getFirst().until <= oldest) {
+                chain.removeFirst();
+            }
+            if (chain.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+}
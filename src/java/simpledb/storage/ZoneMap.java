@@ -0,0 +1,179 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * ZoneMap keeps, for pages of a HeapFile, the smallest and largest value of
+ * each INT field on the page, so that a scan with a predicate on such a field
+ * can pass over the pages where no tuple can match.
+ * <p>
+ * A page's zone is learned from the page itself when a filtered scan reads it
+ * with no uncommitted changes. From then on it only ever widens: inserts and
+ * page writes add their values to it, while deletes leave it as it was. It
+ * may therefore be wider than the page, but never misses a value on it. Pages
+ * whose zone is not known, such as those appended since, are always read.
+ *
+ * @Threadsafe
+ */
+public class ZoneMap {
+
+    // the INT fields of the table
+    private final int[] fields;
+
+    // zones of the first known pages, fields.length entries per page; guarded by this
+    private int[] mins = new int[0];
+    private int[] maxs = new int[0];
+
+    // pages whose zone is known; guarded by this
+    private final BitSet known = new BitSet();
+
+    public ZoneMap(TupleDesc td) {
+        int n = 0;
+        int[] ints = new int[td.numFields()];
+        for (int i = 0; i < ints.length; i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                ints[n++] = i;
+            }
+        }
+        this.fields = Arrays.copyOf(ints, n);
+    }
+
+    /**
+     * @return the indexes of the fields the map summarizes.
+     */
+    public int[] getFields() {
+        return fields.clone();
+    }
+
+    /**
+     * @return true if the zone of a page is known.
+     */
+    public synchronized boolean isKnown(int pageNo) {
+        return known.get(pageNo);
+    }
+
+    /**
+     * Set the zone of a page from all the tuples on it, unless it is known
+     * already. The tuples need only have the summarized fields set.
+     */
+    public synchronized void learn(int pageNo, Iterator<Tuple> tuples) {
+        if (known.get(pageNo)) {
+            return;
+        }
+        grow(pageNo);
+        int base = pageNo * fields.length;
+        Arrays.fill(mins, base, base + fields.length, Integer.MAX_VALUE);
+        Arrays.fill(maxs, base, base + fields.length, Integer.MIN_VALUE);
+        known.set(pageNo);
+        while (tuples.hasNext()) {
+            add(base, tuples.next());
+        }
+    }
+
+    /**
+     * Add the values of tuples put on a page to its zone, if it is known.
+     */
+    public synchronized void widen(int pageNo, Iterator<Tuple> tuples) {
+        if (!known.get(pageNo)) {
+            return;
+        }
+        int base = pageNo * fields.length;
+        while (tuples.hasNext()) {
+            add(base, tuples.next());
+        }
+    }
+
+    /**
+     * Add the values of tuples <code>from</code> to <code>to</code> of a
+     * list to the zone of a page, if it is known.
+     */
+    public void widen(int pageNo, List<Tuple> tuples, int from, int to) {
+        widen(pageNo, tuples.subList(from, to).iterator());
+    }
+
+    /**
+     * @return false if no tuple on the page can pass all the predicates;
+     * true if one may, or the page's zone is not known.
+     */
+    public synchronized boolean mayMatch(int pageNo, List<Predicate> predicates) {
+        if (!known.get(pageNo)) {
+            return true;
+        }
+        int base = pageNo * fields.length;
+        for (Predicate p : predicates) {
+            int k = Arrays.binarySearch(fields, p.getField());
+            if (k < 0 || !(p.getOperand() instanceof IntField)) {
+                continue;
+            }
+            int v = ((IntField) p.getOperand()).getValue();
+            int min = mins[base + k];
+            int max = maxs[base + k];
+            if (min > max) {
+                // no tuples
+                return false;
+            }
+            if (!overlaps(p.getOp(), min, max, v)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if a value between <code>min</code> and <code>max</code>
+     * may compare to <code>v</code> as <code>op</code> asks.
+     */
+    private static boolean overlaps(Predicate.Op op, int min, int max, int v) {
+        switch (op) {
+            case EQUALS:
+                return min <= v && v <= max;
+            case GREATER_THAN:
+                return max > v;
+            case GREATER_THAN_OR_EQ:
+                return max >= v;
+            case LESS_THAN:
+                return min < v;
+            case LESS_THAN_OR_EQ:
+                return min <= v;
+            case NOT_EQUALS:
+                return min != v || max != v;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Forget the pages from <code>pages</code> on, after the file was cut
+     * short.
+     */
+    public synchronized void truncate(int pages) {
+        known.clear(pages, Math.max(pages, known.length()));
+    }
+
+    private void add(int base, Tuple t) {
+        for (int k = 0; k < fields.length; k++) {
+            Field f = t.getField(fields[k]);
+            if (f == null) {
+                continue;
+            }
+            int v = ((IntField) f).getValue();
+            mins[base + k] = Math.min(mins[base + k], v);
+            maxs[base + k] = Math.max(maxs[base + k], v);
+        }
+    }
+
+    private void grow(int pageNo) {
+        int need = (pageNo + 1) * fields.length;
+        if (need > mins.length) {
+            int size = Math.max(need, mins.length * 2);
+            mins = Arrays.copyOf(mins, size);
+            maxs = Arrays.copyOf(maxs, size);
+        }
+    }
+}
@@ -12,6 +12,7 @@ import java.io.IOException;
 public class Transaction {
     private final TransactionId tid;
     volatile boolean started = false;
+    private volatile boolean snapshot = false;
 
     public Transaction() {
         tid = new TransactionId();
@@ -29,6 +30,18 @@ public class Transaction {
         }
     }
 
+    /**
+     * Start the transaction as a read-only snapshot of the database as of
+     * the last commit. It takes no locks and writes no log records.
+     *
+     * @see simpledb.storage.BufferPool#beginSnapshot
+     */
+    public void startSnapshot() {
+        started = true;
+        snapshot = true;
+        Database.getBufferPool().beginSnapshot(tid);
+    }
+
     public TransactionId getId() {
         return tid;
     }
@@ -52,7 +65,10 @@ public class Transaction {
      */
     public void transactionComplete(boolean abort) throws IOException {
 
-        if (started) {
+        if (started && snapshot) {
+            Database.getBufferPool().transactionComplete(tid, !abort);
+            started = false;
+        } else if (started) {
             //write abort log record and rollback transaction
             if (abort) {
                 Database.getLogFile().logAbort(tid); //does rollback too
@@ -61,8 +77,9 @@ public class Transaction {
             // Release locks and flush pages if needed
             Database.getBufferPool().transactionComplete(tid, !abort); // release locks
 
-            // write commit log record
-            if (!abort) {
+            // write commit log record; in STEAL mode the pool has written
+            // it before releasing the locks.
+            if (!abort && !Database.getBufferPool().isStealMode()) {
                 Database.getLogFile().logCommit(tid);
             }
 
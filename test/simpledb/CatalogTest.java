@@ -1,7 +1,12 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
 import java.util.NoSuchElementException;
 import java.util.Random;
 
@@ -12,9 +17,13 @@ import org.junit.Before;
 import org.junit.Test;
 
 import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Catalog;
 import simpledb.common.Database;
 import simpledb.common.Utility;
 import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
+import simpledb.storage.PaxHeapFile;
+import simpledb.storage.SlottedHeapFile;
 import simpledb.storage.TupleDesc;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
@@ -97,6 +106,62 @@ public class CatalogTest extends SimpleDbTestBase {
     	assertEquals(f, Database.getCatalog().getDatabaseFile(id2));
     }
 
+    /**
+     * Tables are read through mappings when the schema asks for it
+     */
+    @Test public void loadSchemaMapped() throws Exception {
+        File dir = Files.createTempDirectory("catalog").toFile();
+        dir.deleteOnExit();
+        File schema = new File(dir, "catalog.txt");
+        schema.deleteOnExit();
+        Files.write(schema.toPath(), Arrays.asList("plain (a int pk, b int)", "mapped (a int, b string) mmap"));
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+
+        Catalog catalog = Database.getCatalog();
+        assertFalse(((HeapFile) catalog.getDatabaseFile(catalog.getTableId("plain"))).isMapped());
+        assertTrue(((HeapFile) catalog.getDatabaseFile(catalog.getTableId("mapped"))).isMapped());
+    }
+
+    @Test public void loadSchemaSlotted() throws Exception {
+        File dir = Files.createTempDirectory("catalog").toFile();
+        dir.deleteOnExit();
+        File schema = new File(dir, "catalog.txt");
+        schema.deleteOnExit();
+        Files.write(schema.toPath(), Arrays.asList("names (a int, b string) slotted",
+                "mappednames (a int, b string) slotted mmap",
+                "coldnames (a int, b string) compressed slotted"));
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+
+        Catalog catalog = Database.getCatalog();
+        DbFile names = catalog.getDatabaseFile(catalog.getTableId("names"));
+        DbFile mapped = catalog.getDatabaseFile(catalog.getTableId("mappednames"));
+        assertTrue(names instanceof SlottedHeapFile);
+        assertFalse(((HeapFile) names).isMapped());
+        assertTrue(mapped instanceof SlottedHeapFile);
+        assertTrue(((HeapFile) mapped).isMapped());
+        DbFile cold = catalog.getDatabaseFile(catalog.getTableId("coldnames"));
+        assertTrue(cold instanceof SlottedHeapFile);
+        assertTrue(((HeapFile) cold).isCompressed());
+        assertFalse(((HeapFile) names).isCompressed());
+    }
+
+    @Test public void loadSchemaPax() throws Exception {
+        File dir = Files.createTempDirectory("catalog").toFile();
+        dir.deleteOnExit();
+        File schema = new File(dir, "catalog.txt");
+        schema.deleteOnExit();
+        Files.write(schema.toPath(), Arrays.asList("facts (a int, b int, c string) pax",
+                "coldfacts (a int, b int) compressed pax"));
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+
+        Catalog catalog = Database.getCatalog();
+        DbFile facts = catalog.getDatabaseFile(catalog.getTableId("facts"));
+        DbFile cold = catalog.getDatabaseFile(catalog.getTableId("coldfacts"));
+        assertTrue(facts instanceof PaxHeapFile);
+        assertTrue(cold instanceof PaxHeapFile);
+        assertTrue(((HeapFile) cold).isCompressed());
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,142 @@
+package simpledb;
+
+import simpledb.storage.BufferPool;
+import simpledb.storage.FileHandle;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class FileHandleTest {
+    private static final int PAGE = 4096;
+
+    private File file;
+    private FileHandle handle;
+
+    @Before public void setUp() throws Exception {
+        file = File.createTempFile("handle", ".dat");
+        file.deleteOnExit();
+        handle = new FileHandle(file);
+    }
+
+    /**
+     * The file grows on disk a whole extent at a time, while its length
+     * counts only what was added; close cuts it to that length.
+     */
+    @Test public void extents() throws Exception {
+        assertEquals(0, handle.extend(PAGE));
+        assertEquals(PAGE, handle.size());
+        assertEquals(FileHandle.EXTENT_BYTES, file.length());
+
+        ByteBuffer page = ByteBuffer.allocate(PAGE);
+        page.putInt(0, 42);
+        assertEquals(PAGE, handle.append(page));
+        assertEquals(2 * PAGE, handle.size());
+        assertEquals(FileHandle.EXTENT_BYTES, file.length());
+
+        // past the first extent
+        long big = FileHandle.EXTENT_BYTES + PAGE;
+        assertEquals(2 * PAGE, handle.extend(big));
+        assertEquals(2 * FileHandle.EXTENT_BYTES, file.length());
+
+        handle.close();
+        assertEquals(2 * PAGE + big, file.length());
+        assertEquals(2 * PAGE + big, handle.size());
+        ByteBuffer read = ByteBuffer.allocate(PAGE);
+        handle.read(read, PAGE);
+        assertEquals(42, read.getInt(0));
+        handle.close();
+    }
+
+    /**
+     * A file of pages opened again without close, as after a crash, leaves
+     * the zeroes of its last extent out of its length, and cuts them off on
+     * the next close.
+     */
+    @Test public void reopenWithoutClose() throws Exception {
+        int pageSize = BufferPool.getPageSize();
+        FileHandle pages = new FileHandle(file, 100);
+        ByteBuffer page = ByteBuffer.allocate(pageSize);
+        page.putInt(8, 42);
+        pages.write(ByteBuffer.allocate(100), 0);
+        pages.append(page);
+        pages.extend(pageSize);
+        assertEquals(FileHandle.EXTENT_BYTES, file.length());
+
+        // the empty page after the last one written goes with the padding.
+        FileHandle reopened = new FileHandle(file, 100);
+        assertEquals(100 + pageSize, reopened.size());
+        assertEquals(100 + pageSize, reopened.append(page.rewind()));
+        assertEquals(FileHandle.EXTENT_BYTES, file.length());
+        reopened.close();
+        assertEquals(100 + 2 * pageSize, file.length());
+
+        // a file not made of pages keeps the zeroes.
+        new FileHandle(file, 0).extend(pageSize);
+        assertEquals(FileHandle.EXTENT_BYTES, new FileHandle(file).size());
+
+        // nor is a file left shorter than a page.
+        file.delete();
+        new FileHandle(file, 0).extend(pageSize);
+        assertEquals(pageSize, new FileHandle(file, 0).currentSize());
+    }
+
+    /**
+     * A write past the end moves the end; the length is not read from disk
+     * again until close.
+     */
+    @Test public void writePastEnd() throws Exception {
+        handle.write(ByteBuffer.allocate(PAGE), 3L * PAGE);
+        assertEquals(4L * PAGE, handle.size());
+        handle.truncate(PAGE);
+        assertEquals(PAGE, handle.size());
+        assertEquals(PAGE, file.length());
+        handle.close();
+    }
+
+    /**
+     * Concurrent appends each get a place of their own.
+     */
+    @Test public void concurrentAppends() throws Exception {
+        int threads = 8;
+        int each = 100;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<List<Long>>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            results.add(pool.submit(() -> {
+                List<Long> positions = new ArrayList<>();
+                for (int i = 0; i < each; i++) {
+                    ByteBuffer page = ByteBuffer.allocate(PAGE);
+                    page.putInt(0, id * each + i);
+                    positions.add(i % 2 == 0 ? handle.append(page) : handle.extend(PAGE));
+                }
+                return positions;
+            }));
+        }
+        Set<Long> seen = new HashSet<>();
+        for (Future<List<Long>> f : results) {
+            for (long position : f.get()) {
+                assertEquals(0, position % PAGE);
+                assertTrue(seen.add(position));
+            }
+        }
+        pool.shutdown();
+        assertEquals((long) threads * each * PAGE, handle.size());
+        handle.close();
+        assertEquals((long) threads * each * PAGE, file.length());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FileHandleTest.class);
+    }
+}
@@ -0,0 +1,154 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HeapFileEncoderTest extends SimpleDbTestBase {
+
+    private static File tempFile(String suffix) throws IOException {
+        File f = File.createTempFile("encoder", suffix);
+        f.deleteOnExit();
+        return f;
+    }
+
+    private static File text(String contents) throws IOException {
+        File f = tempFile(".txt");
+        try (Writer w = new OutputStreamWriter(new FileOutputStream(f), StandardCharsets.UTF_8)) {
+            w.write(contents);
+        }
+        return f;
+    }
+
+    private static List<List<Integer>> randomTuples(int rows, int columns) {
+        Random r = new Random(rows);
+        List<List<Integer>> tuples = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            List<Integer> t = new ArrayList<>();
+            for (int j = 0; j < columns; j++) {
+                t.add(r.nextInt() >> r.nextInt(32));
+            }
+            tuples.add(t);
+        }
+        return tuples;
+    }
+
+    private static File csv(List<List<Integer>> tuples) throws IOException {
+        File f = tempFile(".txt");
+        try (BufferedWriter w = new BufferedWriter(new FileWriter(f))) {
+            for (List<Integer> t : tuples) {
+                w.write(Utility.listToString(t).replace('\t', ','));
+                w.write('\n');
+            }
+        }
+        return f;
+    }
+
+    /**
+     * Windows line ends, blank lines, spaces around values and a last line
+     * with no line end are all read.
+     */
+    @Test public void looseText() throws Exception {
+        File in = text("1,2\r\n\n -3 , 4\n\r\n5,-2147483648");
+        File out = tempFile(".dat");
+        HeapFileEncoder.convert(in, out, BufferPool.getPageSize(), 2);
+        SystemTestUtil.matchTuples(Utility.openHeapFile(2, out),
+                Arrays.asList(Arrays.asList(1, 2), Arrays.asList(-3, 4), Arrays.asList(5, Integer.MIN_VALUE)));
+    }
+
+    /**
+     * A text file and the same tuples given as a list encode to the same
+     * pages.
+     */
+    @Test public void textMatchesList() throws Exception {
+        List<List<Integer>> tuples = randomTuples(5000, 3);
+        File fromText = tempFile(".dat");
+        File fromList = tempFile(".dat");
+        HeapFileEncoder.convert(csv(tuples), fromText, BufferPool.getPageSize(), 3);
+        HeapFileEncoder.convert(tuples, fromList, BufferPool.getPageSize(), 3);
+        assertArrayEquals(java.nio.file.Files.readAllBytes(fromList.toPath()),
+                java.nio.file.Files.readAllBytes(fromText.toPath()));
+        SystemTestUtil.matchTuples(Utility.openHeapFile(3, fromText), tuples);
+    }
+
+    /**
+     * Strings are trimmed and cut to Type.STRING_LEN, also on a line longer
+     * than a block of input.
+     */
+    @Test public void strings() throws Exception {
+        char[] longChars = new char[3 << 20];
+        Arrays.fill(longChars, 'y');
+        String longString = new String(longChars);
+        File in = text("1| alpha \n2|" + longString + "\n3|\n");
+        File out = tempFile(".dat");
+        Type[] types = new Type[]{Type.INT_TYPE, Type.STRING_TYPE};
+        HeapFileEncoder.convert(in, out, BufferPool.getPageSize(), 2, types, '|');
+
+        HeapFile f = new HeapFile(out, new TupleDesc(types));
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        List<String> read = new ArrayList<>();
+        while (it.hasNext()) {
+            read.add(((StringField) it.next().getField(1)).getValue());
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(Arrays.asList("alpha", longString.substring(0, Type.STRING_LEN), ""), read);
+    }
+
+    /**
+     * An empty input is one empty page.
+     */
+    @Test public void empty() throws Exception {
+        File out = tempFile(".dat");
+        HeapFileEncoder.convert(text(""), out, BufferPool.getPageSize(), 2);
+        assertEquals(BufferPool.getPageSize(), out.length());
+        SystemTestUtil.matchTuples(Utility.openHeapFile(2, out), new ArrayList<>());
+    }
+
+    @Test(expected = IOException.class)
+    public void tooFewFields() throws Exception {
+        HeapFileEncoder.convert(text("1,2\n3\n"), tempFile(".dat"), BufferPool.getPageSize(), 2);
+    }
+
+    /**
+     * A parallel conversion of many blocks of input reads back the same
+     * tuples, with a partly filled page at most per block.
+     */
+    @Test public void parallel() throws Exception {
+        List<List<Integer>> tuples = randomTuples(300000, 2);
+        File in = csv(tuples);
+        File serial = tempFile(".dat");
+        File parallel = tempFile(".dat");
+        Type[] types = new Type[]{Type.INT_TYPE, Type.INT_TYPE};
+        HeapFileEncoder.convert(in, serial, BufferPool.getPageSize(), 2, types, ',');
+        HeapFileEncoder.convert(in, parallel, BufferPool.getPageSize(), 2, types, ',', 4);
+
+        long blocks = in.length() / (1 << 20) + 1;
+        assertTrue(parallel.length() >= serial.length());
+        assertTrue(parallel.length() <= serial.length() + blocks * BufferPool.getPageSize());
+        Database.resetBufferPool(1000);
+        SystemTestUtil.matchTuples(Utility.openHeapFile(2, parallel), tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileEncoderTest.class);
+    }
+}
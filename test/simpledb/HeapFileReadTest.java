@@ -125,6 +125,22 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * A file whose handle was closed, as when its table is dropped from the
+     * catalog, opens it again on the next read.
+     */
+    @Test
+    public void readAfterClose() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        byte[] data = hf.readPage(pid).getPageData();
+        Database.getCatalog().clear();
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        assertArrayEquals(data, hf.readPage(pid).getPageData());
+        hf.close();
+        hf.close();
+        assertArrayEquals(data, hf.readPage(pid).getPageData());
+    }
+
     /**
      * JUnit suite target
      */
@@ -7,12 +7,19 @@ import org.junit.Test;
 import static org.junit.Assert.*;
 import junit.framework.JUnit4TestAdapter;
 import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
 import simpledb.common.Utility;
 import simpledb.storage.*;
 import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
 import simpledb.transaction.TransactionId;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
     private TransactionId tid;
@@ -90,6 +97,329 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         it.close();
     }
 
+    /**
+     * A mapped file maps itself again as inserts grow it, and reads back
+     * what was written.
+     */
+    @Test public void mappedInsert() throws Exception {
+        HeapFile mapped = new HeapFile(empty.getFile(), empty.getTupleDesc(), true);
+        Database.getCatalog().addTable(mapped, SystemTestUtil.getUUID());
+        for (int i = 0; i < 504 * 2 + 1; ++i) {
+            Database.getBufferPool().insertTuple(tid, mapped.getId(), Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(3, mapped.numPages());
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        DbFileIterator it = mapped.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count += 1;
+        }
+        it.close();
+        assertEquals(504 * 2 + 1, count);
+
+        HeapFile plain = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        for (int i = 0; i < 3; i++) {
+            HeapPageId pid = new HeapPageId(mapped.getId(), i);
+            assertArrayEquals(plain.readPage(pid).getPageData(), mapped.readPage(pid).getPageData());
+        }
+    }
+
+    /**
+     * Inserts into a table of full pages go straight to the page with room,
+     * reading and locking only that page, and to pages freed by deletes.
+     */
+    @Test public void freeSpaceMap() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 10 + 1, null, null);
+        BufferPool bp = Database.getBufferPool();
+        assertEquals(11, f.numPages());
+
+        long misses = bp.getMissCount();
+        bp.insertTuple(tid, f.getId(), Utility.getHeapTuple(1, 2));
+        assertEquals(misses + 1, bp.getMissCount());
+        assertEquals(1, bp.getLockManager().getLockedPages(tid).size());
+
+        for (int i = 0; i < 502; i++) {
+            bp.insertTuple(tid, f.getId(), Utility.getHeapTuple(1, 2));
+        }
+        assertEquals(11, f.numPages());
+        bp.insertTuple(tid, f.getId(), Utility.getHeapTuple(2, 2));
+        assertEquals(12, f.numPages());
+
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        Tuple victim = it.next();
+        it.close();
+        bp.deleteTuple(tid, victim);
+        Tuple t = Utility.getHeapTuple(3, 2);
+        bp.insertTuple(tid, f.getId(), t);
+        assertEquals(victim.getRecordId(), t.getRecordId());
+    }
+
+    /**
+     * A page filled by a transaction that aborts takes inserts again,
+     * instead of the file growing.
+     */
+    @Test public void freeSpaceAfterAbort() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 2 + 100, null, null);
+        BufferPool bp = Database.getBufferPool();
+        List<Tuple> batch = new ArrayList<>();
+        for (int i = 0; i < 404; i++) {
+            batch.add(Utility.getHeapTuple(i, 2));
+        }
+        bp.insertTuples(tid, f.getId(), batch);
+        assertEquals(3, f.numPages());
+        bp.transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(-1, 2);
+        bp.insertTuple(tid, f.getId(), t);
+        assertEquals(2, t.getRecordId().getPageId().getPageNumber());
+        assertEquals(3, f.numPages());
+    }
+
+    /**
+     * A batch fills the room left on existing pages, then appends the pages
+     * the rest need in one go; each changed page is returned and dirty once.
+     */
+    @Test public void insertTuples() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 2 + 100, null, null);
+        assertEquals(3, f.numPages());
+        List<Tuple> batch = new ArrayList<>();
+        for (int i = 0; i < 404 + 504 * 2 + 1; i++) {
+            batch.add(Utility.getHeapTuple(i, 2));
+        }
+
+        List<Page> pages = f.insertTuples(tid, batch);
+        assertEquals(6, f.numPages());
+        assertEquals(4, pages.size());
+        for (int i = 0; i < pages.size(); i++) {
+            assertEquals(i + 2, pages.get(i).getId().getPageNumber());
+            assertEquals(tid, pages.get(i).isDirty());
+        }
+        assertEquals(0, ((HeapPage) pages.get(0)).getNumUnusedSlots());
+        assertEquals(503, ((HeapPage) pages.get(3)).getNumUnusedSlots());
+        for (Tuple t : batch) {
+            assertNotNull(t.getRecordId());
+        }
+    }
+
+    /**
+     * New pages come out of extents preallocated on disk and are counted
+     * without asking the file system; close gives the extent back.
+     */
+    @Test public void extents() throws Exception {
+        File file = File.createTempFile("extents", ".dat");
+        file.deleteOnExit();
+        HeapFile f = new HeapFile(file, empty.getTupleDesc());
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        BufferPool bp = Database.getBufferPool();
+        List<Tuple> batch = new ArrayList<>();
+        for (int i = 0; i < 504 + 1; i++) {
+            batch.add(Utility.getHeapTuple(i, 2));
+        }
+        bp.insertTuples(tid, f.getId(), batch);
+        assertEquals(2, f.numPages());
+        assertEquals(FileHandle.EXTENT_BYTES, file.length());
+        bp.transactionComplete(tid);
+
+        // opened again without close, as after a crash
+        assertEquals(2, new HeapFile(file, empty.getTupleDesc()).numPages());
+
+        f.close();
+        assertEquals(2 * BufferPool.getPageSize(), file.length());
+        tid = new TransactionId();
+        assertEquals(2, f.numPages());
+        bp.insertTuple(tid, f.getId(), Utility.getHeapTuple(-1, 2));
+        assertEquals(2, f.numPages());
+    }
+
+    /**
+     * The page count is kept in memory; pages added to the file other than
+     * through the HeapFile count once refreshNumPages looks at the file.
+     */
+    @Test public void numPagesInMemory() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 + 1, null, null);
+        assertEquals(2, f.numPages());
+        try (FileOutputStream out = new FileOutputStream(f.getFile(), true)) {
+            out.write(HeapPage.createEmptyPageData());
+        }
+        assertEquals(2, f.numPages());
+        assertEquals(3, f.refreshNumPages());
+        assertEquals(3, f.numPages());
+    }
+
+    /**
+     * Delete all but one tuple in four, then vacuum: the tuples move to the
+     * first pages, the empty pages are cut off the file, and inserts go on
+     * from its new end.
+     */
+    @Test public void vacuum() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 10, null, null);
+        BufferPool bp = Database.getBufferPool();
+        List<List<Integer>> kept = new ArrayList<>();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        for (int i = 0; it.hasNext(); i++) {
+            Tuple t = it.next();
+            if (i % 4 == 0) {
+                kept.add(SystemTestUtil.tupleToList(t));
+            } else {
+                bp.deleteTuple(tid, t);
+            }
+        }
+        it.close();
+        bp.transactionComplete(tid);
+        assertEquals(10, f.numPages());
+
+        assertEquals(7, f.vacuum());
+        assertEquals(3, f.numPages());
+        assertEquals(3 * BufferPool.getPageSize(), f.getFile().length());
+        SystemTestUtil.matchTuples(f, kept);
+
+        tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(-1, 2);
+        bp.insertTuple(tid, f.getId(), t);
+        assertEquals(2, t.getRecordId().getPageId().getPageNumber());
+        bp.transactionComplete(tid);
+        tid = new TransactionId();
+        assertEquals(0, f.vacuum());
+    }
+
+    /**
+     * A vacuum that fails part way, here for want of a clean page to evict,
+     * lets go of the pages it locked and leaves the tuples where they were.
+     */
+    @Test public void vacuumFails() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 2, null, null);
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+        BufferPool bp = Database.getBufferPool();
+        List<List<Integer>> all = new ArrayList<>();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        for (int i = 0; it.hasNext(); i++) {
+            Tuple t = it.next();
+            if (i < 504) {
+                bp.deleteTuple(tid, t);
+            } else {
+                all.add(SystemTestUtil.tupleToList(t));
+            }
+        }
+        it.close();
+        bp.transactionComplete(tid);
+
+        // every frame of the pool holds a page another transaction changed.
+        bp = Database.resetBufferPool(3);
+        tid = new TransactionId();
+        for (int i = 0; i < 3; i++) {
+            Page page = bp.getPage(tid, new HeapPageId(other.getId(), i), Permissions.READ_WRITE);
+            page.markDirty(true, tid);
+        }
+        try {
+            f.vacuum();
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        TransactionId next = new TransactionId();
+        for (int i = 0; i < 2; i++) {
+            assertTrue(bp.getLockManager().acquireLock(new HeapPageId(f.getId(), i), next, PageLock.EXCLUSIVE));
+        }
+        bp.transactionComplete(next);
+        bp.transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertEquals(1, f.vacuum());
+        SystemTestUtil.matchTuples(f, all);
+    }
+
+    /**
+     * While a snapshot is running, vacuum moves tuples but leaves the file
+     * as long as it was, and the snapshot still reads the table as of when
+     * it began.
+     */
+    @Test public void vacuumWithSnapshot() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, null);
+        BufferPool bp = Database.getBufferPool();
+        List<List<Integer>> all = new ArrayList<>();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        for (int i = 0; it.hasNext(); i++) {
+            Tuple t = it.next();
+            all.add(SystemTestUtil.tupleToList(t));
+            if (i < 504 * 2) {
+                bp.deleteTuple(tid, t);
+            }
+        }
+        it.close();
+        bp.transactionComplete(tid);
+
+        Transaction snapshot = new Transaction();
+        snapshot.startSnapshot();
+        assertEquals(0, f.vacuum());
+        assertEquals(4, f.numPages());
+        SystemTestUtil.matchTuples(f, snapshot.getId(), all.subList(504 * 2, all.size()));
+        snapshot.commit();
+
+        assertEquals(2, f.vacuum());
+        assertEquals(2, f.numPages());
+        SystemTestUtil.matchTuples(f, all.subList(504 * 2, all.size()));
+    }
+
+    /**
+     * A compressed file takes inserts and deletes, writes pages back where
+     * they fit, and reads back the same after it is opened again, also with
+     * a record cut short at its end.
+     */
+    @Test public void compressedInsert() throws Exception {
+        File file = File.createTempFile("compressed", ".dat");
+        file.deleteOnExit();
+        HeapFile c = new HeapFile(file, empty.getTupleDesc(), HeapFile.Storage.COMPRESSED);
+        Database.getCatalog().addTable(c, SystemTestUtil.getUUID());
+        BufferPool bp = Database.getBufferPool();
+        List<Tuple> batch = new ArrayList<>();
+        for (int i = 0; i < 504 * 2 + 1; i++) {
+            batch.add(Utility.getHeapTuple(i, 2));
+        }
+        bp.insertTuples(tid, c.getId(), batch);
+        assertEquals(3, c.numPages());
+        bp.transactionComplete(tid);
+        long length = c.getFile().length();
+        assertTrue(length < 3 * BufferPool.getPageSize());
+
+        // a page that deflates no larger goes back in its record.
+        c.writePage(c.readPage(new HeapPageId(c.getId(), 1)));
+        assertEquals(length, c.getFile().length());
+
+        tid = new TransactionId();
+        bp.deleteTuple(tid, batch.get(0));
+        bp.transactionComplete(tid);
+        length = c.getFile().length();
+
+        c.close();
+        try (FileOutputStream out = new FileOutputStream(c.getFile(), true)) {
+            out.write(new byte[]{0, 0, 0, 1, 0, 0});
+        }
+        HeapFile reopened = new HeapFile(c.getFile(), c.getTupleDesc(), HeapFile.Storage.COMPRESSED);
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        assertEquals(3, reopened.numPages());
+        assertEquals(length, c.getFile().length());
+
+        tid = new TransactionId();
+        DbFileIterator it = reopened.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            assertNotEquals(0, ((IntField) it.next().getField(0)).getValue());
+            count += 1;
+        }
+        it.close();
+        assertEquals(504 * 2, count);
+    }
+
     /**
      * JUnit suite target
      */
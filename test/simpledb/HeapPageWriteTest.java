@@ -1,5 +1,8 @@
 package simpledb;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -12,8 +15,12 @@ import simpledb.TestUtil.SkeletonFile;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Field;
 import simpledb.storage.HeapPage;
 import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
 import simpledb.storage.Tuple;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
@@ -131,6 +138,69 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Changes are made to the page bytes in place; the before image keeps the
+     * page as of the last setBeforeImage.
+     */
+    @Test public void beforeImage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getPageData());
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData());
+
+        int free = page.getNumUnusedSlots();
+        page.insertTuple(Utility.getHeapTuple(7, 2));
+        page.deleteTuple(page.iterator().next());
+        assertEquals(free, page.getBeforeImage().getNumUnusedSlots());
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData());
+
+        // the serialized page reads back the same
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        assertArrayEquals(page.getPageData(), copy.getPageData());
+
+        page.setBeforeImage();
+        assertArrayEquals(page.getPageData(), page.getBeforeImage().getPageData());
+    }
+
+    /**
+     * The page buffer is a read-only view of the page bytes, not a copy.
+     */
+    @Test public void pageBuffer() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        ByteBuffer buf = page.getPageBuffer();
+        assertTrue(buf.isReadOnly());
+        assertEquals(BufferPool.getPageSize(), buf.remaining());
+
+        page.insertTuple(Utility.getHeapTuple(7, 2));
+        byte[] bytes = new byte[buf.remaining()];
+        buf.get(bytes);
+        assertArrayEquals(page.getPageData(), bytes);
+    }
+
+    /**
+     * Fields written into a buffer in place get the same bytes as through a
+     * DataOutputStream, strings padded and cut to their maximum size.
+     */
+    @Test public void fieldsInPlace() throws Exception {
+        Field[] fields = { new IntField(-12345), new StringField("abc", 8),
+                new StringField("", 4), new StringField("too long by far", 6) };
+        for (Field f : fields) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            f.serialize(new DataOutputStream(baos));
+            byte[] expected = baos.toByteArray();
+
+            ByteBuffer buf = ByteBuffer.allocate(expected.length + 2);
+            buf.put(0, (byte) 9).put(expected.length + 1, (byte) 9);
+            f.serialize(buf, 1);
+            assertEquals(0, buf.position());
+            byte[] actual = new byte[expected.length];
+            buf.position(1);
+            buf.get(actual);
+            assertArrayEquals(expected, actual);
+            assertEquals(9, buf.get(0));
+            assertEquals(9, buf.get(expected.length + 1));
+        }
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,276 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LockManager;
+import simpledb.storage.PageId;
+import simpledb.storage.PageLock;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+public class LockManagerTest {
+    private static final int WAIT_INTERVAL = 300;
+
+    private LockManager lm;
+    private PageId p0, p1;
+
+    /**
+     * Thread that requests a lock and records whether it was granted or the
+     * request was aborted.
+     */
+    private class Requester extends Thread {
+        final TransactionId tid;
+        final PageId pid;
+        final int tableId;
+        final int type;
+        volatile boolean acquired = false;
+        volatile Exception error = null;
+
+        Requester(TransactionId tid, PageId pid, int type) {
+            this.tid = tid;
+            this.pid = pid;
+            this.tableId = pid.getTableId();
+            this.type = type;
+        }
+
+        /**
+         * Request a lock on a whole table.
+         */
+        Requester(TransactionId tid, int tableId, int type) {
+            this.tid = tid;
+            this.pid = null;
+            this.tableId = tableId;
+            this.type = type;
+        }
+
+        public void run() {
+            try {
+                if (pid == null) {
+                    lm.lockTable(tableId, tid, type);
+                } else {
+                    lm.lock(pid, tid, type);
+                }
+                acquired = true;
+            } catch (TransactionAbortedException e) {
+                error = e;
+            }
+        }
+    }
+
+    @Before public void setUp() {
+        lm = new LockManager();
+        p0 = new HeapPageId(1, 0);
+        p1 = new HeapPageId(1, 1);
+    }
+
+    /**
+     * A transaction blocked behind a lock holder that is not waiting itself is
+     * not aborted, however long it waits.
+     */
+    @Test public void waitWithoutDeadlock() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        lm.lock(p0, t1, PageLock.EXCLUSIVE);
+
+        Requester r = new Requester(t2, p0, PageLock.SHARE);
+        r.start();
+        Thread.sleep(WAIT_INTERVAL);
+        assertFalse(r.acquired);
+        assertNull(r.error);
+
+        lm.completeTransaction(t1);
+        r.join(WAIT_INTERVAL * 10);
+        assertTrue(r.acquired);
+        assertEquals(0, lm.getDeadlockCount());
+        assertEquals(1, lm.getLockWaitCount());
+    }
+
+    /**
+     * Two transactions that wait on each other form a cycle; only the younger
+     * one is aborted and the older one gets its lock.
+     */
+    @Test public void youngestIsVictim() throws Exception {
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        lm.lock(p0, older, PageLock.SHARE);
+        lm.lock(p1, younger, PageLock.SHARE);
+
+        Requester olderWrite = new Requester(older, p1, PageLock.EXCLUSIVE);
+        olderWrite.start();
+        Thread.sleep(WAIT_INTERVAL);
+        Requester youngerWrite = new Requester(younger, p0, PageLock.EXCLUSIVE);
+        youngerWrite.start();
+
+        youngerWrite.join(WAIT_INTERVAL * 10);
+        assertTrue(youngerWrite.error instanceof TransactionAbortedException);
+        assertFalse(olderWrite.acquired);
+        assertNull(olderWrite.error);
+
+        lm.completeTransaction(younger);
+        olderWrite.join(WAIT_INTERVAL * 10);
+        assertTrue(olderWrite.acquired);
+        assertEquals(1, lm.getDeadlockCount());
+    }
+
+    /**
+     * Waiters are granted in arrival order: a shared request queued behind an
+     * exclusive one does not overtake it.
+     */
+    @Test public void fifoGrant() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        TransactionId t3 = new TransactionId();
+        lm.lock(p0, t1, PageLock.EXCLUSIVE);
+
+        Requester writer = new Requester(t2, p0, PageLock.EXCLUSIVE);
+        writer.start();
+        Thread.sleep(WAIT_INTERVAL);
+        Requester reader = new Requester(t3, p0, PageLock.SHARE);
+        reader.start();
+        Thread.sleep(WAIT_INTERVAL);
+
+        lm.releaseLock(t1, p0);
+        writer.join(WAIT_INTERVAL * 10);
+        assertTrue(writer.acquired);
+        Thread.sleep(WAIT_INTERVAL);
+        assertFalse(reader.acquired);
+
+        lm.releaseLock(t2, p0);
+        reader.join(WAIT_INTERVAL * 10);
+        assertTrue(reader.acquired);
+    }
+
+    /**
+     * The only holder of a shared lock can upgrade it even when other
+     * transactions are already queued for the page.
+     */
+    @Test public void upgradeAheadOfWaiters() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        lm.lock(p0, t1, PageLock.SHARE);
+
+        Requester writer = new Requester(t2, p0, PageLock.EXCLUSIVE);
+        writer.start();
+        Thread.sleep(WAIT_INTERVAL);
+
+        lm.lock(p0, t1, PageLock.EXCLUSIVE);
+        assertTrue(lm.isHoldLock(t1, p0));
+        assertFalse(writer.acquired);
+
+        lm.completeTransaction(t1);
+        writer.join(WAIT_INTERVAL * 10);
+        assertTrue(writer.acquired);
+    }
+
+    /**
+     * Each transaction's locked pages are tracked on their own and dropped
+     * when it completes.
+     */
+    @Test public void lockedPagesPerTransaction() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        lm.lock(p0, t1, PageLock.SHARE);
+        lm.lock(p1, t1, PageLock.EXCLUSIVE);
+        lm.lock(p0, t2, PageLock.SHARE);
+
+        assertEquals(2, lm.getLockedPages(t1).size());
+        assertEquals(1, lm.getLockedPages(t2).size());
+
+        lm.releaseLock(t1, p1);
+        assertFalse(lm.isHoldLock(t1, p1));
+        assertEquals(1, lm.getLockedPages(t1).size());
+
+        lm.completeTransaction(t1);
+        assertTrue(lm.getLockedPages(t1).isEmpty());
+        assertFalse(lm.isHoldLock(t1, p0));
+        assertTrue(lm.isHoldLock(t2, p0));
+    }
+
+    /**
+     * Page locks take intention locks on their table, which conflict with
+     * table locks of other transactions.
+     */
+    @Test public void intentionLocks() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        TransactionId t3 = new TransactionId();
+        lm.lock(p0, t1, PageLock.EXCLUSIVE);
+        assertEquals(Integer.valueOf(PageLock.INTENTION_EXCLUSIVE), lm.getTableLock(t1, 1));
+
+        // a shared page lock on another page only needs INTENTION_SHARE
+        lm.lock(p1, t3, PageLock.SHARE);
+        assertEquals(Integer.valueOf(PageLock.INTENTION_SHARE), lm.getTableLock(t3, 1));
+
+        Requester reader = new Requester(t2, 1, PageLock.SHARE);
+        reader.start();
+        Thread.sleep(WAIT_INTERVAL);
+        assertFalse(reader.acquired);
+
+        lm.completeTransaction(t1);
+        reader.join(WAIT_INTERVAL * 10);
+        assertTrue(reader.acquired);
+        assertNull(lm.getTableLock(t1, 1));
+        // the table lock covers every page
+        assertTrue(lm.isHoldLock(t2, p0));
+        assertTrue(lm.getLockedPages(t2).isEmpty());
+    }
+
+    /**
+     * Past the threshold, page locks are replaced by one table lock.
+     */
+    @Test public void escalation() throws Exception {
+        lm.setEscalationThreshold(4);
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        for (int i = 0; i < 4; i++) {
+            lm.lock(new HeapPageId(1, i), t1, PageLock.SHARE);
+        }
+        assertEquals(4, lm.getLockedPages(t1).size());
+        lm.lock(new HeapPageId(1, 4), t1, PageLock.SHARE);
+        assertEquals(Integer.valueOf(PageLock.SHARE), lm.getTableLock(t1, 1));
+        assertTrue(lm.getLockedPages(t1).isEmpty());
+        assertTrue(lm.isHoldLock(t1, new HeapPageId(1, 100)));
+        assertEquals(1, lm.getEscalationCount());
+
+        // readers still get in, writers wait for the table lock
+        lm.lock(new HeapPageId(1, 9), t2, PageLock.SHARE);
+        Requester writer = new Requester(t2, p0, PageLock.EXCLUSIVE);
+        writer.start();
+        Thread.sleep(WAIT_INTERVAL);
+        assertFalse(writer.acquired);
+
+        lm.completeTransaction(t1);
+        writer.join(WAIT_INTERVAL * 10);
+        assertTrue(writer.acquired);
+    }
+
+    /**
+     * No escalation while another transaction holds a conflicting intention
+     * lock; the page locks are kept instead.
+     */
+    @Test public void noEscalationUnderConflict() throws Exception {
+        lm.setEscalationThreshold(2);
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        lm.lock(new HeapPageId(1, 9), t2, PageLock.EXCLUSIVE);
+        for (int i = 0; i < 3; i++) {
+            lm.lock(new HeapPageId(1, i), t1, PageLock.SHARE);
+        }
+        assertEquals(Integer.valueOf(PageLock.INTENTION_SHARE), lm.getTableLock(t1, 1));
+        assertEquals(3, lm.getLockedPages(t1).size());
+        assertEquals(0, lm.getEscalationCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
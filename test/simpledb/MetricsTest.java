@@ -0,0 +1,67 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Metrics;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class MetricsTest extends SimpleDbTestBase {
+
+    /**
+     * A cold scan misses on every page and reads it from the file; scanning
+     * again is served from the pool.
+     */
+    @Test public void scanCounters() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1000, null, tuples);
+        BufferPool bp = Database.resetBufferPool(50);
+        bp.getReadAhead().setWindow(0);
+        Metrics metrics = new Metrics();
+        long bytesRead = metrics.getBytesRead();
+
+        SystemTestUtil.matchTuples(hf, tuples);
+        assertEquals(hf.numPages(), metrics.getPageMisses());
+        assertEquals(0, metrics.getPageHits());
+        assertEquals((long) hf.numPages() * BufferPool.getPageSize(), metrics.getBytesRead() - bytesRead);
+
+        SystemTestUtil.matchTuples(hf, tuples);
+        assertEquals(hf.numPages(), metrics.getPageHits());
+        assertEquals(0.5, metrics.getHitRatio(), 1e-9);
+        assertEquals(0, metrics.getEvictions());
+    }
+
+    /**
+     * The metrics of the current pool are visible over JMX.
+     */
+    @Test public void jmx() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, tuples);
+        Database.resetBufferPool(50);
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(Metrics.OBJECT_NAME);
+        assertTrue(server.isRegistered(name));
+        assertEquals(1L, server.getAttribute(name, "PageMisses"));
+        assertTrue(Metrics.report().contains("page misses:"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MetricsTest.class);
+    }
+}
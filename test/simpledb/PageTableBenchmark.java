@@ -0,0 +1,255 @@
+package simpledb;
+
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.storage.PageTable;
+import simpledb.storage.ReplacementPolicy;
+import simpledb.transaction.TransactionId;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Benchmarks for the BufferPool page table and its replacement policies.
+ * <p>
+ * Contention: many threads look up pages with a skewed (80/20) access
+ * pattern; misses install the page and evict a victim. The CLOCK and 2Q
+ * tables are compared against the LinkNode LRU list the BufferPool used
+ * before, with the list made thread safe by a single monitor (the minimum it
+ * needs to stay consistent under concurrent hits).
+ * <p>
+ * Scan resistance: point lookups on a working set half the size of the pool
+ * are interleaved with a use-once scan of a table ten times the pool; the
+ * hit rate of the lookups shows how much of the working set survives.
+ * <p>
+ * Not a unit test: run it by hand with
+ * <pre>
+ * java -cp bin/src:bin/test simpledb.PageTableBenchmark [threads] [frames] [opsPerThread]
+ * </pre>
+ */
+public class PageTableBenchmark {
+
+    interface Table {
+        Page get(PageId pid, boolean useOnce);
+
+        void install(Page page, boolean useOnce);
+    }
+
+    static class DummyPage implements Page {
+        private final HeapPageId pid;
+
+        DummyPage(HeapPageId pid) {
+            this.pid = pid;
+        }
+
+        public PageId getId() {
+            return pid;
+        }
+
+        public TransactionId isDirty() {
+            return null;
+        }
+
+        public void markDirty(boolean dirty, TransactionId tid) {
+        }
+
+        public byte[] getPageData() {
+            return new byte[0];
+        }
+
+        public Page getBeforeImage() {
+            return this;
+        }
+
+        public void setBeforeImage() {
+        }
+    }
+
+    static class PolicyTable implements Table {
+        private final PageTable table;
+
+        PolicyTable(String policy, int frames) {
+            this.table = new PageTable(frames, ReplacementPolicy.create(policy, frames));
+        }
+
+        public Page get(PageId pid, boolean useOnce) {
+            return table.get(pid, useOnce);
+        }
+
+        public void install(Page page, boolean useOnce) {
+            synchronized (table) {
+                if (table.contains(page.getId())) {
+                    return;
+                }
+                if (table.isFull()) {
+                    table.remove(table.chooseVictim(p -> p.isDirty() == null));
+                }
+                table.put(page, useOnce);
+            }
+        }
+    }
+
+    /**
+     * The LRU list from the old BufferPool: every hit moves the node to the
+     * head of one shared list.
+     */
+    static class LinkNodeTable implements Table {
+        static class LinkNode {
+            PageId pageId;
+            Page page;
+            LinkNode prev;
+            LinkNode next;
+
+            LinkNode(PageId pageId, Page page) {
+                this.pageId = pageId;
+                this.page = page;
+            }
+        }
+
+        private final int frames;
+        private final Map<PageId, LinkNode> pageStore = new HashMap<>();
+        private final LinkNode head = new LinkNode(new HeapPageId(-1, -1), null);
+        private final LinkNode tail = new LinkNode(new HeapPageId(-1, -1), null);
+
+        LinkNodeTable(int frames) {
+            this.frames = frames;
+            head.next = tail;
+            tail.prev = head;
+        }
+
+        private void addToHead(LinkNode node) {
+            node.prev = head;
+            node.next = head.next;
+            node.next.prev = node;
+            head.next = node;
+        }
+
+        private void remove(LinkNode node) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+        }
+
+        public synchronized Page get(PageId pid, boolean useOnce) {
+            LinkNode node = pageStore.get(pid);
+            if (node == null) {
+                return null;
+            }
+            remove(node);
+            addToHead(node);
+            return node.page;
+        }
+
+        public synchronized void install(Page page, boolean useOnce) {
+            if (pageStore.containsKey(page.getId())) {
+                return;
+            }
+            if (pageStore.size() >= frames) {
+                LinkNode victim = tail.prev;
+                remove(victim);
+                pageStore.remove(victim.pageId);
+            }
+            LinkNode node = new LinkNode(page.getId(), page);
+            pageStore.put(page.getId(), node);
+            addToHead(node);
+        }
+    }
+
+    static long run(Table table, int threads, int frames, int ops, AtomicLong misses)
+            throws InterruptedException {
+        int universe = frames * 2;
+        int hot = Math.max(1, universe / 5);
+        HeapPageId[] pids = new HeapPageId[universe];
+        for (int i = 0; i < universe; i++) {
+            pids[i] = new HeapPageId(1, i);
+        }
+
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                ThreadLocalRandom rand = ThreadLocalRandom.current();
+                long localMisses = 0;
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < ops; i++) {
+                    int n = rand.nextInt(10) < 8 ? rand.nextInt(hot) : rand.nextInt(universe);
+                    if (table.get(pids[n], false) == null) {
+                        localMisses++;
+                        table.install(new DummyPage(pids[n]), false);
+                    }
+                }
+                misses.addAndGet(localMisses);
+                done.countDown();
+            }).start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        return System.nanoTime() - begin;
+    }
+
+    /**
+     * @return the hit rate of the point lookups.
+     */
+    static double runScanMix(Table table, int frames, int lookups) {
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
+        int hot = frames / 2;
+        int scanned = frames * 10;
+        long hits = 0;
+        for (int i = 0; i < lookups; i++) {
+            HeapPageId lookup = new HeapPageId(1, rand.nextInt(hot));
+            if (table.get(lookup, false) != null) {
+                hits++;
+            } else {
+                table.install(new DummyPage(lookup), false);
+            }
+            HeapPageId scan = new HeapPageId(2, i % scanned);
+            if (table.get(scan, true) == null) {
+                table.install(new DummyPage(scan), true);
+            }
+        }
+        return hits / (double) lookups;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int frames = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int ops = args.length > 2 ? Integer.parseInt(args[2]) : 200000;
+
+        // warm-up rounds so the JIT has compiled every path before timing.
+        for (int i = 0; i < 3; i++) {
+            run(new PolicyTable("clock", frames), threads, frames, ops, new AtomicLong());
+            run(new PolicyTable("2q", frames), threads, frames, ops, new AtomicLong());
+            run(new LinkNodeTable(frames), threads, frames, ops, new AtomicLong());
+        }
+
+        AtomicLong clockMisses = new AtomicLong();
+        long clockNanos = run(new PolicyTable("clock", frames), threads, frames, ops, clockMisses);
+        AtomicLong twoQueueMisses = new AtomicLong();
+        long twoQueueNanos = run(new PolicyTable("2q", frames), threads, frames, ops, twoQueueMisses);
+        AtomicLong lruMisses = new AtomicLong();
+        long lruNanos = run(new LinkNodeTable(frames), threads, frames, ops, lruMisses);
+
+        long total = (long) threads * ops;
+        System.out.printf("threads=%d frames=%d ops=%d%n", threads, frames, total);
+        System.out.printf("clock    : %8.1f ms  %12.0f ops/s  hit rate %.3f%n",
+                clockNanos / 1e6, total / (clockNanos / 1e9), 1 - clockMisses.get() / (double) total);
+        System.out.printf("2q       : %8.1f ms  %12.0f ops/s  hit rate %.3f%n",
+                twoQueueNanos / 1e6, total / (twoQueueNanos / 1e9), 1 - twoQueueMisses.get() / (double) total);
+        System.out.printf("linknode : %8.1f ms  %12.0f ops/s  hit rate %.3f%n",
+                lruNanos / 1e6, total / (lruNanos / 1e9), 1 - lruMisses.get() / (double) total);
+
+        System.out.printf("scan mix, lookup hit rate: clock %.3f  2q %.3f  linknode %.3f%n",
+                runScanMix(new PolicyTable("clock", frames), frames, ops),
+                runScanMix(new PolicyTable("2q", frames), frames, ops),
+                runScanMix(new LinkNodeTable(frames), frames, ops));
+    }
+}
@@ -0,0 +1,125 @@
+package simpledb;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PaxPageTest extends SimpleDbTestBase {
+    private static final TupleDesc TD = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE});
+
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple tuple(int a, String b, int c) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(a));
+        t.setField(1, new StringField(b, Type.STRING_LEN));
+        t.setField(2, new IntField(c));
+        return t;
+    }
+
+    private PaxPage fullPage(List<Tuple> inserted) throws Exception {
+        PaxPage page = new PaxPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; page.getNumUnusedSlots() > 0; i++) {
+            Tuple t = tuple(i, "s" + i, -i);
+            page.insertTuple(t);
+            inserted.add(t);
+        }
+        return page;
+    }
+
+    /**
+     * A page holds as many tuples as a HeapPage, with the values of each
+     * field one after another.
+     */
+    @Test public void layout() throws Exception {
+        List<Tuple> inserted = new ArrayList<>();
+        PaxPage page = fullPage(inserted);
+        int slots = inserted.size();
+        assertEquals(new HeapPage(pid, HeapPage.createEmptyPageData()).getNumUnusedSlots(), slots);
+
+        ByteBuffer data = ByteBuffer.wrap(page.getPageData());
+        int header = (slots + 7) / 8;
+        int thirdField = header + slots * (Type.INT_TYPE.getLen() + Type.STRING_TYPE.getLen());
+        for (int i = 0; i < slots; i++) {
+            assertEquals(i, data.getInt(header + i * Type.INT_TYPE.getLen()));
+            assertEquals(-i, data.getInt(thirdField + i * Type.INT_TYPE.getLen()));
+        }
+    }
+
+    /**
+     * Tuples read back the same from the serialized page, and a projected
+     * iterator sets only the fields asked for.
+     */
+    @Test public void readAndProject() throws Exception {
+        List<Tuple> inserted = new ArrayList<>();
+        PaxPage page = new PaxPage(pid, fullPage(inserted).getPageData());
+
+        Iterator<Tuple> it = page.iterator();
+        for (Tuple t : inserted) {
+            Tuple read = it.next();
+            assertTrue(TestUtil.compareTuples(t, read));
+            assertEquals(t.getRecordId(), read.getRecordId());
+        }
+        assertFalse(it.hasNext());
+
+        it = page.iterator(new int[]{2});
+        for (Tuple t : inserted) {
+            Tuple read = it.next();
+            assertNull(read.getField(0));
+            assertNull(read.getField(1));
+            assertEquals(t.getField(2), read.getField(2));
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Deleted slots are zeroed and free again; the before image is a PaxPage
+     * as of before the change.
+     */
+    @Test public void deleteAndBeforeImage() throws Exception {
+        PaxPage page = new PaxPage(pid, HeapPage.createEmptyPageData());
+        Tuple t = tuple(7, "seven", 77);
+        page.insertTuple(t);
+        page.setBeforeImage();
+        byte[] before = page.getPageData();
+
+        page.deleteTuple(t);
+        assertArrayEquals(HeapPage.createEmptyPageData(), page.getPageData());
+        PaxPage image = page.getBeforeImage();
+        assertArrayEquals(before, image.getPageData());
+        assertTrue(TestUtil.compareTuples(t, image.iterator().next()));
+
+        try {
+            page.deleteTuple(t);
+            fail("expected DbException deleting a tuple twice");
+        } catch (DbException expected) {
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxPageTest.class);
+    }
+}
@@ -0,0 +1,144 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class PinTest extends SimpleDbTestBase {
+    private static final int PAGES = 6;
+
+    private HeapFile f;
+    private BufferPool bp;
+    private TransactionId tid;
+
+    @Before public void createFile() throws Exception {
+        f = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, null);
+        assertEquals(PAGES, f.numPages());
+        bp = Database.resetBufferPool(2);
+        tid = new TransactionId();
+    }
+
+    private HeapPageId page(int i) {
+        return new HeapPageId(f.getId(), i);
+    }
+
+    /**
+     * A pinned page stays in the pool while other pages come and go.
+     */
+    @Test public void pinnedPageStays() throws Exception {
+        Page pinned = bp.pinPage(tid, page(0), Permissions.READ_ONLY, false);
+        assertEquals(1, bp.getPinCount(page(0)));
+        for (int i = 1; i < PAGES; i++) {
+            bp.getPage(tid, page(i), Permissions.READ_ONLY);
+        }
+        assertSame(pinned, bp.getPage(tid, page(0), Permissions.READ_ONLY));
+
+        bp.unpinPage(tid, page(0));
+        assertEquals(0, bp.getPinCount(page(0)));
+        for (int i = 1; i < PAGES; i++) {
+            bp.getPage(tid, page(i), Permissions.READ_ONLY);
+        }
+        assertNotSame(pinned, bp.getPage(tid, page(0), Permissions.READ_ONLY));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * With every page pinned nothing can be evicted; pins are counted and
+     * released with the transaction.
+     */
+    @Test public void allPinned() throws Exception {
+        bp.pinPage(tid, page(0), Permissions.READ_ONLY, false);
+        bp.pinPage(tid, page(1), Permissions.READ_ONLY, false);
+        bp.pinPage(tid, page(1), Permissions.READ_ONLY, false);
+        assertEquals(2, bp.getPinCount(page(1)));
+        try {
+            bp.getPage(tid, page(2), Permissions.READ_ONLY);
+            fail("expected DbException with every page pinned");
+        } catch (DbException expected) {
+        }
+
+        bp.unpinPage(tid, page(1));
+        assertEquals(1, bp.getPinCount(page(1)));
+        bp.transactionComplete(tid);
+        assertEquals(0, bp.getPinCount(page(0)));
+        assertEquals(0, bp.getPinCount(page(1)));
+
+        TransactionId other = new TransactionId();
+        bp.getPage(other, page(2), Permissions.READ_ONLY);
+        bp.transactionComplete(other);
+    }
+
+    /**
+     * A scan pins the page it is on, and only that one.
+     */
+    @Test public void scanPinsCurrentPage() throws Exception {
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        for (int i = 0; i < 504 * 3; i++) {
+            assertTrue(it.hasNext());
+            it.next();
+        }
+        int pinned = 0;
+        for (int i = 0; i < PAGES; i++) {
+            pinned += bp.getPinCount(page(i));
+        }
+        assertEquals(1, pinned);
+        assertEquals(1, bp.getPinCount(page(2)));
+        it.close();
+        assertEquals(0, bp.getPinCount(page(2)));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Pages read into the pool reuse the frames of the pages they evict; a
+     * page held on to after it was evicted still reads as before.
+     */
+    @Test public void framesReused() throws Exception {
+        Page first = bp.getPage(tid, page(0), Permissions.READ_ONLY);
+        byte[] data = first.getPageData();
+        long allocated = bp.getFrameAllocationCount();
+        for (int round = 0; round < 3; round++) {
+            DbFileIterator it = f.iterator(tid);
+            it.open();
+            while (it.hasNext()) {
+                it.next();
+            }
+            it.close();
+        }
+        assertTrue(bp.getMissCount() > 3 * PAGES - 3);
+        assertTrue(bp.getFrameAllocationCount() - allocated <= 2);
+        assertArrayEquals(data, first.getPageData());
+        bp.transactionComplete(tid);
+
+        // a page that may still be written keeps its frame.
+        TransactionId writer = new TransactionId();
+        bp.getPage(writer, page(0), Permissions.READ_WRITE);
+        allocated = bp.getFrameAllocationCount();
+        for (int i = 1; i < PAGES; i++) {
+            bp.getPage(writer, page(i), Permissions.READ_ONLY);
+        }
+        assertEquals(allocated + 1, bp.getFrameAllocationCount());
+        bp.transactionComplete(writer);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PinTest.class);
+    }
+}
@@ -0,0 +1,89 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+    private static final int TIMEOUT = 10000;
+
+    private HeapFile hf;
+    private List<List<Integer>> tuples;
+
+    /**
+     * Set up a table of about 20 pages.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * 20, null, tuples);
+    }
+
+    /**
+     * Pages loaded by the read-ahead are served from the pool and counted as
+     * hits.
+     */
+    @Test public void prefetchedPagesHit() throws Exception {
+        BufferPool bp = Database.resetBufferPool(50);
+        ReadAhead readAhead = bp.getReadAhead();
+        for (int i = 0; i < 5; i++) {
+            readAhead.prefetch(new HeapPageId(hf.getId(), i));
+        }
+        assertTrue(readAhead.awaitIdle(TIMEOUT));
+        assertEquals(5, readAhead.getIssuedCount());
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 5; i++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+        bp.transactionComplete(tid);
+        assertEquals(5, readAhead.getHitCount());
+        assertEquals(0, readAhead.getWastedCount());
+    }
+
+    /**
+     * A full scan schedules the pages ahead of it, still returns every tuple
+     * once, and reads every page it prefetched.
+     */
+    @Test public void sequentialScan() throws Exception {
+        BufferPool bp = Database.resetBufferPool(50);
+        ReadAhead readAhead = bp.getReadAhead();
+        SystemTestUtil.matchTuples(hf, tuples);
+        assertTrue(readAhead.awaitIdle(TIMEOUT));
+
+        assertTrue(readAhead.getIssuedCount() > 0);
+        assertTrue(readAhead.getIssuedCount() < hf.numPages());
+        assertEquals(0, readAhead.getWastedCount());
+    }
+
+    /**
+     * The window is capped at a quarter of the pool and can be turned off.
+     */
+    @Test public void window() throws Exception {
+        BufferPool bp = Database.resetBufferPool(8);
+        ReadAhead readAhead = bp.getReadAhead();
+        assertEquals(2, readAhead.effectiveWindow());
+
+        readAhead.setWindow(0);
+        SystemTestUtil.matchTuples(hf, tuples);
+        assertEquals(0, readAhead.getIssuedCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
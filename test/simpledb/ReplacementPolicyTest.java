@@ -0,0 +1,118 @@
+package simpledb;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.storage.ClockPolicy;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.storage.ReplacementPolicy;
+import simpledb.storage.TwoQueuePolicy;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class ReplacementPolicyTest {
+    private static final int FRAMES = 16;
+    private static final int HOT = 4;
+
+    /**
+     * Drives a policy the way PageTable does, over a pool of FRAMES pages.
+     */
+    private static class Pool {
+        final ReplacementPolicy policy;
+        final Map<PageId, ReplacementPolicy.Entry> resident = new HashMap<>();
+
+        Pool(ReplacementPolicy policy) {
+            this.policy = policy;
+        }
+
+        void touch(PageId pid, boolean useOnce) {
+            ReplacementPolicy.Entry entry = resident.get(pid);
+            if (entry != null) {
+                policy.pageAccessed(entry, useOnce);
+                return;
+            }
+            if (resident.size() == FRAMES) {
+                PageId victim = policy.chooseVictim(p -> true);
+                policy.pageRemoved(resident.remove(victim));
+            }
+            resident.put(pid, policy.pageInstalled(pid, useOnce));
+        }
+
+        /**
+         * Point lookups on HOT pages interleaved with a scan over many more
+         * pages than the pool holds.
+         */
+        void hotAndScan(boolean scanUseOnce) {
+            for (int i = 0; i < FRAMES * 50; i++) {
+                touch(new HeapPageId(1, i % HOT), false);
+                touch(new HeapPageId(2, i), scanUseOnce);
+            }
+        }
+
+        int hotResident() {
+            int n = 0;
+            for (int i = 0; i < HOT; i++) {
+                if (resident.containsKey(new HeapPageId(1, i))) {
+                    n++;
+                }
+            }
+            return n;
+        }
+    }
+
+    /**
+     * Clock gives up use-once pages before pages with their reference bit set.
+     */
+    @Test public void clockUseOnce() {
+        Pool pool = new Pool(new ClockPolicy(FRAMES));
+        pool.hotAndScan(true);
+        assertEquals(HOT, pool.hotResident());
+    }
+
+    /**
+     * 2Q keeps the working set even when the scan gives no hint.
+     */
+    @Test public void twoQueueScanResistant() {
+        Pool pool = new Pool(new TwoQueuePolicy(FRAMES));
+        pool.hotAndScan(false);
+        assertEquals(HOT, pool.hotResident());
+    }
+
+    /**
+     * 2Q with use-once scans: the scan never gets promoted to the main queue.
+     */
+    @Test public void twoQueueUseOnce() {
+        Pool pool = new Pool(new TwoQueuePolicy(FRAMES));
+        pool.hotAndScan(true);
+        assertEquals(HOT, pool.hotResident());
+        assertTrue(pool.resident.size() <= FRAMES);
+    }
+
+    /**
+     * No victim when nothing may be evicted.
+     */
+    @Test public void nothingEvictable() {
+        for (String name : new String[]{"clock", "2q"}) {
+            Pool pool = new Pool(ReplacementPolicy.create(name, FRAMES));
+            for (int i = 0; i < FRAMES; i++) {
+                pool.touch(new HeapPageId(1, i), false);
+            }
+            assertEquals(null, pool.policy.chooseVictim(p -> false));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownPolicy() {
+        ReplacementPolicy.create("mru", FRAMES);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,135 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SlottedHeapFileTest extends SimpleDbTestBase {
+    private static final TupleDesc TD = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE});
+    private static final int ROWS = 5000;
+
+    private SlottedHeapFile f;
+    private BufferPool bp;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        File file = File.createTempFile("slotted", ".dat");
+        file.deleteOnExit();
+        f = new SlottedHeapFile(file, TD);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        bp = Database.getBufferPool();
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() {
+        bp.transactionComplete(tid);
+    }
+
+    private static List<Tuple> rows(int from, int to) {
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            tuples.add(SlottedHeapPageTest.tuple(i, "code-" + i));
+        }
+        return tuples;
+    }
+
+    private List<Tuple> scan() throws Exception {
+        List<Tuple> tuples = new ArrayList<>();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            tuples.add(it.next());
+        }
+        it.close();
+        return tuples;
+    }
+
+    /**
+     * Short strings fill far fewer pages than in a HeapFile, and a scan
+     * reads back every tuple.
+     */
+    @Test public void insertAndScan() throws Exception {
+        List<Tuple> inserted = rows(0, ROWS);
+        bp.insertTuples(tid, f.getId(), inserted);
+        int heapSlots = BufferPool.getPageSize() * 8 / (TD.getSize() * 8 + 1);
+        int heapPages = (ROWS + heapSlots - 1) / heapSlots;
+        assertTrue(f.numPages() + " pages", f.numPages() * 5 < heapPages);
+        bp.transactionComplete(tid);
+
+        tid = new TransactionId();
+        List<Tuple> read = scan();
+        assertEquals(ROWS, read.size());
+        for (int i = 0; i < ROWS; i++) {
+            assertTrue(TestUtil.compareTuples(inserted.get(i), read.get(i)));
+            assertEquals(inserted.get(i).getRecordId(), read.get(i).getRecordId());
+        }
+    }
+
+    /**
+     * Deleted tuples are gone, and after the file is opened again their room
+     * is found and used before the file grows.
+     */
+    @Test public void deleteAndReuse() throws Exception {
+        bp.insertTuples(tid, f.getId(), rows(0, ROWS));
+        for (Tuple t : scan()) {
+            if (((IntField) t.getField(0)).getValue() % 2 == 0) {
+                bp.deleteTuple(tid, t);
+            }
+        }
+        bp.transactionComplete(tid);
+        int pages = f.numPages();
+        f.close();
+
+        tid = new TransactionId();
+        assertEquals(ROWS / 2, scan().size());
+        bp.insertTuples(tid, f.getId(), rows(ROWS, ROWS + ROWS / 2));
+        assertEquals(pages, f.numPages());
+        assertEquals(ROWS, scan().size());
+    }
+
+    /**
+     * An aborted insert leaves the file as it was.
+     */
+    @Test public void abort() throws Exception {
+        bp.insertTuples(tid, f.getId(), rows(0, 10));
+        bp.transactionComplete(tid);
+        tid = new TransactionId();
+        bp.insertTuples(tid, f.getId(), rows(10, 20));
+        bp.transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        assertEquals(10, scan().size());
+    }
+
+    @Test(expected = DbException.class)
+    public void tooLarge() throws Exception {
+        BufferPool.setPageSize(64);
+        try {
+            char[] chars = new char[100];
+            Arrays.fill(chars, 'x');
+            f.insertTuple(tid, SlottedHeapPageTest.tuple(1, new String(chars)));
+        } finally {
+            BufferPool.resetPageSize();
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapFileTest.class);
+    }
+}
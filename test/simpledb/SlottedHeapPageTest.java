@@ -0,0 +1,153 @@
+package simpledb;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+    private static final TupleDesc TD = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE});
+
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    static Tuple tuple(int a, String b) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(a));
+        t.setField(1, new StringField(b, Type.STRING_LEN));
+        return t;
+    }
+
+    private static String name(int i) {
+        return String.format("name-%07d", i);
+    }
+
+    private SlottedHeapPage emptyPage() {
+        return new SlottedHeapPage(pid, new byte[BufferPool.getPageSize()]);
+    }
+
+    /**
+     * An all-zero page is empty.
+     */
+    @Test public void emptyPageIsEmpty() {
+        SlottedHeapPage page = emptyPage();
+        assertEquals(0, page.getNumTuples());
+        assertEquals(BufferPool.getPageSize() - SlottedHeapPage.HEADER_BYTES, page.getFreeBytes());
+        assertFalse(page.iterator().hasNext());
+    }
+
+    /**
+     * Short strings take only the bytes they need, so a page holds many
+     * more tuples than a HeapPage; they read back the same, also from the
+     * serialized page.
+     */
+    @Test public void insertAndRead() throws Exception {
+        SlottedHeapPage page = emptyPage();
+        List<Tuple> inserted = new ArrayList<>();
+        for (int i = 0; page.fits(tuple(i, name(i))); i++) {
+            Tuple t = tuple(i, name(i));
+            page.insertTuple(t);
+            assertEquals(new RecordId(pid, i), t.getRecordId());
+            inserted.add(t);
+        }
+        // 4 + 13 bytes of record and 4 of slot, against 136 in a HeapPage
+        assertEquals((BufferPool.getPageSize() - SlottedHeapPage.HEADER_BYTES) / 21, inserted.size());
+
+        try {
+            page.insertTuple(tuple(-1, name(0)));
+            fail("expected DbException on a full page");
+        } catch (DbException expected) {
+        }
+
+        SlottedHeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+        Iterator<Tuple> it = copy.iterator();
+        for (Tuple t : inserted) {
+            Tuple read = it.next();
+            assertTrue(TestUtil.compareTuples(t, read));
+            assertEquals(t.getRecordId(), read.getRecordId());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Deletes free slots and bytes; an insert that needs the free bytes in
+     * one piece compacts the page, and tuples keep their slots.
+     */
+    @Test public void deleteAndCompact() throws Exception {
+        SlottedHeapPage page = emptyPage();
+        List<Tuple> inserted = new ArrayList<>();
+        for (int i = 0; page.fits(tuple(i, name(i))); i++) {
+            Tuple t = tuple(i, name(i));
+            page.insertTuple(t);
+            inserted.add(t);
+        }
+        for (int i = 0; i < inserted.size(); i += 2) {
+            page.deleteTuple(inserted.get(i));
+        }
+        assertEquals(inserted.size() / 2, page.getNumTuples());
+
+        // longer than any hole a delete left
+        char[] chars = new char[Type.STRING_LEN];
+        Arrays.fill(chars, 'x');
+        Tuple big = tuple(-1, new String(chars));
+        assertTrue(page.fits(big));
+        page.insertTuple(big);
+        assertEquals(new RecordId(pid, 0), big.getRecordId());
+
+        Iterator<Tuple> it = page.iterator();
+        assertTrue(TestUtil.compareTuples(big, it.next()));
+        for (int i = 1; i < inserted.size(); i += 2) {
+            Tuple read = it.next();
+            assertTrue(TestUtil.compareTuples(inserted.get(i), read));
+            assertEquals(inserted.get(i).getRecordId(), read.getRecordId());
+        }
+        assertFalse(it.hasNext());
+
+        try {
+            // slot 0 went to the big tuple; slot 2 is still empty
+            page.deleteTuple(inserted.get(2));
+            fail("expected DbException deleting a tuple twice");
+        } catch (DbException expected) {
+        }
+    }
+
+    /**
+     * The before image keeps the page as of the last setBeforeImage; with
+     * every tuple deleted the page is an empty page again.
+     */
+    @Test public void beforeImage() throws Exception {
+        SlottedHeapPage page = emptyPage();
+        Tuple t = tuple(1, "one");
+        page.insertTuple(t);
+        page.setBeforeImage();
+        byte[] before = page.getPageData();
+
+        page.deleteTuple(t);
+        assertArrayEquals(before, page.getBeforeImage().getPageData());
+        assertArrayEquals(new byte[BufferPool.getPageSize()], page.getPageData());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
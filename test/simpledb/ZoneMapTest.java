@@ -0,0 +1,217 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.Filter;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+    private static final int PAGES = 10;
+
+    private HeapFile f;
+    private int perPage;
+
+    /**
+     * A table of PAGES full pages whose first field counts up from 0, as in
+     * a table appended to in time order.
+     */
+    @Before public void setUp() throws Exception {
+        perPage = (BufferPool.getPageSize() * 8) / (Utility.getTupleDesc(2).getSize() * 8 + 1);
+        List<List<Integer>> tuples = new ArrayList<>();
+        Random r = new Random(7);
+        for (int i = 0; i < PAGES * perPage; i++) {
+            tuples.add(Arrays.asList(i, r.nextInt()));
+        }
+        File file = File.createTempFile("zones", ".dat");
+        file.deleteOnExit();
+        HeapFileEncoder.convert(tuples, file, BufferPool.getPageSize(), 2);
+        f = Utility.openHeapFile(2, file);
+    }
+
+    private static Tuple tuple(int a, int b) {
+        Tuple t = new Tuple(Utility.getTupleDesc(2));
+        t.setField(0, new IntField(a));
+        t.setField(1, new IntField(b));
+        return t;
+    }
+
+    /**
+     * @return the first fields of the tuples of the table that pass the
+     * predicate, in the order of the scan, which is told the predicate as
+     * the query planner does.
+     */
+    private List<Integer> select(TransactionId tid, Predicate p) throws Exception {
+        SeqScan scan = new SeqScan(tid, f.getId(), "t");
+        scan.addPredicate(p);
+        Filter filter = new Filter(p, scan);
+        List<Integer> read = new ArrayList<>();
+        filter.open();
+        while (filter.hasNext()) {
+            read.add(((IntField) filter.next().getField(0)).getValue());
+        }
+        filter.close();
+        return read;
+    }
+
+    /**
+     * Zones rule pages in or out for each kind of comparison.
+     */
+    @Test public void mayMatch() {
+        ZoneMap zm = new ZoneMap(new TupleDesc(new Type[]{Type.STRING_TYPE, Type.INT_TYPE}));
+        assertArrayEquals(new int[]{1}, zm.getFields());
+        Tuple t = new Tuple(new TupleDesc(new Type[]{Type.STRING_TYPE, Type.INT_TYPE}));
+        t.setField(1, new IntField(10));
+        Tuple u = new Tuple(t.getTupleDesc());
+        u.setField(1, new IntField(20));
+        zm.learn(3, Arrays.asList(t, u).iterator());
+        zm.learn(4, Collections.emptyIterator());
+
+        assertTrue(zm.mayMatch(2, Collections.singletonList(new Predicate(1, Predicate.Op.EQUALS, new IntField(99)))));
+        Object[][] cases = {
+                {Predicate.Op.EQUALS, 15, true}, {Predicate.Op.EQUALS, 21, false},
+                {Predicate.Op.GREATER_THAN, 20, false}, {Predicate.Op.GREATER_THAN, 19, true},
+                {Predicate.Op.GREATER_THAN_OR_EQ, 20, true}, {Predicate.Op.LESS_THAN, 10, false},
+                {Predicate.Op.LESS_THAN_OR_EQ, 10, true}, {Predicate.Op.NOT_EQUALS, 10, true},
+        };
+        for (Object[] c : cases) {
+            Predicate p = new Predicate(1, (Predicate.Op) c[0], new IntField((Integer) c[1]));
+            assertEquals(p.toString(), c[2], zm.mayMatch(3, Collections.singletonList(p)));
+            assertFalse(zm.mayMatch(4, Collections.singletonList(p)));
+        }
+
+        zm.widen(3, Collections.singletonList(t), 0, 1);
+        zm.widen(4, Collections.singletonList(t), 0, 1);
+        assertTrue(zm.mayMatch(4, Collections.singletonList(new Predicate(1, Predicate.Op.EQUALS, new IntField(10)))));
+        zm.truncate(4);
+        assertTrue(zm.isKnown(3));
+        assertFalse(zm.isKnown(4));
+    }
+
+    /**
+     * The first filtered scan reads every page and learns their zones; a
+     * range filter after it reads only the pages in the range.
+     */
+    @Test public void skipPages() throws Exception {
+        Predicate range = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField((PAGES - 2) * perPage + 5));
+        Predicate none = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0));
+        BufferPool bp = Database.getBufferPool();
+
+        TransactionId tid = new TransactionId();
+        assertEquals(Collections.emptyList(), select(tid, none));
+        assertEquals(PAGES, bp.getLockManager().getLockedPages(tid).size());
+        bp.transactionComplete(tid);
+
+        tid = new TransactionId();
+        List<Integer> read = select(tid, range);
+        assertEquals(2 * perPage - 5, read.size());
+        assertEquals((PAGES - 2) * perPage + 5, (int) read.get(0));
+        assertEquals(2, bp.getLockManager().getLockedPages(tid).size());
+
+        // without predicates, every page is read.
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(PAGES * perPage, count);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Inserts and deletes keep the zones covering every tuple, and a
+     * snapshot reads every page.
+     */
+    @Test public void changes() throws Exception {
+        Predicate low = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0));
+        BufferPool bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        select(tid, low);
+        bp.transactionComplete(tid);
+
+        // delete a tuple on page 3 and put one that matches in its place.
+        tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        Tuple victim = null;
+        while (victim == null && it.hasNext()) {
+            Tuple t = it.next();
+            if (t.getRecordId().getPageId().getPageNumber() == 3) {
+                victim = t;
+            }
+        }
+        it.close();
+        bp.deleteTuple(tid, victim);
+        bp.transactionComplete(tid);
+
+        tid = new TransactionId();
+        Tuple inserted = tuple(-7, 0);
+        bp.insertTuple(tid, f.getId(), inserted);
+        assertEquals(3, inserted.getRecordId().getPageId().getPageNumber());
+        assertEquals(Collections.singletonList(-7), select(tid, low));
+        bp.transactionComplete(tid);
+
+        Transaction snapshot = new Transaction();
+        snapshot.startSnapshot();
+        assertEquals(Collections.singletonList(-7), select(snapshot.getId(), low));
+        snapshot.commit();
+
+        tid = new TransactionId();
+        assertEquals(Collections.singletonList(-7), select(tid, low));
+        assertEquals(1, bp.getLockManager().getLockedPages(tid).size());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A filter leaves the scan below it as it is, and reset drops the
+     * predicates a scan was told: reading the scan on its own, or over
+     * another table, returns every tuple.
+     */
+    @Test public void predicatesStayWithScan() throws Exception {
+        Predicate none = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0));
+        BufferPool bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        select(tid, none);
+        bp.transactionComplete(tid);
+
+        tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "t");
+        new Filter(none, scan);
+        assertTrue(scan.getPredicates().isEmpty());
+        scan.addPredicate(none);
+        scan.reset(f.getId(), "u");
+        assertTrue(scan.getPredicates().isEmpty());
+        int count = 0;
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        assertEquals(PAGES * perPage, count);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
@@ -0,0 +1,102 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.storage.LogFile;
+import simpledb.transaction.Transaction;
+
+public class GroupCommitTest extends SimpleDbTestBase {
+    private static final int THREADS = 8;
+    private static final int COMMITS = 50;
+
+    /** Runs the transactions in as many threads, all starting together. */
+    private static void commitConcurrently(int threads, int commits) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        List<Throwable> errors = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int j = 0; j < commits; j++) {
+                        Transaction xact = new Transaction();
+                        xact.start();
+                        xact.commit();
+                    }
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            });
+            t.start();
+            workers.add(t);
+        }
+        start.countDown();
+        for (Thread t : workers) {
+            t.join();
+        }
+        assertEquals(new ArrayList<Throwable>(), errors);
+    }
+
+    /**
+     * Alone, every commit waits for a force of its own.
+     */
+    @Test(timeout = 60000) public void testSingleCommitter() throws Exception {
+        LogFile log = Database.getLogFile();
+        log.setGroupCommitWindow(0);
+        commitConcurrently(1, COMMITS);
+        assertEquals(COMMITS, log.getCommitCount());
+        assertEquals(COMMITS, log.getForceCount());
+    }
+
+    /**
+     * Concurrent commits share forces, and all of them are in the log.
+     */
+    @Test(timeout = 60000) public void testConcurrentCommits() throws Exception {
+        LogFile log = Database.getLogFile();
+        log.setGroupCommitWindow(1000);
+        commitConcurrently(THREADS, COMMITS);
+        assertEquals(THREADS * COMMITS, log.getCommitCount());
+        assertTrue(log.getForceCount() < log.getCommitCount());
+        // a BEGIN and a COMMIT record per transaction
+        assertEquals(2 * THREADS * COMMITS, log.getTotalRecords());
+    }
+
+    /**
+     * A commit waiting while the log is checkpointed and truncated completes.
+     */
+    @Test(timeout = 60000) public void testCommitAcrossTruncate() throws Exception {
+        LogFile log = Database.getLogFile();
+        log.setGroupCommitWindow(20000);
+        Thread committer = new Thread(() -> {
+            try {
+                Transaction t = new Transaction();
+                t.start();
+                t.commit();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        committer.start();
+        while (log.getTotalRecords() < 2) {
+            Thread.sleep(1);
+        }
+        log.logCheckpoint();
+        committer.join();
+        assertEquals(1, log.getCommitCount());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(GroupCommitTest.class);
+    }
+}
@@ -1,11 +1,15 @@
 package simpledb.systemtest;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.junit.Test;
+import static org.junit.Assert.*;
 
 import simpledb.storage.BufferPool;
 import simpledb.common.Database;
@@ -13,9 +17,13 @@ import simpledb.common.DbException;
 import simpledb.storage.HeapFile;
 import simpledb.storage.HeapFileEncoder;
 import simpledb.Parser;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.SeqScan;
 import simpledb.optimizer.TableStats;
 import simpledb.transaction.Transaction;
 import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
 import simpledb.common.Utility;
 
 public class QueryTest {
@@ -81,6 +89,88 @@ public class QueryTest {
 		p.processNextStatementForTest("SELECT * FROM emp,dept,hobbies,hobby WHERE emp.c1 = dept.c0 AND hobbies.c0 = emp.c2 AND hobbies.c1 = hobby.c0 AND emp.c3 < 1000;");
 	}
 	
+	private static void findScans(OpIterator op, List<SeqScan> scans) {
+		if (op instanceof SeqScan) {
+			scans.add((SeqScan) op);
+		} else if (op instanceof Operator) {
+			for (OpIterator child : ((Operator) op).getChildren()) {
+				findScans(child, scans);
+			}
+		}
+	}
+
+	/**
+	 * The scans of a plan read only the fields the query uses, and the query
+	 * returns the same answer as over all the fields.
+	 */
+	@Test public void projectedScanTest() throws Exception {
+		List<List<Integer>> tuples = new ArrayList<>();
+		HeapFile f = SystemTestUtil.createRandomHeapFile(6, 2000, 1000, null, tuples, "c");
+		Database.getCatalog().addTable(f, "proj");
+		TableStats.setTableStats("proj", new TableStats(f.getId(), 1));
+		List<List<Integer>> dimTuples = new ArrayList<>();
+		HeapFile dim = SystemTestUtil.createRandomHeapFile(3, 100, 1000, null, dimTuples, "c");
+		Database.getCatalog().addTable(dim, "dim");
+		TableStats.setTableStats("dim", new TableStats(dim.getId(), 1));
+
+		TransactionId tid = new TransactionId();
+		Parser p = new Parser();
+		OpIterator plan = p.generateLogicalPlan(tid,
+				"SELECT proj.c1, dim.c2 FROM proj, dim WHERE proj.c0 = dim.c0 AND proj.c3 > 500;")
+				.physicalPlan(tid, TableStats.getStatsMap(), false);
+		List<SeqScan> scans = new ArrayList<>();
+		findScans(plan, scans);
+		assertEquals(2, scans.size());
+		for (SeqScan scan : scans) {
+			if (scan.getAlias().equals("proj")) {
+				assertArrayEquals(new int[]{0, 1, 3}, scan.getColumns());
+				// the filter over the scan lets it pass over pages.
+				assertEquals(1, scan.getPredicates().size());
+				assertEquals(3, scan.getPredicates().get(0).getField());
+			} else {
+				assertArrayEquals(new int[]{0, 2}, scan.getColumns());
+				assertTrue(scan.getPredicates().isEmpty());
+			}
+		}
+
+		List<List<Integer>> expected = new ArrayList<>();
+		for (List<Integer> t : tuples) {
+			for (List<Integer> d : dimTuples) {
+				if (t.get(3) > 500 && t.get(0).equals(d.get(0))) {
+					expected.add(Arrays.asList(t.get(1), d.get(2)));
+				}
+			}
+		}
+		SystemTestUtil.matchTuples(plan, expected);
+
+		plan = p.generateLogicalPlan(tid, "SELECT * FROM proj, dim WHERE proj.c0 = dim.c0;")
+				.physicalPlan(tid, TableStats.getStatsMap(), false);
+		scans.clear();
+		findScans(plan, scans);
+		for (SeqScan scan : scans) {
+			assertNull(scan.getColumns());
+		}
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * Every statement of a stream runs, not just the first.
+	 */
+	@Test public void statementsTest() throws Exception {
+		HeapFile f = SystemTestUtil.createRandomHeapFile(2, 0, null, null, "c");
+		Database.getCatalog().addTable(f, "stmts");
+
+		Parser p = new Parser();
+		p.processStatements(new ByteArrayInputStream(
+				"INSERT INTO stmts VALUES (1, 2);\nINSERT INTO stmts\n  VALUES (3, 4);\n"
+						.getBytes(StandardCharsets.UTF_8)));
+
+		List<List<Integer>> expected = new ArrayList<>();
+		expected.add(Arrays.asList(1, 2));
+		expected.add(Arrays.asList(3, 4));
+		SystemTestUtil.matchTuples(f, expected);
+	}
+
 	/*
 	  Build a large series of tables; then run the command-line query code and execute a query.
 	  The number of tables is large enough that the query will only succeed within the
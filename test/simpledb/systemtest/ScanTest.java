@@ -136,6 +136,88 @@ public class ScanTest extends SimpleDbTestBase {
         }
     }
 
+    /** A compressed copy of a table, written page by page. */
+    static HeapFile compressedCopy(HeapFile f) throws IOException {
+        File copy = File.createTempFile("compressed", ".dat");
+        copy.deleteOnExit();
+        HeapFile c = new HeapFile(copy, f.getTupleDesc(), HeapFile.Storage.COMPRESSED);
+        Database.getCatalog().addTable(c, SystemTestUtil.getUUID());
+        for (int i = 0; i < f.numPages(); i++) {
+            c.writePage(f.readPage(new HeapPageId(f.getId(), i)));
+        }
+        return c;
+    }
+
+    /** Scans of compressed tables read back the same tuples from smaller files. */
+    @Test public void testCompressed() throws IOException, DbException, TransactionAbortedException {
+        int[] columnSizes = new int[]{1, 2, 4};
+        int[] rowSizes = new int[]{0, 1, 511, 1025, 4096 + r.nextInt(4096)};
+        for (int columns : columnSizes) {
+            for (int rows : rowSizes) {
+                List<List<Integer>> tuples = new ArrayList<>();
+                HeapFile f = SystemTestUtil.createRandomHeapFile(columns, rows, 1000, null, tuples);
+                HeapFile c = compressedCopy(f);
+                assertEquals(f.numPages(), c.numPages());
+                assertTrue(c.getFile().length() < f.getFile().length() || rows == 0);
+                SystemTestUtil.matchTuples(c, tuples);
+                Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            }
+        }
+    }
+
+    /** Scans of PAX tables read back the same tuples, whole or only some fields. */
+    @Test public void testPax() throws IOException, DbException, TransactionAbortedException {
+        int[] columnSizes = new int[]{1, 2, 4};
+        int[] rowSizes = new int[]{1, 1025, 4096 + r.nextInt(4096)};
+        for (int columns : columnSizes) {
+            for (int rows : rowSizes) {
+                List<List<Integer>> tuples = new ArrayList<>();
+                HeapFile f = SystemTestUtil.createRandomHeapFile(columns, rows, 1000, null, tuples);
+                File file = File.createTempFile("pax", ".dat");
+                file.deleteOnExit();
+                PaxHeapFile pax = new PaxHeapFile(file, f.getTupleDesc());
+                Database.getCatalog().addTable(pax, SystemTestUtil.getUUID());
+
+                TransactionId tid = new TransactionId();
+                List<Tuple> inserted = new ArrayList<>();
+                for (List<Integer> values : tuples) {
+                    Tuple t = new Tuple(pax.getTupleDesc());
+                    for (int i = 0; i < columns; i++) {
+                        t.setField(i, new IntField(values.get(i)));
+                    }
+                    inserted.add(t);
+                }
+                Database.getBufferPool().insertTuples(tid, pax.getId(), inserted);
+                Database.getBufferPool().transactionComplete(tid);
+                SystemTestUtil.matchTuples(pax, tuples);
+
+                // only the last field
+                int last = columns - 1;
+                List<Integer> expected = new ArrayList<>();
+                for (List<Integer> values : tuples) {
+                    expected.add(values.get(last));
+                }
+                List<Integer> actual = new ArrayList<>();
+                tid = new TransactionId();
+                SeqScan scan = new SeqScan(tid, pax.getId(), "t", new int[]{last});
+                scan.open();
+                while (scan.hasNext()) {
+                    Tuple t = scan.next();
+                    for (int i = 0; i < last; i++) {
+                        assertNull(t.getField(i));
+                    }
+                    actual.add(((IntField) t.getField(last)).getValue());
+                }
+                scan.close();
+                Database.getBufferPool().transactionComplete(tid);
+                expected.sort(null);
+                actual.sort(null);
+                assertEquals(expected, actual);
+                Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            }
+        }
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(ScanTest.class);
@@ -0,0 +1,108 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.execution.Delete;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+
+public class SnapshotTest extends SimpleDbTestBase {
+    private static final int ROWS = 512 * 10;
+
+    /** Deletes every tuple of the table, locking all of its pages exclusively. */
+    private static void deleteAll(HeapFile f, Transaction t)
+            throws DbException, TransactionAbortedException {
+        Delete delete = new Delete(t.getId(), new SeqScan(t.getId(), f.getId(), ""));
+        delete.open();
+        Tuple result = delete.next();
+        assertEquals(ROWS, ((IntField) result.getField(0)).getValue());
+        delete.close();
+    }
+
+    /**
+     * A snapshot reads past a writer's exclusive locks and keeps seeing the
+     * state as of its start after the writer commits.
+     */
+    @Test(timeout = 60000) public void testReadersDoNotBlock()
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, ROWS, null, tuples);
+
+        Transaction writer = new Transaction();
+        writer.start();
+        deleteAll(f, writer);
+
+        Transaction reader = new Transaction();
+        reader.startSnapshot();
+        SystemTestUtil.matchTuples(f, reader.getId(), tuples);
+
+        writer.commit();
+        SystemTestUtil.matchTuples(f, reader.getId(), tuples);
+        assertTrue(Database.getBufferPool().getVersionStore().getVersionCount() > 0);
+        reader.commit();
+        assertEquals(0, Database.getBufferPool().getVersionStore().getVersionCount());
+
+        reader = new Transaction();
+        reader.startSnapshot();
+        SystemTestUtil.matchTuples(f, reader.getId(), new ArrayList<>());
+        reader.commit();
+    }
+
+    /**
+     * With STEAL, uncommitted changes reach the disk; a snapshot still reads
+     * the committed pages, before and after the writer aborts.
+     */
+    @Test(timeout = 60000) public void testStolenPages()
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, ROWS, null, tuples);
+        Database.resetBufferPool(2).setStealMode(true);
+
+        Transaction writer = new Transaction();
+        writer.start();
+        deleteAll(f, writer);
+
+        Transaction reader = new Transaction();
+        reader.startSnapshot();
+        SystemTestUtil.matchTuples(f, reader.getId(), tuples);
+        writer.abort();
+        SystemTestUtil.matchTuples(f, reader.getId(), tuples);
+        reader.commit();
+
+        writer = new Transaction();
+        writer.start();
+        deleteAll(f, writer);
+        reader = new Transaction();
+        reader.startSnapshot();
+        writer.commit();
+        SystemTestUtil.matchTuples(f, reader.getId(), tuples);
+        reader.commit();
+    }
+
+    /**
+     * A snapshot cannot write.
+     */
+    @Test(expected = DbException.class) public void testReadOnly()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        Transaction reader = new Transaction();
+        reader.startSnapshot();
+        Database.getBufferPool().getPage(reader.getId(), new HeapPageId(f.getId(), 0), Permissions.READ_WRITE);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(SnapshotTest.class);
+    }
+}
@@ -0,0 +1,141 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.Delete;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+
+public class StealTest extends SimpleDbTestBase {
+    private static final int ROWS = 512 * 10;
+
+    /** Deletes every tuple of the table, dirtying all of its pages. */
+    private static void deleteAll(HeapFile f, Transaction t)
+            throws DbException, TransactionAbortedException {
+        Delete delete = new Delete(t.getId(), new SeqScan(t.getId(), f.getId(), ""));
+        delete.open();
+        Tuple result = delete.next();
+        assertEquals(ROWS, ((IntField) result.getField(0)).getValue());
+        delete.close();
+    }
+
+    private static HeapFile createTable(List<List<Integer>> tuples) throws IOException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, ROWS, null, tuples);
+        Database.resetBufferPool(2).setStealMode(true);
+        return f;
+    }
+
+    /** Drops the buffer pool and log state as a crash would, then recovers. */
+    private static void crashAndRecover(HeapFile f) throws IOException {
+        Database.reset();
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        Database.getLogFile().recover();
+    }
+
+    /**
+     * A transaction can dirty more pages than the pool holds; when it aborts,
+     * the pages written early are rolled back from the log.
+     */
+    @Test public void testAbortAfterSteal()
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = createTable(tuples);
+
+        Transaction t = new Transaction();
+        t.start();
+        deleteAll(f, t);
+        t.transactionComplete(true);
+
+        t = new Transaction();
+        t.start();
+        SystemTestUtil.matchTuples(f, t.getId(), tuples);
+        t.commit();
+    }
+
+    /**
+     * With NO-FORCE, committed pages still in the pool are lost by a crash
+     * and redone from the log.
+     */
+    @Test public void testRedoCommitted()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = createTable(null);
+
+        Transaction t = new Transaction();
+        t.start();
+        deleteAll(f, t);
+        t.commit();
+
+        crashAndRecover(f);
+
+        t = new Transaction();
+        t.start();
+        SystemTestUtil.matchTuples(f, t.getId(), new ArrayList<>());
+        t.commit();
+    }
+
+    /**
+     * Pages stolen from a transaction that never finished are undone by
+     * recovery.
+     */
+    @Test public void testUndoUnfinished()
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = createTable(tuples);
+
+        Transaction t = new Transaction();
+        t.start();
+        deleteAll(f, t);
+
+        crashAndRecover(f);
+
+        t = new Transaction();
+        t.start();
+        SystemTestUtil.matchTuples(f, t.getId(), tuples);
+        t.commit();
+    }
+
+    /**
+     * A committing transaction keeps its locks until its COMMIT record is on
+     * disk, even while group commit holds the force back.
+     */
+    @Test public void testCommitDurableBeforeUnlock() throws Exception {
+        HeapFile f = createTable(null);
+        LogFile log = Database.getLogFile();
+        log.setGroupCommitWindow(200_000);
+
+        Transaction t = new Transaction();
+        t.start();
+        deleteAll(f, t);
+        long forces = log.getForceCount();
+        Thread committer = new Thread(() -> {
+            try {
+                t.commit();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        committer.start();
+
+        HeapPageId pid = new HeapPageId(f.getId(), 0);
+        while (Database.getBufferPool().holdsLock(t.getId(), pid)) {
+            Thread.sleep(1);
+        }
+        assertTrue(log.getForceCount() > forces);
+        committer.join();
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(StealTest.class);
+    }
+}